@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import net.bluecow.robot.gate.AndGate;
+import net.bluecow.robot.gate.Gate;
+import net.bluecow.robot.gate.NotGate;
+
+/**
+ * Test suite for the binary circuit format and the circuit archive.
+ *
+ * @author fuerth
+ * @version $Id:$
+ */
+public class BinaryCircuitStoreTest extends TestCase {
+
+    /**
+     * Builds a circuit where Up = Red AND Green, and Down = NOT(Red AND Green).
+     */
+    private static Robot createWiredRobot() {
+        Robot robot = CircuitTestUtils.createRobot();
+        AndGate and = new AndGate();
+        NotGate not = new NotGate();
+        robot.getCircuit().addGate(and, new Rectangle(10, 20, 30, 40));
+        robot.getCircuit().addGate(not, new Rectangle(5, 60, 30, 40));
+        and.getInputs()[0].connect(robot.getOutputs()[0]);
+        and.getInputs()[1].connect(robot.getOutputs()[1]);
+        not.getInputs()[0].connect(and);
+        robot.getUpInput().connect(and);
+        robot.getDownInput().connect(not);
+        return robot;
+    }
+
+    private static void assertWiredCircuit(Robot robot) {
+        assertEquals(5, robot.getCircuit().getGates().size());
+        Gate and = robot.getUpInput().getConnectedGate();
+        Gate not = robot.getDownInput().getConnectedGate();
+        assertTrue(and instanceof AndGate);
+        assertTrue(not instanceof NotGate);
+        assertEquals(new Rectangle(10, 20, 30, 40), and.getBounds());
+        assertEquals(new Rectangle(5, 60, 30, 40), not.getBounds());
+        assertSame(robot.getOutputs()[0], and.getInputs()[0].getConnectedGate());
+        assertSame(robot.getOutputs()[1], and.getInputs()[1].getConnectedGate());
+        assertSame(and, not.getInputs()[0].getConnectedGate());
+        assertNull(robot.getLeftInput().getConnectedGate());
+    }
+
+    public void testRoundTrip() throws Exception {
+        byte[] data = BinaryCircuitStore.toByteArray(Collections.singleton(createWiredRobot()));
+        Robot loaded = CircuitTestUtils.createRobot();
+        BinaryCircuitStore.load(ByteBuffer.wrap(data), Collections.singleton(loaded));
+        assertWiredCircuit(loaded);
+    }
+
+    public void testTextLoaderAcceptsBinary() throws Exception {
+        byte[] data = BinaryCircuitStore.toByteArray(Collections.singleton(createWiredRobot()));
+        Robot loaded = CircuitTestUtils.createRobot();
+        CircuitStore.load(new ByteArrayInputStream(data), Collections.singleton(loaded));
+        assertWiredCircuit(loaded);
+    }
+
+    public void testTextFormatStillWorks() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CircuitStore.save(out, Collections.singleton(createWiredRobot()));
+        assertTrue(new String(out.toByteArray(), "UTF-8").startsWith(CircuitStore.MAGIC));
+        Robot loaded = CircuitTestUtils.createRobot();
+        CircuitStore.load(new ByteArrayInputStream(out.toByteArray()), Collections.singleton(loaded));
+        assertWiredCircuit(loaded);
+    }
+
+    public void testTruncatedData() throws Exception {
+        byte[] data = BinaryCircuitStore.toByteArray(Collections.singleton(createWiredRobot()));
+        try {
+            BinaryCircuitStore.load(ByteBuffer.wrap(data, 0, data.length - 2), Collections.singleton(CircuitTestUtils.createRobot()));
+            fail("Truncated data should not load");
+        } catch (FileFormatException ex) {
+            // expected
+        }
+    }
+
+    public void testNegativeCount() throws Exception {
+        byte[] data = BinaryCircuitStore.toByteArray(Collections.singleton(createWiredRobot()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(data, 0, BinaryCircuitStore.MAGIC.length + 1);
+        // gate class count of -1
+        out.write(new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f });
+        out.write(data, BinaryCircuitStore.MAGIC.length + 2, data.length - BinaryCircuitStore.MAGIC.length - 2);
+        try {
+            BinaryCircuitStore.load(ByteBuffer.wrap(out.toByteArray()), Collections.singleton(CircuitTestUtils.createRobot()));
+            fail("Negative count should not load");
+        } catch (FileFormatException ex) {
+            // expected
+        }
+    }
+
+    public void testArchive() throws Exception {
+        byte[] wired = BinaryCircuitStore.toByteArray(Collections.singleton(createWiredRobot()));
+        byte[] empty = BinaryCircuitStore.toByteArray(Collections.singleton(CircuitTestUtils.createRobot()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CircuitArchive.Writer writer = new CircuitArchive.Writer(out);
+        writer.addEntry("zeta", empty);
+        writer.addEntry("alpha", wired);
+        writer.addEntry("été", empty);
+        writer.close();
+
+        CircuitArchive archive = new CircuitArchive(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(3, archive.size());
+        assertEquals("alpha", archive.getName(0));
+        assertEquals("zeta", archive.getName(1));
+        assertEquals("été", archive.getName(2));
+        assertEquals(2, archive.indexOf("été"));
+        assertTrue(archive.indexOf("beta") < 0);
+        assertNull(archive.getData("beta"));
+        assertEquals(wired.length, archive.getData("alpha").remaining());
+
+        Robot loaded = CircuitTestUtils.createRobot();
+        archive.load("alpha", Collections.singleton(loaded));
+        assertWiredCircuit(loaded);
+    }
+
+    public void testArchiveRejectsCorruptIndex() throws Exception {
+        byte[] empty = BinaryCircuitStore.toByteArray(Collections.singleton(CircuitTestUtils.createRobot()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CircuitArchive.Writer writer = new CircuitArchive.Writer(out);
+        writer.addEntry("a", empty);
+        writer.close();
+        byte[] data = out.toByteArray();
+        
+        // the single index record's name length, just before the trailer
+        ByteBuffer.wrap(data).putInt(data.length - 16 - 12, 1000);
+        try {
+            new CircuitArchive(ByteBuffer.wrap(data));
+            fail("Name running past the index should be rejected");
+        } catch (FileFormatException ex) {
+            // expected
+        }
+    }
+
+    public void testArchiveRejectsDuplicateNames() throws Exception {
+        byte[] empty = BinaryCircuitStore.toByteArray(Collections.singleton(CircuitTestUtils.createRobot()));
+        CircuitArchive.Writer writer = new CircuitArchive.Writer(new ByteArrayOutputStream());
+        writer.addEntry("a", empty);
+        try {
+            writer.addEntry("a", empty);
+            fail("Duplicate names should be rejected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+}
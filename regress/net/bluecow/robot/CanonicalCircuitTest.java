@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import net.bluecow.robot.gate.AndGate;
+import net.bluecow.robot.gate.NotGate;
+
+/**
+ * Test suite for the canonical circuit form and the circuit result cache.
+ *
+ * @author fuerth
+ * @version $Id:$
+ */
+public class CanonicalCircuitTest extends TestCase {
+
+    public void testLayoutAndInputOrderIndependence() {
+        Robot r1 = CircuitTestUtils.createRobot();
+        AndGate and1 = new AndGate();
+        NotGate not1 = new NotGate();
+        r1.getCircuit().addGate(and1, new Rectangle(10, 10, 30, 30));
+        r1.getCircuit().addGate(not1, new Rectangle(50, 10, 30, 30));
+        and1.getInputs()[0].connect(r1.getOutputs()[0]);
+        and1.getInputs()[1].connect(not1);
+        not1.getInputs()[0].connect(r1.getOutputs()[1]);
+        r1.getUpInput().connect(and1);
+
+        // same circuit, added in the opposite order, elsewhere, with the AND inputs swapped
+        Robot r2 = CircuitTestUtils.createRobot();
+        NotGate not2 = new NotGate();
+        AndGate and2 = new AndGate();
+        r2.getCircuit().addGate(not2, new Rectangle(200, 300, 30, 30));
+        r2.getCircuit().addGate(and2, new Rectangle(100, 100, 30, 30));
+        not2.getInputs()[0].connect(r2.getOutputs()[1]);
+        and2.getInputs()[0].connect(not2);
+        and2.getInputs()[1].connect(r2.getOutputs()[0]);
+        r2.getUpInput().connect(and2);
+
+        assertEquals(new CanonicalCircuit(r1.getCircuit()), new CanonicalCircuit(r2.getCircuit()));
+        assertEquals(CanonicalCircuit.hashCircuits(Collections.singleton(r1)),
+                CanonicalCircuit.hashCircuits(Collections.singleton(r2)));
+
+        // moving the NOT to the other sensor changes the behaviour
+        not2.getInputs()[0].connect(r2.getOutputs()[0]);
+        assertFalse(new CanonicalCircuit(r1.getCircuit()).equals(new CanonicalCircuit(r2.getCircuit())));
+    }
+
+    public void testDeadGatesIgnored() {
+        Robot r1 = CircuitTestUtils.createRobot();
+        NotGate not1 = new NotGate();
+        r1.getCircuit().addGate(not1, new Rectangle(10, 10, 30, 30));
+        not1.getInputs()[0].connect(r1.getOutputs()[0]);
+        r1.getDownInput().connect(not1);
+
+        Robot r2 = CircuitTestUtils.createRobot();
+        NotGate not2 = new NotGate();
+        r2.getCircuit().addGate(not2, new Rectangle(10, 10, 30, 30));
+        not2.getInputs()[0].connect(r2.getOutputs()[0]);
+        r2.getDownInput().connect(not2);
+        AndGate unused = new AndGate();
+        r2.getCircuit().addGate(unused, new Rectangle(90, 90, 30, 30));
+        unused.getInputs()[0].connect(not2);
+
+        assertEquals(new CanonicalCircuit(r1.getCircuit()).getHash(),
+                new CanonicalCircuit(r2.getCircuit()).getHash());
+    }
+
+    public void testResultCachePersists() throws Exception {
+        File f = File.createTempFile("results", ".cache");
+        try {
+            CircuitResultCache cache = new CircuitResultCache(f);
+            assertNull(cache.get("level", "circuit"));
+            cache.put("level", "circuit", new CircuitResultCache.Result(true, 42, 100));
+            cache.close();
+
+            cache = new CircuitResultCache(f);
+            assertEquals(1, cache.size());
+            assertEquals(new CircuitResultCache.Result(true, 42, 100), cache.get("level", "circuit"));
+            assertNull(cache.get("level", "other"));
+            cache.close();
+        } finally {
+            f.delete();
+        }
+    }
+
+    public void testResultCacheIgnoresTornLastLine() throws Exception {
+        File f = File.createTempFile("results", ".cache");
+        try {
+            CircuitResultCache cache = new CircuitResultCache(f);
+            cache.put("level", "circuit", new CircuitResultCache.Result(true, 42, 100));
+            cache.close();
+            FileOutputStream out = new FileOutputStream(f, true);
+            out.write("level other tr".getBytes("UTF-8"));
+            out.close();
+
+            cache = new CircuitResultCache(f);
+            assertEquals(1, cache.size());
+            cache.put("level", "other", new CircuitResultCache.Result(false, 7, 0));
+            cache.close();
+
+            cache = new CircuitResultCache(f);
+            assertEquals(2, cache.size());
+            assertEquals(new CircuitResultCache.Result(false, 7, 0), cache.get("level", "other"));
+            cache.close();
+        } finally {
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import net.bluecow.robot.GameConfig.GateConfig;
+import net.bluecow.robot.GameConfig.SensorConfig;
+import net.bluecow.robot.gate.AndGate;
+import net.bluecow.robot.gate.NotGate;
+
+/**
+ * Fixtures shared by the circuit test suites.
+ *
+ * @author fuerth
+ * @version $Id:$
+ */
+class CircuitTestUtils {
+
+    private CircuitTestUtils() {
+        // static methods only
+    }
+
+    /**
+     * Creates a robot called "grod" with Red and Green sensors and an empty
+     * circuit that allows any number of AND and NOT gates.
+     */
+    static Robot createRobot() {
+        List<SensorConfig> sensors = new ArrayList<SensorConfig>();
+        sensors.add(new SensorConfig("Red"));
+        sensors.add(new SensorConfig("Green"));
+        Collection<GateConfig> gateConfigs = Collections.emptyList();
+        Robot robot = new Robot("grod", "Grod", null, sensors, gateConfigs, null,
+                new Point2D.Float(0.5f, 0.5f), 0.1f, null, 1);
+        robot.getCircuit().addGateAllowance(AndGate.class, -1);
+        robot.getCircuit().addGateAllowance(NotGate.class, -1);
+        return robot;
+    }
+}
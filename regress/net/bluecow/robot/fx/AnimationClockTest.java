@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.fx;
+
+import junit.framework.TestCase;
+
+/**
+ * Test suite for the animation clock.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class AnimationClockTest extends TestCase {
+
+    /**
+     * An animation that is restarted while its first tick is in progress,
+     * and says it is finished every time it is ticked.
+     */
+    private static class RestartingAnimation implements AnimationClock.Animation {
+        int ticks;
+        
+        public synchronized boolean tick() {
+            ticks++;
+            if (ticks == 1) {
+                AnimationClock.start(this, 1);
+            }
+            notifyAll();
+            return false;
+        }
+        
+        synchronized void waitForTicks(int n, long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            while (ticks < n && System.currentTimeMillis() < end) {
+                wait(end - System.currentTimeMillis());
+            }
+        }
+    }
+
+    public void testStartDuringFinalTickIsNotLost() throws Exception {
+        RestartingAnimation anim = new RestartingAnimation();
+        AnimationClock.start(anim, 1);
+        anim.waitForTicks(2, 5000);
+        assertEquals(2, anim.ticks);
+        
+        // the second tick finished it for good
+        Thread.sleep(AnimationClock.FRAME_PERIOD * 4);
+        assertFalse(AnimationClock.isRunning(anim));
+        assertEquals(2, anim.ticks);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.fx;
+
+import java.awt.Point;
+
+import junit.framework.TestCase;
+
+/**
+ * Test suite for the particle system and its pool.
+ *
+ * @author fuerth
+ * @version $Id:$
+ */
+public class ParticleSystemTest extends TestCase {
+
+    public void testEmitUntilFull() {
+        ParticleSystem ps = new ParticleSystem(2);
+        assertTrue(ps.emit(0, 0, 0, 0, 5));
+        assertTrue(ps.emit(0, 0, 0, 0, 5));
+        assertFalse(ps.emit(0, 0, 0, 0, 5));
+        assertEquals(2, ps.size());
+    }
+
+    public void testExpiredAndFallenParticlesRemoved() {
+        ParticleSystem ps = new ParticleSystem(4);
+        ps.emit(0, 0, 0, 0, 0);     // dies on the first update
+        ps.emit(0, 0, 0, 2, 10);    // falls through the floor on the first update
+        ps.emit(0, 0, 0, -1, 10);   // survives
+        ps.emit(0, 0, 1, 0, 1);     // survives one update
+        ps.update(0, 0, 1);
+        assertEquals(2, ps.size());
+        ps.update(0, 0, 1);
+        assertEquals(1, ps.size());
+    }
+
+    public void testPoolReusesReleasedSystems() {
+        ParticleSystem ps = ParticleSystem.obtain(1000);
+        ps.emit(1, 2, 3, 4, 5);
+        ParticleSystem.release(ps);
+        ParticleSystem reused = ParticleSystem.obtain(500);
+        assertSame(ps, reused);
+        assertEquals(0, reused.size());
+        assertNotSame(reused, ParticleSystem.obtain(10000));
+    }
+
+    public void testFireworksFinishAndRelease() {
+        Fireworks f = new Fireworks(new Point(100, 100), 0f, 5f, 3, 50, 1.0, 3.0, 0.0, 10.0);
+        for (int i = 0; i < 100 && !f.isFinished(); i++) {
+            f.nextFrame();
+        }
+        assertTrue(f.isFinished());
+        f.release();
+        assertTrue(f.isFinished());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.resource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import junit.framework.TestCase;
+
+/**
+ * Test suite for deduplicated (content-addressed) resource JARs.
+ *
+ * @author fuerth
+ * @version $Id:$
+ */
+public class ContentAddressedJarTest extends TestCase {
+
+    private File dir;
+    private File jarFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("content", ".dir");
+        dir.delete();
+        new File(dir, "ROBO-INF/images").mkdirs();
+        new File(dir, "ROBO-INF/copies").mkdirs();
+        write("ROBO-INF/images/tile.png", "same bytes");
+        write("ROBO-INF/copies/tile.png", "same bytes");
+        write("ROBO-INF/images/other.png", "different bytes");
+        jarFile = File.createTempFile("content", ".jar");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (String path : new String[] {
+                "ROBO-INF/images/tile.png", "ROBO-INF/copies/tile.png", "ROBO-INF/images/other.png",
+                "ROBO-INF/images", "ROBO-INF/copies", "ROBO-INF", "" }) {
+            new File(dir, path).delete();
+        }
+        jarFile.delete();
+    }
+
+    private void write(String path, String contents) throws IOException {
+        OutputStream out = new FileOutputStream(new File(dir, path));
+        out.write(contents.getBytes("UTF-8"));
+        out.close();
+    }
+
+    public void testDuplicatesStoredOnce() throws Exception {
+        DirectoryResourceManager drm = new DirectoryResourceManager(dir);
+        ResourceUtils.createResourceJar(drm, jarFile, true);
+        drm.close();
+
+        ZipFile zip = new ZipFile(jarFile);
+        int stored = 0;
+        if (zip.getEntry("ROBO-INF/images/tile.png") != null) stored++;
+        if (zip.getEntry("ROBO-INF/copies/tile.png") != null) stored++;
+        assertEquals(1, stored);
+        assertNotNull(zip.getEntry(ContentIndex.PATH));
+        zip.close();
+
+        ZipFileResourceLoader zl = new ZipFileResourceLoader(jarFile);
+        assertTrue(Arrays.equals("same bytes".getBytes("UTF-8"), zl.getResourceBytes("ROBO-INF/images/tile.png")));
+        assertTrue(Arrays.equals("same bytes".getBytes("UTF-8"), zl.getResourceBytes("ROBO-INF/copies/tile.png")));
+        assertEquals(zl.getContentHash("ROBO-INF/images/tile.png"), zl.getContentHash("ROBO-INF/copies/tile.png"));
+        assertFalse(zl.getContentHash("ROBO-INF/images/tile.png").equals(zl.getContentHash("ROBO-INF/images/other.png")));
+    }
+
+    public void testJarResourceManagerRoundTrip() throws Exception {
+        DirectoryResourceManager drm = new DirectoryResourceManager(dir);
+        ResourceUtils.createResourceJar(drm, jarFile, true);
+        List<String> expected = drm.listAll();
+        drm.close();
+
+        JarResourceManager jrm = new JarResourceManager(jarFile);
+        assertEquals(expected, jrm.listAll());
+        assertTrue(jrm.resourceExists("ROBO-INF/copies/tile.png"));
+        assertTrue(Arrays.equals("same bytes".getBytes("UTF-8"), jrm.getResourceBytes("ROBO-INF/copies/tile.png")));
+
+        // saving over the JAR it was opened from keeps the deduplicated layout,
+        // and the resource manager goes on reading from the new JAR
+        ResourceUtils.createResourceJar(jrm, jarFile, true);
+        assertEquals(expected, jrm.listAll());
+        assertTrue(Arrays.equals("same bytes".getBytes("UTF-8"), jrm.getResourceBytes("ROBO-INF/copies/tile.png")));
+        jrm.close();
+        jrm = new JarResourceManager(jarFile);
+        assertEquals(expected, jrm.listAll());
+        assertNotNull(jrm.getContentHash("ROBO-INF/copies/tile.png"));
+
+        // a rewritten resource no longer has the recorded hash
+        OutputStream out = jrm.openForWrite("ROBO-INF/copies/tile.png", false);
+        out.write(1);
+        out.close();
+        assertNull(jrm.getContentHash("ROBO-INF/copies/tile.png"));
+        jrm.close();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.resource;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.bluecow.robot.resource.event.ResourceManagerEvent;
+import net.bluecow.robot.resource.event.ResourceManagerListener;
+
+/**
+ * Test suite for the directory watcher in {@link DirectoryResourceManager}.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class DirectoryResourceManagerTest extends TestCase {
+
+    private File dir;
+    private DirectoryResourceManager drm;
+    
+    /**
+     * Every event fired by {@link #drm}, as "added", "removed" or "changed"
+     * followed by a space and the resource name.
+     */
+    private final List<String> events = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("watched", ".dir");
+        dir.delete();
+        dir.mkdir();
+        drm = new DirectoryResourceManager(dir);
+        drm.addResourceManagerListener(new ResourceManagerListener() {
+            public void resourceAdded(ResourceManagerEvent event) {
+                events.add("added " + event.getChildName());
+            }
+            public void resourceRemoved(ResourceManagerEvent event) {
+                events.add("removed " + event.getChildName());
+            }
+            public void resourceChanged(ResourceManagerEvent event) {
+                events.add("changed " + event.getChildName());
+            }
+        });
+        
+        // a long interval, so only the direct calls to checkForChanges() scan
+        drm.startWatching(3600000L);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        drm.close();
+        new File(dir, "map").delete();
+        dir.delete();
+    }
+
+    public void testWriteInProgressIsNotAnOutsideChange() throws Exception {
+        OutputStream out = drm.openForWrite("map", true);
+        out.write(new byte[100]);
+        out.flush();
+        drm.checkForChanges();
+        assertEquals(new ArrayList<String>(), events);
+        
+        out.write(new byte[100]);
+        out.close();
+        assertEquals("[added map]", events.toString());
+        drm.checkForChanges();
+        assertEquals("[added map]", events.toString());
+        
+        events.clear();
+        out = drm.openForWrite("map", false);
+        out.write(1);
+        out.close();
+        drm.checkForChanges();
+        assertEquals(new ArrayList<String>(), events);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test suite for the binary resource listing format.
+ *
+ * @author fuerth
+ * @version $Id:$
+ */
+public class ResourceListIndexTest extends TestCase {
+
+    private static final List<String> PATHS = Arrays.asList(
+            "ROBO-INF/", "ROBO-INF/default.map", "ROBO-INF/images/",
+            "ROBO-INF/images/a.png", "ROBO-INF/images/b.png", "ROBO-INF/levels.txt",
+            "README", "ROBO-INF/sounds/beep.wav");
+
+    public void testListing() throws Exception {
+        ResourceListIndex index = ResourceListIndex.create(PATHS);
+
+        // root, the 8 paths, and the unlisted ROBO-INF/sounds/ directory
+        assertEquals(10, index.size());
+        assertEquals(0, index.indexOf(""));
+        assertTrue(index.indexOf("ROBO-INF/sounds/") > 0);
+        assertTrue(index.indexOf("ROBO-INF/sound") < 0);
+        assertTrue(index.isDirectory(index.indexOf("ROBO-INF/images/")));
+        assertFalse(index.isDirectory(index.indexOf("ROBO-INF/default.map")));
+
+        assertEquals(Arrays.asList("README", "ROBO-INF/"), index.listChildren(0, null));
+        assertEquals(Arrays.asList("ROBO-INF/default.map", "ROBO-INF/images/",
+                "ROBO-INF/levels.txt", "ROBO-INF/sounds/"),
+                index.listChildren(index.indexOf("ROBO-INF/"), null));
+        assertEquals(Collections.emptyList(),
+                index.listChildren(index.indexOf("ROBO-INF/levels.txt"), null));
+        assertEquals(Arrays.asList("ROBO-INF/images/b.png"),
+                index.listChildren(index.indexOf("ROBO-INF/images/"),
+                        new RegexResourceNameFilter(".*/b\\.png", false)));
+        assertFalse(index.isListed(index.indexOf("ROBO-INF/sounds/")));
+        assertTrue(index.isListed(index.indexOf("ROBO-INF/images/")));
+        assertEquals(PATHS.size(), index.listAll(null).size());
+        assertFalse(index.listAll(null).contains("ROBO-INF/sounds/"));
+    }
+
+    /**
+     * Returns a loader whose only resource is a listing at "resources.list"
+     * with the given contents.
+     */
+    private static ResourceLoader listingLoader(final byte[] listing) {
+        return new AbstractResourceLoader() {
+            public InputStream getResourceAsStream(String resourceName) throws IOException {
+                if (!resourceName.equals("resources.list")) {
+                    throw new FileNotFoundException(resourceName);
+                }
+                return new ByteArrayInputStream(listing);
+            }
+        };
+    }
+
+    private static void checkLoader(PreListedResourceLoader loader) throws Exception {
+        assertEquals(PATHS.size(), loader.listAll().size());
+        assertFalse(loader.listAll().contains("ROBO-INF/sounds/"));
+        assertEquals(Arrays.asList("ROBO-INF/sounds/beep.wav"), loader.list("ROBO-INF/sounds/"));
+
+        // paths are always taken to be directories, with or without the slash
+        assertEquals(loader.list("ROBO-INF/"), loader.list("ROBO-INF"));
+        assertEquals(loader.list("/ROBO-INF/images/"), loader.list("ROBO-INF/images"));
+        assertEquals(Collections.emptyList(), loader.list("ROBO-INF/default.map"));
+
+        assertTrue(loader.resourceExists("ROBO-INF/images"));
+        assertTrue(loader.resourceExists("/README"));
+        assertFalse(loader.resourceExists("ROBO-INF/image"));
+    }
+
+    public void testBinaryListing() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResourceListIndex.write(PATHS, out);
+        checkLoader(new PreListedResourceLoader(listingLoader(out.toByteArray()), "resources.list"));
+    }
+
+    public void testTextListing() throws Exception {
+        StringBuffer text = new StringBuffer();
+        for (String path : PATHS) {
+            text.append(path).append("\n");
+        }
+        byte[] listing = text.toString().getBytes("UTF-8");
+        assertFalse(ResourceListIndex.isIndex(ByteBuffer.wrap(listing)));
+        checkLoader(new PreListedResourceLoader(listingLoader(listing), "resources.list"));
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.bluecow.robot.gate.Gate;
+import net.bluecow.robot.gate.GateFactory;
+
+/**
+ * The BinaryCircuitStore class saves and loads circuits in a compact,
+ * versioned binary format. It is the binary counterpart of
+ * {@link CircuitStore}, and is meant for storing large numbers of circuits
+ * (for example, inside a {@link CircuitArchive}).
+ * <p>
+ * The format is laid out as follows. All integers are unsigned LEB128
+ * varints unless stated otherwise, and strings are a varint byte count
+ * followed by that many bytes of UTF-8.
+ * <pre>
+ *  magic        4 bytes: 0x89 'G' 'C' 'B'
+ *  version      1 byte (currently 1)
+ *  class table  count, then count gate class names (strings)
+ *  robot count
+ *  for each robot:
+ *    robot id (string)
+ *    gate count
+ *    for each gate:
+ *      type (0 = robot sensor output, 1 = robot inputs gate,
+ *            n+2 = entry n in the class table)
+ *      sensor label (string, only present for type 0)
+ *      x, y (zigzag-encoded signed varints), width, height
+ *    connection count
+ *    for each connection:
+ *      target gate index, target input index, source gate index
+ * </pre>
+ * Gates are identified by their position in the robot's gate list, so
+ * no identifiers are stored for them.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class BinaryCircuitStore {
+
+    /**
+     * The bytes every binary circuit description starts with. The first byte
+     * is non-ASCII so binary circuits can never be mistaken for the text
+     * format, which starts with {@link CircuitStore#MAGIC}.
+     */
+    static final byte[] MAGIC = { (byte) 0x89, 'G', 'C', 'B' };
+
+    /**
+     * The current version of the binary format.
+     */
+    public static final int VERSION = 1;
+
+    private static final int TYPE_SENSOR_OUTPUT = 0;
+    private static final int TYPE_INPUTS_GATE = 1;
+    private static final int TYPE_FIRST_CLASS = 2;
+
+    private BinaryCircuitStore() {
+        throw new UnsupportedOperationException("This utility class is not instantiable");
+    }
+
+    /**
+     * Returns true if the given buffer's remaining bytes start with the
+     * binary circuit magic number. The buffer's position is not modified.
+     */
+    public static boolean isBinaryCircuit(ByteBuffer buf) {
+        if (buf.remaining() < MAGIC.length) return false;
+        int pos = buf.position();
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buf.get(pos + i) != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the binary description of the circuits belonging to the given
+     * robots as a byte array.
+     */
+    public static byte[] toByteArray(Collection<Robot> robots) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try {
+            save(out, robots);
+        } catch (IOException ex) {
+            throw new RuntimeException("Byte array streams don't throw IOExceptions", ex);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a binary description of the circuits belonging to the given
+     * robots to the given output stream. The stream is not closed.
+     */
+    public static void save(OutputStream out, Collection<Robot> robots) throws IOException {
+
+        // build the class table first, since it precedes all the robots
+        Map<String, Integer> classIds = new HashMap<String, Integer>();
+        List<String> classNames = new ArrayList<String>();
+        for (Robot robot : robots) {
+            for (Gate g : robot.getCircuit().getGates()) {
+                if (g instanceof Robot.RobotSensorOutput || g instanceof Robot.RobotInputsGate) {
+                    continue;
+                }
+                String className = g.getClass().getName();
+                if (!classIds.containsKey(className)) {
+                    classIds.put(className, classNames.size());
+                    classNames.add(className);
+                }
+            }
+        }
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+        buf.write(MAGIC);
+        buf.write(VERSION);
+        writeVarInt(buf, classNames.size());
+        for (String className : classNames) {
+            writeString(buf, className);
+        }
+
+        writeVarInt(buf, robots.size());
+        for (Robot robot : robots) {
+            writeString(buf, robot.getId());
+            Collection<Gate> gates = robot.getCircuit().getGates();
+            Map<Gate, Integer> gateIndex = new HashMap<Gate, Integer>();
+            writeVarInt(buf, gates.size());
+            int connectionCount = 0;
+            for (Gate g : gates) {
+                gateIndex.put(g, gateIndex.size());
+                if (g instanceof Robot.RobotSensorOutput) {
+                    writeVarInt(buf, TYPE_SENSOR_OUTPUT);
+                    writeString(buf, g.getLabel());
+                } else if (g instanceof Robot.RobotInputsGate) {
+                    writeVarInt(buf, TYPE_INPUTS_GATE);
+                } else {
+                    writeVarInt(buf, TYPE_FIRST_CLASS + classIds.get(g.getClass().getName()));
+                }
+                Rectangle r = g.getBounds();
+                writeVarInt(buf, zigzag(r.x));
+                writeVarInt(buf, zigzag(r.y));
+                writeVarInt(buf, zigzag(r.width));
+                writeVarInt(buf, zigzag(r.height));
+                for (Gate.Input input : g.getInputs()) {
+                    if (input.getConnectedGate() != null) connectionCount++;
+                }
+            }
+
+            writeVarInt(buf, connectionCount);
+            for (Gate g : gates) {
+                Gate.Input[] inputs = g.getInputs();
+                for (int i = 0; i < inputs.length; i++) {
+                    Gate source = inputs[i].getConnectedGate();
+                    if (source != null) {
+                        writeVarInt(buf, gateIndex.get(g));
+                        writeVarInt(buf, i);
+                        writeVarInt(buf, gateIndex.get(source));
+                    }
+                }
+            }
+        }
+
+        buf.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Reads the binary circuit descriptions in the given buffer, and sets the
+     * newly-loaded circuit on each robot. The rules for matching circuits to
+     * robots are the same as in {@link CircuitStore#load(java.io.InputStream, Collection)}.
+     * <p>
+     * The description is read starting at the buffer's current position, but
+     * the position of the given buffer is not modified, so the same buffer
+     * (for example, a slice of a memory-mapped {@link CircuitArchive}) can be
+     * loaded any number of times without copying it.
+     *
+     * @throws FileFormatException if the buffer does not contain a valid binary
+     * circuit description. The bad character position of the exception is the
+     * offset of the problem, in bytes, relative to the start of the description.
+     * @throws IllegalArgumentException if the buffer describes a circuit for a
+     * robot who is not in the given list.
+     */
+    public static void load(ByteBuffer data, Collection<Robot> robots) throws IOException {
+        ByteBuffer buf = data.slice();
+        try {
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (buf.get() != MAGIC[i]) {
+                    throw new FileFormatException("Not a binary circuit description", -1, null, i);
+                }
+            }
+            int version = buf.get() & 0xff;
+            if (version != VERSION) {
+                throw new FileFormatException(
+                        "Unsupported binary circuit version "+version+
+                        " (expected "+VERSION+")", -1, null, buf.position() - 1);
+            }
+
+            int classCount = readCount(buf);
+            List<GateFactory> classes = new ArrayList<GateFactory>(classCount);
+            for (int i = 0; i < classCount; i++) {
+                int pos = buf.position();
+                String className = readString(buf);
+                try {
+                    classes.add(GateFactory.forClassName(className));
+                } catch (ClassNotFoundException e) {
+                    throw new FileFormatException(
+                            "Couldn't find gate class: "+e.getMessage(), -1, className, pos);
+                } catch (IllegalArgumentException e) {
+                    throw new FileFormatException(
+                            "Couldn't create gate class: "+e.getMessage(), -1, className, pos);
+                }
+            }
+
+            Map<String, Robot> roboMap = new HashMap<String, Robot>();
+            for (Robot r : robots) {
+                roboMap.put(r.getId(), r);
+            }
+
+            int robotCount = readCount(buf);
+            for (int ri = 0; ri < robotCount; ri++) {
+                String robotId = readString(buf);
+                Robot robot = roboMap.get(robotId);
+                if (robot == null) {
+                    throw new IllegalArgumentException("Robot '"+robotId+"' is referenced in the circuit file, but is not in the given collection");
+                }
+
+                int gateCount = readCount(buf);
+                Gate[] gates = new Gate[gateCount];
+                for (int gi = 0; gi < gateCount; gi++) {
+                    int pos = buf.position();
+                    int type = readVarInt(buf);
+                    String label = null;
+                    if (type == TYPE_SENSOR_OUTPUT) {
+                        label = readString(buf);
+                    }
+                    Rectangle bounds = new Rectangle(
+                            unzigzag(readVarInt(buf)), unzigzag(readVarInt(buf)),
+                            unzigzag(readVarInt(buf)), unzigzag(readVarInt(buf)));
+
+                    if (type == TYPE_SENSOR_OUTPUT) {
+                        for (Gate roboGate : robot.getOutputs()) {
+                            if (roboGate.getLabel().equals(label)) {
+                                gates[gi] = roboGate;
+                            }
+                        }
+                        if (gates[gi] == null) throw new IOException("Unknwon Robot Sensor '"+label+"'");
+                    } else if (type == TYPE_INPUTS_GATE) {
+                        gates[gi] = robot.getInputsGate();
+                    } else if (type >= TYPE_FIRST_CLASS && type - TYPE_FIRST_CLASS < classes.size()) {
+                        gates[gi] = classes.get(type - TYPE_FIRST_CLASS).newGate();
+                        robot.getCircuit().addGate(gates[gi], bounds);
+                    } else {
+                        throw new FileFormatException("Invalid gate type "+type, -1, null, pos);
+                    }
+                }
+
+                int connectionCount = readCount(buf);
+                for (int ci = 0; ci < connectionCount; ci++) {
+                    int pos = buf.position();
+                    int target = readVarInt(buf);
+                    int inpNum = readVarInt(buf);
+                    int source = readVarInt(buf);
+                    if (target < 0 || target >= gateCount || source < 0 || source >= gateCount) {
+                        throw new FileFormatException("Connection refers to a nonexistant gate", -1, null, pos);
+                    }
+                    Gate.Input[] inputs = gates[target].getInputs();
+                    if (inpNum < 0 || inpNum >= inputs.length) {
+                        throw new FileFormatException("Connection refers to a nonexistant input", -1, null, pos);
+                    }
+                    inputs[inpNum].connect(gates[source]);
+                }
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new FileFormatException("Unexpected end of binary circuit data", -1, null, buf.position());
+        }
+    }
+
+    // ----------- Encoding helpers (also used by CircuitArchive) ------------
+
+    /**
+     * Writes the given non-negative value as an unsigned LEB128 varint.
+     */
+    static void writeVarInt(OutputStream out, int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint from the given buffer.
+     *
+     * @throws FileFormatException if the varint is longer than 5 bytes
+     */
+    static int readVarInt(ByteBuffer buf) throws FileFormatException {
+        int pos = buf.position();
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buf.get();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new FileFormatException("Malformed varint", -1, null, pos);
+    }
+
+    /**
+     * Reads the number of items in a list that follows in the given buffer.
+     * Every item takes at least one byte, so a count that is negative or
+     * bigger than the number of bytes left can't be right.
+     *
+     * @throws FileFormatException if the count is out of range
+     */
+    static int readCount(ByteBuffer buf) throws FileFormatException {
+        int pos = buf.position();
+        int count = readVarInt(buf);
+        if (count < 0 || count > buf.remaining()) {
+            throw new FileFormatException("Item count "+count+" runs past end of data", -1, null, pos);
+        }
+        return count;
+    }
+
+    static void writeString(OutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buf) throws IOException {
+        int pos = buf.position();
+        int len = readVarInt(buf);
+        if (len < 0 || len > buf.remaining()) {
+            throw new FileFormatException("String length "+len+" runs past end of data", -1, null, pos);
+        }
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, "UTF-8");
+            buf.position(buf.position() + len);
+        } else {
+            byte[] bytes = new byte[len];
+            buf.get(bytes);
+            s = new String(bytes, "UTF-8");
+        }
+        return s;
+    }
+
+    /**
+     * Maps signed integers to unsigned ones so that values of small
+     * magnitude have short varint encodings.
+     */
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
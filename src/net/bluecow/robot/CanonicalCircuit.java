@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot;
+
+import java.awt.geom.Point2D;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import net.bluecow.robot.GameConfig.SensorConfig;
+import net.bluecow.robot.LevelConfig.Switch;
+import net.bluecow.robot.gate.AbstractAndGate;
+import net.bluecow.robot.gate.AbstractOrGate;
+import net.bluecow.robot.gate.Gate;
+
+/**
+ * The CanonicalCircuit class reduces a circuit to a textual form that only
+ * depends on its behaviour, and not on how it was drawn or saved. Two
+ * circuits that differ only in gate positions, the order gates were added
+ * in, the identifiers {@link CircuitStore} assigns, or the order of the
+ * inputs of an AND or OR type gate will have the same canonical form.
+ * <p>
+ * The canonical form is built as follows:
+ * <ol>
+ *  <li>Gates that have no path to the robot's inputs are dropped, since
+ *      they can't influence the robot's movement.
+ *  <li>Every remaining gate is coloured by its type, and the colours are
+ *      repeatedly refined by the colours of each gate's sources and
+ *      consumers until they stop changing (Weisfeiler-Lehman refinement).
+ *  <li>Gates are numbered in breadth-first order backwards from the robot
+ *      inputs gate, visiting the sources of AND/OR type gates in colour order.
+ *  <li>Each gate is written out as its type and the numbers of the gates
+ *      connected to its inputs.
+ * </ol>
+ * The form fully describes the pruned circuit, so two circuits with the same
+ * canonical form always behave identically. The converse holds for all but
+ * pathological (highly symmetric) circuits, where the worst outcome is that
+ * two equivalent circuits get different forms.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class CanonicalCircuit {
+
+    /**
+     * The canonical text of the circuit.
+     */
+    private final String form;
+
+    /**
+     * The SHA-256 hash of {@link #form}. Calculated on demand.
+     */
+    private String hash;
+
+    /**
+     * Calculates the canonical form of the given circuit.
+     */
+    public CanonicalCircuit(Circuit circuit) {
+        this.form = canonicalize(circuit);
+    }
+
+    /**
+     * Returns the canonical text of the circuit. It is meant to be compared
+     * and hashed, not read, but it is line-oriented to make debugging easier.
+     */
+    public String getForm() {
+        return form;
+    }
+
+    /**
+     * Returns the SHA-256 hash of the canonical form, as a string of 64
+     * lowercase hex digits.
+     */
+    public String getHash() {
+        if (hash == null) {
+            hash = sha256(form);
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CanonicalCircuit && ((CanonicalCircuit) obj).form.equals(form);
+    }
+
+    @Override
+    public int hashCode() {
+        return form.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return form;
+    }
+
+    /**
+     * Calculates a combined hash for the circuits of all the given robots.
+     * Robots are distinguished by ID, so the hash doesn't depend on the order
+     * of the collection.
+     */
+    public static String hashCircuits(Collection<Robot> robots) {
+        Map<String, String> forms = new TreeMap<String, String>();
+        for (Robot r : robots) {
+            forms.put(r.getId(), new CanonicalCircuit(r.getCircuit()).getForm());
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : forms.entrySet()) {
+            sb.append("*Robot ").append(entry.getKey()).append('\n');
+            sb.append(entry.getValue());
+        }
+        return sha256(sb.toString());
+    }
+
+    /**
+     * Calculates a hash of everything about the given level that can affect
+     * the outcome of running a circuit in it: the map, the robots' starting
+     * state and sensors, and the switches and their scripts. Cosmetic
+     * properties such as names, descriptions, labels and sprites are ignored.
+     */
+    public static String hashLevel(LevelConfig level) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("size ").append(level.getWidth()).append('x').append(level.getHeight()).append('\n');
+
+        // the square types are described separately from the map, so each is only described once
+        Map<Character, String> squareTypes = new TreeMap<Character, String>();
+        Square[][] map = level.getMap();
+        sb.append("map\n");
+        for (int y = 0; y < map.length; y++) {
+            for (int x = 0; x < map[y].length; x++) {
+                Square sq = map[y][x];
+                if (sq == null) {
+                    sb.append('\u0000');
+                    continue;
+                }
+                sb.append(sq.getMapChar());
+                if (!squareTypes.containsKey(sq.getMapChar())) {
+                    TreeSet<String> sensors = new TreeSet<String>();
+                    for (SensorConfig sensor : sq.getSensorTypes()) {
+                        sensors.add(sensor.getId());
+                    }
+                    squareTypes.put(sq.getMapChar(), (sq.isOccupiable() ? "open " : "wall ") + sensors);
+                }
+            }
+            sb.append('\n');
+        }
+        for (Map.Entry<Character, String> entry : squareTypes.entrySet()) {
+            sb.append("square ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+
+        List<Robot> robots = new ArrayList<Robot>(level.getRobots());
+        Collections.sort(robots, new Comparator<Robot>() {
+            public int compare(Robot r1, Robot r2) {
+                return r1.getId().compareTo(r2.getId());
+            }
+        });
+        for (Robot r : robots) {
+            Point2D.Float start = r.getStartPosition();
+            sb.append("robot ").append(r.getId())
+              .append(' ').append(start.x).append(',').append(start.y)
+              .append(" step ").append(r.getStepSize())
+              .append(" evals ").append(r.getEvalsPerStep())
+              .append(" sensors");
+            for (Gate output : r.getCircuit().getOutputs()) {
+                sb.append(' ').append(output.getLabel());
+            }
+            sb.append('\n');
+        }
+
+        for (Switch s : level.getSwitches()) {
+            sb.append("switch ").append(s.getId())
+              .append(' ').append(s.getX()).append(',').append(s.getY())
+              .append(s.isEnabled() ? " enabled " : " disabled ")
+              .append(s.getOnEnter()).append('\n');
+        }
+        return sha256(sb.toString());
+    }
+
+    /**
+     * Returns the type label that starts off the refinement for the given gate.
+     */
+    private static String typeLabel(Circuit circuit, Gate g) {
+        if (g == circuit.getInputsGate()) {
+            return "ROBOT_INPUTS";
+        } else if (circuit.getOutputs().contains(g)) {
+            return "SENSOR " + g.getLabel();
+        } else {
+            return g.getClass().getName() + "/" + g.getInputs().length;
+        }
+    }
+
+    /**
+     * Returns true if the order of the given gate's inputs doesn't affect its output.
+     */
+    private static boolean isCommutative(Gate g) {
+        return g instanceof AbstractAndGate || g instanceof AbstractOrGate;
+    }
+
+    private static String canonicalize(Circuit circuit) {
+
+        // find the live gates by walking backwards from the robot inputs
+        Map<Gate, Integer> index = new HashMap<Gate, Integer>();
+        List<Gate> gates = new ArrayList<Gate>();
+        LinkedList<Gate> queue = new LinkedList<Gate>();
+        index.put(circuit.getInputsGate(), 0);
+        gates.add(circuit.getInputsGate());
+        queue.add(circuit.getInputsGate());
+        while (!queue.isEmpty()) {
+            Gate g = queue.removeFirst();
+            for (Gate.Input input : g.getInputs()) {
+                Gate source = input.getConnectedGate();
+                if (source != null && !index.containsKey(source)) {
+                    index.put(source, gates.size());
+                    gates.add(source);
+                    queue.add(source);
+                }
+            }
+        }
+
+        int n = gates.size();
+        int[][] sources = new int[n][];
+        boolean[] commutative = new boolean[n];
+        List<List<Integer>> consumers = new ArrayList<List<Integer>>(n);
+        for (int i = 0; i < n; i++) {
+            consumers.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < n; i++) {
+            Gate g = gates.get(i);
+            Gate.Input[] inputs = g.getInputs();
+            commutative[i] = isCommutative(g);
+            sources[i] = new int[inputs.length];
+            for (int k = 0; k < inputs.length; k++) {
+                Gate source = inputs[k].getConnectedGate();
+                sources[i][k] = (source == null ? -1 : index.get(source));
+                if (source != null) {
+                    consumers.get(sources[i][k]).add(i);
+                }
+            }
+        }
+
+        // colour refinement
+        String[] signatures = new String[n];
+        for (int i = 0; i < n; i++) {
+            signatures[i] = typeLabel(circuit, gates.get(i));
+        }
+        int[] colours = rank(signatures);
+        int distinct = countDistinct(colours);
+        for (int round = 0; round < n; round++) {
+            for (int i = 0; i < n; i++) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(colours[i]).append('(');
+                int[] in = new int[sources[i].length];
+                for (int k = 0; k < in.length; k++) {
+                    in[k] = (sources[i][k] < 0 ? -1 : colours[sources[i][k]]);
+                }
+                if (commutative[i]) Arrays.sort(in);
+                for (int c : in) sb.append(c).append(',');
+                sb.append(")[");
+                int[] out = new int[consumers.get(i).size()];
+                for (int k = 0; k < out.length; k++) {
+                    out[k] = colours[consumers.get(i).get(k)];
+                }
+                Arrays.sort(out);
+                for (int c : out) sb.append(c).append(',');
+                sb.append(']');
+                signatures[i] = sb.toString();
+            }
+            int[] refined = rank(signatures);
+            int refinedDistinct = countDistinct(refined);
+            colours = refined;
+            if (refinedDistinct == distinct) break;
+            distinct = refinedDistinct;
+        }
+
+        // number the gates breadth-first from the robot inputs gate, using colours to break ties
+        final int[] finalColours = colours;
+        int[] canonical = new int[n];
+        Arrays.fill(canonical, -1);
+        List<Integer> order = new ArrayList<Integer>(n);
+        canonical[0] = 0;
+        order.add(0);
+        for (int head = 0; head < order.size(); head++) {
+            int g = order.get(head);
+            List<Integer> next = new ArrayList<Integer>();
+            for (int s : sources[g]) {
+                if (s >= 0) next.add(s);
+            }
+            if (commutative[g]) {
+                Collections.sort(next, new Comparator<Integer>() {
+                    public int compare(Integer a, Integer b) {
+                        return finalColours[a] - finalColours[b];
+                    }
+                });
+            }
+            for (int s : next) {
+                if (canonical[s] < 0) {
+                    canonical[s] = order.size();
+                    order.add(s);
+                }
+            }
+        }
+
+        StringBuilder form = new StringBuilder();
+        for (int g : order) {
+            form.append(typeLabel(circuit, gates.get(g))).append(" <-");
+            int[] in = new int[sources[g].length];
+            for (int k = 0; k < in.length; k++) {
+                in[k] = (sources[g][k] < 0 ? -1 : canonical[sources[g][k]]);
+            }
+            if (commutative[g]) Arrays.sort(in);
+            for (int c : in) {
+                form.append(' ').append(c < 0 ? "-" : String.valueOf(c));
+            }
+            form.append('\n');
+        }
+        return form.toString();
+    }
+
+    /**
+     * Replaces each string with its rank among the distinct strings in the array.
+     */
+    private static int[] rank(String[] strings) {
+        TreeMap<String, Integer> ranks = new TreeMap<String, Integer>();
+        for (String s : strings) {
+            ranks.put(s, null);
+        }
+        int r = 0;
+        for (Map.Entry<String, Integer> entry : ranks.entrySet()) {
+            entry.setValue(r++);
+        }
+        int[] result = new int[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            result[i] = ranks.get(strings[i]);
+        }
+        return result;
+    }
+
+    private static int countDistinct(int[] colours) {
+        int max = -1;
+        for (int c : colours) {
+            max = Math.max(max, c);
+        }
+        return max + 1;
+    }
+
+    /**
+     * Returns the SHA-256 hash of the UTF-8 encoding of the given string, in hex.
+     */
+    static String sha256(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(s.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException("SHA-256 is always supported", ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException("UTF-8 is always supported", ex);
+        }
+    }
+}
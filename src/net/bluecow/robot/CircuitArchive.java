@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A CircuitArchive is a single file holding many named binary circuit
+ * descriptions (see {@link BinaryCircuitStore}), with an index that allows
+ * any one of them to be found by name without reading the others.
+ * <p>
+ * Archives are written in one pass by a {@link Writer}, and read through a
+ * ByteBuffer (usually a memory-mapped file; see {@link #open(File)}).
+ * Reading an entry does not copy its data: {@link #getData(int)} returns a
+ * read-only slice of the archive's buffer, which can be handed straight to
+ * {@link BinaryCircuitStore#load(ByteBuffer, Collection)}.
+ * <p>
+ * The file layout is as follows (fixed-width integers are big-endian):
+ * <pre>
+ *  header   4 byte magic (0x89 'G' 'C' 'A'), 1 byte version, 3 reserved bytes
+ *  data     the circuit descriptions, back to back
+ *  names    the entry names, UTF-8 encoded, back to back
+ *  index    one 24-byte record per entry, sorted by name:
+ *             long data offset, int data length,
+ *             int name length, long name offset
+ *  trailer  long index offset, int entry count, 4 byte magic
+ * </pre>
+ * Names are compared as unsigned UTF-8 byte strings, and the index is
+ * binary-searched directly in the buffer. Opening an archive only checks
+ * that every index record points inside the data and names sections; no
+ * circuit or name is decoded until it is asked for.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class CircuitArchive {
+
+    private static final byte[] MAGIC = { (byte) 0x89, 'G', 'C', 'A' };
+
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int INDEX_RECORD_SIZE = 24;
+    private static final int TRAILER_SIZE = 16;
+
+    /**
+     * The whole archive. Its position and limit are never modified.
+     */
+    private final ByteBuffer buf;
+
+    /**
+     * The absolute offset of the first index record in {@link #buf}.
+     */
+    private final int indexOffset;
+
+    /**
+     * The number of entries in this archive.
+     */
+    private final int size;
+
+    /**
+     * Opens the archive stored in the given file by memory-mapping it.
+     * The file can be closed or deleted once this method returns without
+     * invalidating the archive.
+     */
+    public static CircuitArchive open(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel ch = in.getChannel();
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("Circuit archive "+file+" is too large to map ("+ch.size()+" bytes)");
+            }
+            return new CircuitArchive(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates a reader for the archive contained in the remaining bytes of
+     * the given buffer. The buffer is not copied.
+     *
+     * @throws FileFormatException if the buffer doesn't hold a valid archive
+     */
+    public CircuitArchive(ByteBuffer archive) throws FileFormatException {
+        this.buf = archive.slice();
+        int length = buf.limit();
+        if (length < HEADER_SIZE + TRAILER_SIZE) {
+            throw new FileFormatException("Circuit archive is truncated", -1, null, length);
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buf.get(i) != MAGIC[i] || buf.get(length - MAGIC.length + i) != MAGIC[i]) {
+                throw new FileFormatException("Not a circuit archive", -1, null, i);
+            }
+        }
+        int version = buf.get(MAGIC.length) & 0xff;
+        if (version != VERSION) {
+            throw new FileFormatException(
+                    "Unsupported circuit archive version "+version+
+                    " (expected "+VERSION+")", -1, null, MAGIC.length);
+        }
+        long indexOffset = buf.getLong(length - TRAILER_SIZE);
+        int size = buf.getInt(length - TRAILER_SIZE + 8);
+        if (size < 0 || indexOffset < HEADER_SIZE ||
+                indexOffset + (long) size * INDEX_RECORD_SIZE != length - TRAILER_SIZE) {
+            throw new FileFormatException("Circuit archive index is corrupt", -1, null, length - TRAILER_SIZE);
+        }
+        this.indexOffset = (int) indexOffset;
+        this.size = size;
+        
+        for (int entry = 0; entry < size; entry++) {
+            int rec = this.indexOffset + entry * INDEX_RECORD_SIZE;
+            long dataOffset = buf.getLong(rec);
+            int dataLength = buf.getInt(rec + 8);
+            int nameLength = buf.getInt(rec + 12);
+            long nameOffset = buf.getLong(rec + 16);
+            if (!isInside(dataOffset, dataLength) || !isInside(nameOffset, nameLength)) {
+                throw new FileFormatException("Circuit archive index entry "+entry+" is corrupt", -1, null, rec);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given range lies entirely between the header and
+     * the index of this archive.
+     */
+    private boolean isInside(long offset, int length) {
+        return offset >= HEADER_SIZE && length >= 0 && offset + length <= indexOffset;
+    }
+
+    /**
+     * Returns the number of circuit descriptions in this archive.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the name of the entry at the given position in the index.
+     * Entries are sorted by name.
+     */
+    public String getName(int entry) {
+        int rec = recordOffset(entry);
+        int nameLength = buf.getInt(rec + 12);
+        int nameOffset = (int) buf.getLong(rec + 16);
+        byte[] name = new byte[nameLength];
+        ByteBuffer b = buf.duplicate();
+        b.position(nameOffset);
+        b.get(name);
+        try {
+            return new String(name, "UTF-8");
+        } catch (IOException ex) {
+            throw new RuntimeException("UTF-8 is always supported", ex);
+        }
+    }
+
+    /**
+     * Returns a read-only view of the binary circuit description stored in
+     * the given entry. The returned buffer shares its content with this archive.
+     */
+    public ByteBuffer getData(int entry) {
+        int rec = recordOffset(entry);
+        int dataOffset = (int) buf.getLong(rec);
+        int dataLength = buf.getInt(rec + 8);
+        return slice(dataOffset, dataLength).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the binary circuit description stored under the given name,
+     * or null if this archive has no such entry.
+     */
+    public ByteBuffer getData(String name) {
+        int entry = indexOf(name);
+        if (entry < 0) return null;
+        return getData(entry);
+    }
+
+    /**
+     * Loads the circuit stored under the given name into the given robots.
+     *
+     * @throws IllegalArgumentException if there is no entry with the given name
+     * @see BinaryCircuitStore#load(ByteBuffer, Collection)
+     */
+    public void load(String name, Collection<Robot> robots) throws IOException {
+        ByteBuffer data = getData(name);
+        if (data == null) {
+            throw new IllegalArgumentException("No circuit named '"+name+"' in this archive");
+        }
+        BinaryCircuitStore.load(data, robots);
+    }
+
+    /**
+     * Returns the index of the entry with the given name, or a negative number
+     * if there is no such entry.
+     */
+    public int indexOf(String name) {
+        byte[] key = utf8(name);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int rec = recordOffset(mid);
+            int cmp = compareName(buf.getInt(rec + 12), (int) buf.getLong(rec + 16), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int recordOffset(int entry) {
+        if (entry < 0 || entry >= size) {
+            throw new IndexOutOfBoundsException("Entry "+entry+" (archive has "+size+" entries)");
+        }
+        return indexOffset + entry * INDEX_RECORD_SIZE;
+    }
+
+    /**
+     * Compares the name stored in the buffer at the given location with the
+     * given key, as unsigned bytes.
+     */
+    private int compareName(int nameLength, int nameOffset, byte[] key) {
+        int n = Math.min(nameLength, key.length);
+        for (int i = 0; i < n; i++) {
+            int diff = (buf.get(nameOffset + i) & 0xff) - (key[i] & 0xff);
+            if (diff != 0) return diff;
+        }
+        return nameLength - key.length;
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer b = buf.duplicate();
+        b.position(offset);
+        b.limit(offset + length);
+        return b.slice();
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (IOException ex) {
+            throw new RuntimeException("UTF-8 is always supported", ex);
+        }
+    }
+
+    /**
+     * Orders UTF-8 names the same way {@link CircuitArchive#indexOf(String)} does.
+     */
+    private static final Comparator<byte[]> NAME_ORDER = new Comparator<byte[]>() {
+        public int compare(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; i++) {
+                int diff = (a[i] & 0xff) - (b[i] & 0xff);
+                if (diff != 0) return diff;
+            }
+            return a.length - b.length;
+        }
+    };
+
+    /**
+     * Writes a circuit archive to an output stream in a single pass. Entries
+     * may be added in any order; the index is sorted when the writer is closed.
+     */
+    public static class Writer {
+
+        private final OutputStream out;
+
+        /**
+         * The number of bytes written to {@link #out} so far.
+         */
+        private long offset;
+
+        private final List<Entry> entries = new ArrayList<Entry>();
+
+        private final Set<String> names = new HashSet<String>();
+
+        private boolean closed;
+
+        private static class Entry {
+            final byte[] name;
+            final long dataOffset;
+            final int dataLength;
+
+            Entry(byte[] name, long dataOffset, int dataLength) {
+                this.name = name;
+                this.dataOffset = dataOffset;
+                this.dataLength = dataLength;
+            }
+        }
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = new BufferedOutputStream(out, 65536);
+            this.out.write(MAGIC);
+            this.out.write(new byte[] { (byte) VERSION, 0, 0, 0 });
+            offset = HEADER_SIZE;
+        }
+
+        /**
+         * Adds the circuits of the given robots to the archive under the given name.
+         */
+        public void addEntry(String name, Collection<Robot> robots) throws IOException {
+            addEntry(name, BinaryCircuitStore.toByteArray(robots));
+        }
+
+        /**
+         * Adds an already-encoded binary circuit description to the archive
+         * under the given name.
+         *
+         * @throws IllegalArgumentException if the name has already been used,
+         * or the data isn't a binary circuit description.
+         */
+        public void addEntry(String name, byte[] circuitData) throws IOException {
+            if (closed) throw new IllegalStateException("This writer is closed");
+            if (!BinaryCircuitStore.isBinaryCircuit(ByteBuffer.wrap(circuitData))) {
+                throw new IllegalArgumentException("Entry '"+name+"' is not a binary circuit description");
+            }
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("Duplicate entry name '"+name+"'");
+            }
+            entries.add(new Entry(utf8(name), offset, circuitData.length));
+            out.write(circuitData);
+            offset += circuitData.length;
+        }
+
+        /**
+         * Writes the name table, index and trailer, then closes the underlying
+         * output stream.
+         */
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+
+            Collections.sort(entries, new Comparator<Entry>() {
+                public int compare(Entry a, Entry b) {
+                    return NAME_ORDER.compare(a.name, b.name);
+                }
+            });
+
+            long[] nameOffsets = new long[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                nameOffsets[i] = offset;
+                out.write(entries.get(i).name);
+                offset += entries.get(i).name.length;
+            }
+
+            long indexOffset = offset;
+            ByteBuffer rec = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = entries.get(i);
+                rec.clear();
+                rec.putLong(e.dataOffset);
+                rec.putInt(e.dataLength);
+                rec.putInt(e.name.length);
+                rec.putLong(nameOffsets[i]);
+                out.write(rec.array());
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            trailer.putLong(indexOffset);
+            trailer.putInt(entries.size());
+            trailer.put(MAGIC);
+            out.write(trailer.array());
+            out.close();
+        }
+    }
+}
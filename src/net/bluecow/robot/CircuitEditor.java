@@ -48,7 +48,6 @@ import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
@@ -65,13 +64,14 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.KeyStroke;
-import javax.swing.Timer;
 import javax.swing.event.MouseInputAdapter;
 
 import net.bluecow.robot.GameConfig.GateConfig;
 import net.bluecow.robot.event.CircuitEvent;
 import net.bluecow.robot.event.CircuitListener;
+import net.bluecow.robot.fx.AnimationClock;
 import net.bluecow.robot.gate.Gate;
+import net.bluecow.robot.gate.GateFactory;
 import net.bluecow.robot.sound.SoundManager;
 
 public class CircuitEditor extends JPanel {
@@ -105,12 +105,7 @@ public class CircuitEditor extends JPanel {
      * 
      * @see net.bluecow.robot.fx.ZoomEffect
      */
-    private class GateZoomEffect implements ActionListener {
-        
-        /**
-         * The timer that periodically triggers rendering of the next frame.
-         */
-        private final Timer timer;
+    private class GateZoomEffect implements AnimationClock.Animation {
         
         /**
          * Goes from 0.0 to 1.0 in increments of frameStep.
@@ -150,11 +145,10 @@ public class CircuitEditor extends JPanel {
             this.startOutputStickLength = gate.getOutputStickLength();
             this.endInputStickLength = endInputStickLength;
             this.endOutputStickLength = endOutputStickLength;
-            timer = new Timer(20, this);
-            timer.start();
+            AnimationClock.start(this, 20);
         }
 
-        public void actionPerformed(ActionEvent e) {
+        public boolean tick() {
             if (progress >= 1.0) {
                 progress = 1.0;
             }
@@ -180,13 +174,14 @@ public class CircuitEditor extends JPanel {
 
             debugf("GateZoomEffect: zooming gate is at %s", r);
             
-            repaint();
+            AnimationClock.requestRepaint(CircuitEditor.this);
             
             if (progress == 1.0) {
                 zoomingGate = null;
-                timer.stop();
+                return false;
             } else {
                 progress += frameStep;
+                return true;
             }
         }
     }
@@ -223,16 +218,13 @@ public class CircuitEditor extends JPanel {
             gates = new ArrayList<Gate>(circuit.getGateAllowances().size());
             for (Map.Entry<Class<? extends Gate>, Integer> allowance : circuit.getGateAllowances().entrySet()) {
                 try {
-                    Gate miniGate = allowance.getKey().newInstance();
+                    Gate miniGate = GateFactory.forClass(allowance.getKey()).newGate();
                     miniGate.setInputStickLength(miniStickLength);
                     miniGate.setOutputStickLength(miniStickLength);
                     miniGate.setCircleSize(4);
                     miniGate.setDrawingTerminations(false);
                     gates.add(miniGate);
-                } catch (InstantiationException e) {
-                    System.out.println("Couldn't create mini gate instance for "+allowance.getKey());
-                    e.printStackTrace();
-                } catch (IllegalAccessException e) {
+                } catch (RuntimeException e) {
                     System.out.println("Couldn't create mini gate instance for "+allowance.getKey());
                     e.printStackTrace();
                 }
@@ -515,7 +507,7 @@ public class CircuitEditor extends JPanel {
                 return;
             }
             try {
-                Gate newGate = gc.getGateClass().newInstance();
+                Gate newGate = gc.newGate();
                 circuit.addGate(newGate, 
                         new Rectangle(
                                 newGatePosition.x,
@@ -532,12 +524,9 @@ public class CircuitEditor extends JPanel {
                 newGate.setInputStickLength(zoomFrom.getInputStickLength());
                 newGate.setOutputStickLength(zoomFrom.getOutputStickLength());
                 new GateZoomEffect(ZOOM_STEPS, newGate, zoomTo, nisl, nosl);
-            } catch (InstantiationException e1) {
+            } catch (RuntimeException e1) {
                 e1.printStackTrace();
                 JOptionPane.showMessageDialog(CircuitEditor.this, "Couldn't create new Gate instance:\n"+e1.getMessage());
-            } catch (IllegalAccessException e1) {
-                e1.printStackTrace();
-                JOptionPane.showMessageDialog(CircuitEditor.this, "Couldn't access new Gate instance:\n"+e1.getMessage());
             }
         }
 
@@ -995,7 +984,7 @@ public class CircuitEditor extends JPanel {
                     Integer allowance = circuit.getGateAllowances().get(gclass);
                     if (allowance != null && allowance != 0) {
                         try {
-                            g = gclass.newInstance();
+                            g = GateFactory.forClass(gclass).newGate();
                             Rectangle bounds = 
                                 new Rectangle(
                                         
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The CircuitResultCache remembers the outcome of running a circuit in a
+ * level, so that a circuit which is equivalent to one that has already been
+ * run doesn't have to be simulated again. Results are keyed by the level hash
+ * and circuit hash calculated by {@link CanonicalCircuit}.
+ * <p>
+ * The cache is persistent: every result added to it is appended to a text
+ * file with one result per line, in the form
+ * <pre>
+ *  LEVELHASH CIRCUITHASH GOALREACHED STEPS SCORE
+ * </pre>
+ * and the whole file is read back into memory when the cache is opened. If
+ * the same key appears more than once, the last line wins. A last line with
+ * no line terminator was cut short while it was being appended (for instance
+ * by a crash), so it is ignored and cut off the file. All methods are thread
+ * safe.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class CircuitResultCache {
+
+    /**
+     * The outcome of running a circuit in a level.  Instances are immutable.
+     */
+    public static class Result {
+        private final boolean goalReached;
+        private final int steps;
+        private final int score;
+
+        /**
+         * @param goalReached True if all the robots reached their goals
+         * @param steps The number of game loop steps the run took
+         * @param score The score the level had at the end of the run
+         */
+        public Result(boolean goalReached, int steps, int score) {
+            this.goalReached = goalReached;
+            this.steps = steps;
+            this.score = score;
+        }
+
+        public boolean isGoalReached() {
+            return goalReached;
+        }
+
+        public int getSteps() {
+            return steps;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Result)) return false;
+            Result other = (Result) obj;
+            return goalReached == other.goalReached && steps == other.steps && score == other.score;
+        }
+
+        @Override
+        public int hashCode() {
+            return (goalReached ? 1 : 0) + 31 * steps + 961 * score;
+        }
+
+        @Override
+        public String toString() {
+            return (goalReached ? "reached goal" : "did not reach goal") +
+                " after " + steps + " steps with score " + score;
+        }
+    }
+
+    private final File file;
+
+    private final Map<String, Result> results = new HashMap<String, Result>();
+
+    /**
+     * Appends new results to {@link #file}. Null if the cache has been closed.
+     */
+    private PrintWriter out;
+
+    /**
+     * Opens the result cache stored in the given file, creating the file if
+     * it doesn't exist yet.
+     *
+     * @throws FileFormatException if the file contains a malformed complete line
+     * @throws IOException if the file can't be read or opened for appending
+     */
+    public CircuitResultCache(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            byte[] contents = readCompleteLines(file);
+            BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(contents), "UTF-8"));
+            try {
+                String line;
+                int lineNum = 0;
+                while ((line = in.readLine()) != null) {
+                    lineNum++;
+                    if (line.trim().length() == 0) continue;
+                    String[] fields = line.trim().split(" ");
+                    if (fields.length != 5) {
+                        throw new FileFormatException(
+                                "Expected LEVELHASH CIRCUITHASH GOALREACHED STEPS SCORE",
+                                lineNum, line, -1);
+                    }
+                    try {
+                        results.put(key(fields[0], fields[1]),
+                                new Result(Boolean.parseBoolean(fields[2]),
+                                        Integer.parseInt(fields[3]),
+                                        Integer.parseInt(fields[4])));
+                    } catch (NumberFormatException ex) {
+                        throw new FileFormatException("Could not parse step count or score", lineNum, line, -1);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+        out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+    }
+
+    /**
+     * Returns the contents of the given file up to and including its last
+     * line terminator, and truncates the file to that length if anything
+     * followed it.
+     */
+    private static byte[] readCompleteLines(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() > Integer.MAX_VALUE) {
+                throw new IOException("Result cache "+file+" is too large ("+raf.length()+" bytes)");
+            }
+            byte[] contents = new byte[(int) raf.length()];
+            raf.readFully(contents);
+            int end = contents.length;
+            while (end > 0 && contents[end - 1] != '\n') {
+                end--;
+            }
+            if (end < contents.length) {
+                raf.setLength(end);
+                byte[] complete = new byte[end];
+                System.arraycopy(contents, 0, complete, 0, end);
+                contents = complete;
+            }
+            return contents;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String key(String levelHash, String circuitHash) {
+        return levelHash + " " + circuitHash;
+    }
+
+    /**
+     * Returns the file this cache is stored in.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the cached result for the given level and circuit hashes, or null
+     * if that circuit has not been run in that level.
+     */
+    public synchronized Result get(String levelHash, String circuitHash) {
+        return results.get(key(levelHash, circuitHash));
+    }
+
+    /**
+     * Convenience method that hashes the given level and the circuits of its
+     * robots, then looks up the result.
+     */
+    public Result get(LevelConfig level) {
+        return get(CanonicalCircuit.hashLevel(level), CanonicalCircuit.hashCircuits(level.getRobots()));
+    }
+
+    /**
+     * Records the result of running the given circuit in the given level, and
+     * appends it to the cache file.  If the file can't be written, the result
+     * is still remembered until this cache is closed.
+     *
+     * @throws IllegalStateException if this cache has been closed
+     * @throws IOException if the result could not be appended to the cache file
+     */
+    public synchronized void put(String levelHash, String circuitHash, Result result) throws IOException {
+        if (out == null) throw new IllegalStateException("This result cache is closed");
+        results.put(key(levelHash, circuitHash), result);
+        out.printf("%s %s %b %d %d\n",
+                levelHash, circuitHash, result.isGoalReached(), result.getSteps(), result.getScore());
+        
+        // PrintWriter doesn't throw; checkError() also flushes
+        if (out.checkError()) {
+            throw new IOException("Could not append to result cache "+file);
+        }
+    }
+
+    /**
+     * Returns the number of distinct results in this cache.
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * Closes the cache file. Results can still be looked up after the cache
+     * has been closed, but no new results can be added.
+     */
+    public synchronized void close() {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+}
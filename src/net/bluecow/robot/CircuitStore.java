@@ -37,7 +37,9 @@
 package net.bluecow.robot;
 
 import java.awt.Rectangle;
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -45,6 +47,7 @@ import java.io.LineNumberReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -52,10 +55,14 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import net.bluecow.robot.gate.Gate;
+import net.bluecow.robot.gate.GateFactory;
 
 /**
  * The CircuitStore class is responsible for saving and loading descriptions
  * of circuits.
+ * <p>
+ * Circuits are saved in a line-oriented text format. The {@link #load(InputStream, Collection)}
+ * method also accepts the compact binary format written by {@link BinaryCircuitStore}.
  * 
  * @author fuerth
  * @version $Id$
@@ -118,12 +125,35 @@ public class CircuitStore {
      * be safe to violate that condition.. future versions might throw exceptions for
      * that error).
      * 
+     * <p>
+     * If the stream starts with the binary circuit magic number, it is read
+     * by {@link BinaryCircuitStore} instead of being parsed as text.
+     * 
      * @throws IOException If the input stream can't be read
      * @throws IllegalArgumentException if the input stream describes a circuit for a
      * robot who is not in the given list (robots are matched by their names, case
      * sensitively).
      */
     public static void load(InputStream in, Collection<Robot> robots) throws IOException {
+        in = new BufferedInputStream(in);
+        in.mark(BinaryCircuitStore.MAGIC.length);
+        byte[] magic = new byte[BinaryCircuitStore.MAGIC.length];
+        int n = 0;
+        int count;
+        while (n < magic.length && (count = in.read(magic, n, magic.length - n)) > 0) {
+            n += count;
+        }
+        in.reset();
+        if (BinaryCircuitStore.isBinaryCircuit(ByteBuffer.wrap(magic, 0, n))) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            while ((count = in.read(buf)) != -1) {
+                data.write(buf, 0, count);
+            }
+            BinaryCircuitStore.load(ByteBuffer.wrap(data.toByteArray()), robots);
+            return;
+        }
+        
         Pattern robotHeader = Pattern.compile("\\*Robot (.*)");
         Pattern gateLine = Pattern.compile("(\\w+) \\[([0-9]+),([0-9]+),([0-9]+),([0-9]+)\\] (.*)");
         Pattern connLine = Pattern.compile("(\\w+):([0-9]+) <- (\\w+)");
@@ -212,18 +242,13 @@ public class CircuitStore {
                     g = robot.getInputsGate();
                 } else {
                     try {
-                        g = (Gate) Class.forName(gateClassName).newInstance();
+                        g = GateFactory.forClassName(gateClassName).newGate();
                         robot.getCircuit().addGate(g, bounds);
-                    } catch (InstantiationException e) {
+                    } catch (IllegalArgumentException e) {
                         e.printStackTrace();
                         throw new FileFormatException(
                                 "Couldn't create gate class: "+e.getMessage(),
                                 br.getLineNumber(), line, -1);
-                    } catch (IllegalAccessException e) {
-                        e.printStackTrace();
-                        throw new FileFormatException(
-                                "Couldn't access gate constructor: "+e.getMessage(),
-                                br.getLineNumber(), line, -1);
                     } catch (ClassNotFoundException e) {
                         e.printStackTrace();
                         throw new FileFormatException(
@@ -46,7 +46,6 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Stroke;
 import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
@@ -60,10 +59,10 @@ import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.JPanel;
 import javax.swing.KeyStroke;
-import javax.swing.Timer;
 
 import net.bluecow.robot.event.CircuitEvent;
 import net.bluecow.robot.event.CircuitListener;
+import net.bluecow.robot.fx.AnimationClock;
 import net.bluecow.robot.sound.SoundManager;
 
 /**
@@ -198,28 +197,22 @@ public class EditorsPanel extends JPanel {
     private void animateFrameDecoration(final FrameDecoration fd) {
 
         final int nframes = 10;
-        final Timer timer = new Timer(10, null);
 
-        ActionListener timerHandler = new ActionListener() {
+        AnimationClock.start(new AnimationClock.Animation() {
             
             private int frame = 0;
             
-            public void actionPerformed(ActionEvent e) {
+            public boolean tick() {
                 if (frame < nframes/2) {
                     fd.setSizeAdjustment(fd.getSizeAdjustment() - 1);
                 } else {
                     fd.setSizeAdjustment(fd.getSizeAdjustment() + 1);
                 }
                 frame++;
-                repaint();
-                if (frame == nframes) {
-                    timer.stop();
-                }
+                AnimationClock.requestRepaint(EditorsPanel.this);
+                return frame < nframes;
             }
-        };
-        
-        timer.addActionListener(timerHandler);
-        timer.start();
+        }, 10);
     }
     
     private class SelectEditorAction extends AbstractAction {
@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+import net.bluecow.robot.resource.CompoundResourceLoader;
+import net.bluecow.robot.resource.DirectoryResourceManager;
+import net.bluecow.robot.resource.PrefixResourceLoader;
+import net.bluecow.robot.resource.ResourceLoader;
+import net.bluecow.robot.resource.SystemResourceLoader;
+import net.bluecow.robot.resource.ZipFileResourceLoader;
+
+/**
+ * The FrameExporter paints a playfield into an offscreen image and saves
+ * each painted frame, either as a sequence of numbered PNG files or as one
+ * animated GIF.  It doesn't need a display, so it works with
+ * <tt>java.awt.headless=true</tt>; the {@link #main(String[])} method runs a
+ * level with a saved circuit and exports the result, for things like
+ * result pages and bug reports.
+ * <p>
+ * Every frame is painted into the same image, then copied into one of a
+ * small pool of spare images and handed to a background thread to be
+ * encoded, so the simulation only waits for the painting.  PNG frames are
+ * independent, so they are encoded by several threads at once; an animated
+ * GIF has to be written in order, so its frames are encoded by a single
+ * thread.  If the encoders fall behind, {@link #captureFrame()} waits for a
+ * spare image rather than letting the backlog use up all the memory.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class FrameExporter {
+
+    /**
+     * Controls the debugging features of this class.
+     */
+    private static final boolean debugOn = false;
+
+    /**
+     * Prints the given message to System.out if debugOn is true.
+     */
+    private static void debug(String msg) {
+        if (debugOn) System.out.println(msg);
+    }
+
+    /**
+     * The kinds of output a frame exporter can produce.
+     */
+    public static enum Format {
+        /**
+         * One PNG file per frame, in a directory.
+         */
+        PNG,
+
+        /**
+         * One animated GIF file containing all the frames.
+         */
+        GIF
+    }
+
+    /**
+     * The number of spare frame images per encoder thread.
+     */
+    private static final int SPARES_PER_THREAD = 2;
+
+    private final Playfield playfield;
+
+    private final File destination;
+
+    private final Format format;
+
+    /**
+     * The time each frame of an animated GIF is shown for, in milliseconds.
+     */
+    private final int frameDelay;
+
+    /**
+     * The image every frame is painted into.
+     */
+    private final BufferedImage canvas;
+
+    /**
+     * Copies of the canvas that aren't waiting to be encoded.
+     */
+    private final BlockingQueue<BufferedImage> spareFrames;
+
+    /**
+     * Encodes and writes the frames.
+     */
+    private final ExecutorService encoder;
+
+    /**
+     * The writer for the animated GIF, or null if the format is PNG.
+     */
+    private final ImageWriter gifWriter;
+
+    /**
+     * The number of frames captured so far.
+     */
+    private int frameCount;
+
+    /**
+     * The first thing that went wrong while encoding a frame.  Once this has
+     * been set, no more frames are written.
+     */
+    private IOException encodingError;
+
+    /**
+     * Creates an exporter for the given playfield, which will be painted at
+     * its preferred size.
+     *
+     * @param destination The directory to put PNG files in (it will be
+     * created if necessary), or the animated GIF file to create.
+     * @param frameDelay The time between frames in milliseconds.  Only used
+     * for animated GIFs.
+     * @param threads The number of threads to encode PNG frames with.  GIF
+     * frames are always encoded by one thread.
+     */
+    public FrameExporter(Playfield playfield, File destination, Format format,
+            int frameDelay, int threads) throws IOException {
+        this.playfield = playfield;
+        this.destination = destination;
+        this.format = format;
+        this.frameDelay = frameDelay;
+        if (format == Format.GIF) {
+            threads = 1;
+        }
+
+        playfield.setSize(playfield.getPreferredSize());
+        canvas = new BufferedImage(playfield.getWidth(), playfield.getHeight(), BufferedImage.TYPE_INT_RGB);
+        spareFrames = new ArrayBlockingQueue<BufferedImage>(threads * SPARES_PER_THREAD);
+        for (int i = 0; i < threads * SPARES_PER_THREAD; i++) {
+            spareFrames.add(new BufferedImage(canvas.getWidth(), canvas.getHeight(), BufferedImage.TYPE_INT_RGB));
+        }
+
+        if (format == Format.GIF) {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("gif");
+            if (!writers.hasNext()) {
+                throw new IOException("This Java runtime can't write GIF images");
+            }
+            gifWriter = writers.next();
+            ImageOutputStream out = ImageIO.createImageOutputStream(destination);
+            if (out == null) {
+                throw new IOException("Couldn't create "+destination);
+            }
+            gifWriter.setOutput(out);
+            gifWriter.prepareWriteSequence(null);
+        } else {
+            gifWriter = null;
+            if (!destination.isDirectory() && !destination.mkdirs()) {
+                throw new IOException("Couldn't create directory "+destination);
+            }
+        }
+
+        encoder = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Paints the playfield as it is now and queues the result to be saved.
+     * Returns as soon as the frame has been painted, unless all the spare
+     * images are still waiting to be encoded.
+     *
+     * @throws IOException if an earlier frame couldn't be saved
+     */
+    public void captureFrame() throws IOException, InterruptedException {
+        checkEncodingError();
+        Graphics2D g2 = canvas.createGraphics();
+        try {
+            playfield.paint(g2);
+        } finally {
+            g2.dispose();
+        }
+
+        final BufferedImage frame = spareFrames.take();
+        frame.setData(canvas.getRaster());
+        final int frameNum = frameCount++;
+        encoder.execute(new Runnable() {
+            public void run() {
+                try {
+                    if (getEncodingError() == null) {
+                        writeFrame(frame, frameNum);
+                    }
+                } catch (IOException ex) {
+                    setEncodingError(ex);
+                } catch (RuntimeException ex) {
+                    IOException ioe = new IOException("Couldn't encode frame "+frameNum);
+                    ioe.initCause(ex);
+                    setEncodingError(ioe);
+                } finally {
+                    spareFrames.add(frame);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of frames captured so far.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Waits for all the captured frames to be saved, then finishes off the
+     * output.  This exporter can't be used after it has been closed.
+     *
+     * @throws IOException if any frame couldn't be saved
+     */
+    public void close() throws IOException, InterruptedException {
+        encoder.shutdown();
+        encoder.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        if (gifWriter != null) {
+            try {
+                if (getEncodingError() == null) {
+                    gifWriter.endWriteSequence();
+                }
+            } finally {
+                ((ImageOutputStream) gifWriter.getOutput()).close();
+                gifWriter.dispose();
+            }
+        }
+        checkEncodingError();
+        debug("Exported "+frameCount+" frames to "+destination);
+    }
+
+    private void writeFrame(BufferedImage frame, int frameNum) throws IOException {
+        if (format == Format.PNG) {
+            File file = new File(destination, String.format("frame%05d.png", frameNum));
+            if (!ImageIO.write(frame, "png", file)) {
+                throw new IOException("This Java runtime can't write PNG images");
+            }
+        } else {
+            ImageWriteParam param = gifWriter.getDefaultWriteParam();
+            IIOMetadata metadata = gifWriter.getDefaultImageMetadata(
+                    ImageTypeSpecifier.createFromRenderedImage(frame), param);
+            String metadataFormat = metadata.getNativeMetadataFormatName();
+            IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(metadataFormat);
+
+            IIOMetadataNode gce = new IIOMetadataNode("GraphicControlExtension");
+            gce.setAttribute("disposalMethod", "none");
+            gce.setAttribute("userInputFlag", "FALSE");
+            gce.setAttribute("transparentColorFlag", "FALSE");
+            gce.setAttribute("delayTime", String.valueOf(Math.max(1, frameDelay / 10)));
+            gce.setAttribute("transparentColorIndex", "0");
+            root.appendChild(gce);
+
+            if (frameNum == 0) {
+                // loop forever
+                IIOMetadataNode appExtensions = new IIOMetadataNode("ApplicationExtensions");
+                IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+                loop.setAttribute("applicationID", "NETSCAPE");
+                loop.setAttribute("authenticationCode", "2.0");
+                loop.setUserObject(new byte[] { 1, 0, 0 });
+                appExtensions.appendChild(loop);
+                root.appendChild(appExtensions);
+            }
+            metadata.setFromTree(metadataFormat, root);
+            gifWriter.writeToSequence(new IIOImage(frame, null, metadata), param);
+        }
+        debug("Wrote frame "+frameNum);
+    }
+
+    private synchronized IOException getEncodingError() {
+        return encodingError;
+    }
+
+    private synchronized void setEncodingError(IOException ex) {
+        if (encodingError == null) {
+            encodingError = ex;
+        }
+    }
+
+    private void checkEncodingError() throws IOException {
+        IOException ex = getEncodingError();
+        if (ex != null) {
+            IOException ioe = new IOException("Frame export to "+destination+" failed: "+ex.getMessage());
+            ioe.initCause(ex);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Runs one level of a level pack with a saved circuit until every robot
+     * has reached its goal (or a tick limit is reached), and exports frames
+     * of the run.  Run this with <tt>-Djava.awt.headless=true</tt> on
+     * machines without a display.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: FrameExporter pack level circuit output [every [maxTicks]]");
+            System.err.println("  pack     a level pack directory or jar file");
+            System.err.println("  level    the number of the level to run, starting at 1");
+            System.err.println("  circuit  a saved circuit file for the level's robots");
+            System.err.println("  output   a file ending in .gif for an animated GIF,");
+            System.err.println("           otherwise a directory for a PNG sequence");
+            System.err.println("  every    export every Nth tick (default 1)");
+            System.err.println("  maxTicks stop after this many ticks (default 2000)");
+            System.exit(2);
+        }
+        File pack = new File(args[0]);
+        int levelNum = Integer.parseInt(args[1]) - 1;
+        File circuit = new File(args[2]);
+        File output = new File(args[3]);
+        int every = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        int maxTicks = args.length > 5 ? Integer.parseInt(args[5]) : 2000;
+
+        ResourceLoader packLoader;
+        if (pack.isDirectory()) {
+            DirectoryResourceManager drm = new DirectoryResourceManager(pack);
+            drm.setMemoryMapping(true);
+            packLoader = drm;
+        } else {
+            packLoader = new ZipFileResourceLoader(pack);
+        }
+        ResourceLoader builtinResourceLoader =
+            new PrefixResourceLoader(new SystemResourceLoader(), "builtin/");
+        GameConfig config = LevelStore.loadLevels(
+                new CompoundResourceLoader(packLoader, builtinResourceLoader),
+                LevelStore.DEFAULT_MAP_RESOURCE_PATH, false, new ArrayList<FileFormatException>());
+        LevelConfig level = config.getLevels().get(levelNum);
+        level.resetState();
+
+        InputStream in = new FileInputStream(circuit);
+        try {
+            CircuitStore.load(in, level.getRobots());
+        } finally {
+            in.close();
+        }
+
+        Playfield playfield = new Playfield(config, level);
+        playfield.setAsyncRepaint(false);
+        playfield.setDescriptionOn(false);
+        playfield.finishFades();
+        GameLoop loop = new GameLoop(level.getRobots(), level, playfield);
+
+        Format format = output.getName().toLowerCase().endsWith(".gif") ? Format.GIF : Format.PNG;
+        FrameExporter exporter = new FrameExporter(
+                playfield, output, format, loop.getFrameDelay() * every,
+                Runtime.getRuntime().availableProcessors());
+        try {
+            exporter.captureFrame();
+            while (!loop.isGoalReached() && loop.getLoopCount() < maxTicks) {
+                loop.singleStep();
+                if (loop.getLoopCount() % every == 0) {
+                    exporter.captureFrame();
+                }
+            }
+        } finally {
+            exporter.close();
+        }
+        System.out.println("Exported "+exporter.getFrameCount()+" frames of "+
+                loop.getLoopCount()+" ticks to "+output+
+                (loop.isGoalReached() ? " (goal reached)" : " (goal not reached)"));
+        System.exit(0);
+    }
+}
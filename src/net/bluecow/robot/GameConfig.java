@@ -51,6 +51,7 @@ import java.util.Set;
 import javax.swing.KeyStroke;
 
 import net.bluecow.robot.gate.Gate;
+import net.bluecow.robot.gate.GateFactory;
 import net.bluecow.robot.resource.ResourceLoader;
 import net.bluecow.robot.sound.SoundManager;
 import net.bluecow.robot.sprite.Sprite;
@@ -80,6 +81,7 @@ public class GameConfig {
         private String name;
         private KeyStroke accelerator;
         private Class<Gate> gateClass;
+        private GateFactory factory;
         
         /**
          * Creates a new gate configuration with the given properties.
@@ -92,6 +94,7 @@ public class GameConfig {
             this.name = name;
             this.accelerator = accelerator;
             this.gateClass = clazz;
+            this.factory = GateFactory.forClass(clazz);
         }
 
         public KeyStroke getAccelerator() {
@@ -103,6 +106,14 @@ public class GameConfig {
         public String getName() {
             return name;
         }
+        
+        /**
+         * Creates a new gate of this type, using the gate class's cached
+         * constructor.
+         */
+        public Gate newGate() {
+            return factory.newGate();
+        }
     }
     
     public static class SquareConfig implements Square {
@@ -228,8 +239,19 @@ public class GameConfig {
     
     
     public GameConfig(ResourceLoader resourceLoader) {
+        this(resourceLoader, true);
+    }
+    
+    /**
+     * Creates an empty game config.
+     * 
+     * @param resourceLoader The resource loader for images, sounds and so on
+     * @param audioEnabled If false, the sound manager will not use the audio
+     * system (see {@link SoundManager#SoundManager(ResourceLoader, boolean)}).
+     */
+    public GameConfig(ResourceLoader resourceLoader, boolean audioEnabled) {
         this.resourceLoader = resourceLoader;
-        sm = new SoundManager(resourceLoader);
+        sm = new SoundManager(resourceLoader, audioEnabled);
     }
     
     
@@ -256,7 +278,7 @@ public class GameConfig {
         gateTypes.put(gateName,
                 new GateConfig(gateName,
                         KeyStroke.getKeyStroke(accelKey),
-                        (Class<Gate>) Class.forName(gateClass)));
+                        (Class<Gate>) GateFactory.forClassName(gateClass).getGateClass()));
     }
 
     public Set<String> getGateTypeNames() {
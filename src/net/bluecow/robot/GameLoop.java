@@ -226,7 +226,8 @@ public class GameLoop implements Runnable {
         }
         
         playfield.setFrameCount(loopCount);
-        playfield.repaint();
+        playfield.publishFrame();
+        playfield.repaintChangedRegion();
         
         if (allGoalsReached) {
             setGoalReached(true);
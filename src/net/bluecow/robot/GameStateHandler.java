@@ -36,6 +36,8 @@
  */
 package net.bluecow.robot;
 
+import java.awt.Color;
+import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
@@ -43,14 +45,17 @@ import java.beans.PropertyChangeListener;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
+import java.util.Random;
 
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.SwingUtilities;
 
+import net.bluecow.robot.fx.Fireworks;
 import net.bluecow.robot.resource.ResourceLoader;
 import net.bluecow.robot.sound.SoundManager;
+import net.bluecow.robot.sprite.SpriteManager;
 
 /**
  * The GameStateHandler class encapsulates the correct game state logic
@@ -74,6 +79,12 @@ public class GameStateHandler implements ActionListener {
      */
     private static final boolean debugOn = false;
     
+    /**
+     * The colours of the fireworks set off when the level is won; one rocket
+     * is launched per colour.
+     */
+    private static final Color[] FIREWORKS_COLORS = { Color.YELLOW, Color.CYAN, Color.MAGENTA };
+    
     /**
      * Prints the given message to System.out if debugOn is true.
      */
@@ -225,14 +236,14 @@ public class GameStateHandler implements ActionListener {
         this.sm = sm;
         this.robots = robots;
 
-        startIcon = new ImageIcon(resourceLoader.getResourceBytes("ROBO-INF/skin/play_button.png"));
+        startIcon = new ImageIcon(SpriteManager.loadImage(resourceLoader, "ROBO-INF/skin/play_button.png"));
         restartIcon = startIcon;
-        pauseIcon = new ImageIcon(resourceLoader.getResourceBytes("ROBO-INF/skin/pause_button.png"));
-        stepIcon = new ImageIcon(resourceLoader.getResourceBytes("ROBO-INF/skin/step_button.png"));
+        pauseIcon = new ImageIcon(SpriteManager.loadImage(resourceLoader, "ROBO-INF/skin/pause_button.png"));
+        stepIcon = new ImageIcon(SpriteManager.loadImage(resourceLoader, "ROBO-INF/skin/step_button.png"));
         restepIcon = stepIcon;
-        resumeIcon = new ImageIcon(resourceLoader.getResourceBytes("ROBO-INF/skin/play_button.png"));
-        resetIcon = new ImageIcon(resourceLoader.getResourceBytes("ROBO-INF/skin/stop_button.png"));
-        nextLevelIcon = new ImageIcon(resourceLoader.getResourceBytes("ROBO-INF/skin/next_level_button.png"));
+        resumeIcon = new ImageIcon(SpriteManager.loadImage(resourceLoader, "ROBO-INF/skin/play_button.png"));
+        resetIcon = new ImageIcon(SpriteManager.loadImage(resourceLoader, "ROBO-INF/skin/stop_button.png"));
+        nextLevelIcon = new ImageIcon(SpriteManager.loadImage(resourceLoader, "ROBO-INF/skin/next_level_button.png"));
         
         startButton = new JButton(startIcon);
         startButton.setBorderPainted(false);
@@ -353,6 +364,7 @@ public class GameStateHandler implements ActionListener {
             state = newState;
             lockEditors(true);
             playfield.setWinMessage("You Win!");
+            launchFireworks();
 //            sm.play("win");
             sm.stop(level.getMarchMusicId(), "win");
             startButton.setIcon(restartIcon);
@@ -364,6 +376,27 @@ public class GameStateHandler implements ActionListener {
         }
     }
 
+    /**
+     * Sets off a few fireworks from the bottom of the playfield to celebrate
+     * a win.  They aim to burst around the top third of the playfield, with
+     * a little randomness so no two wins look quite the same.
+     */
+    private void launchFireworks() {
+        Random rnd = new Random();
+        int width = playfield.getWidth();
+        int height = playfield.getHeight();
+        for (int i = 0; i < FIREWORKS_COLORS.length; i++) {
+            Point launchPosition = new Point(width * (i + 1) / (FIREWORKS_COLORS.length + 1), height);
+            double climb = height * (0.6 + rnd.nextDouble() * 0.2);
+            float speed = (float) Math.sqrt(2.0 * Fireworks.GRAV_ACCEL * climb);
+            int fuse = (int) (speed / Fireworks.GRAV_ACCEL) + i * 4;
+            float heading = (float) ((rnd.nextDouble() - 0.5) * 0.4);
+            Fireworks f = new Fireworks(launchPosition, heading, speed, fuse, 200, 0.5, 2.5, 8.0, 35.0);
+            f.setColor(FIREWORKS_COLORS[i]);
+            playfield.addEffect(f);
+        }
+    }
+
     /** Locks or unlocks all editors in the robots map. */
     private void lockEditors(boolean locked) {
         for (CircuitEditor ce : robots.values()) {
@@ -100,6 +100,12 @@ public class LevelConfig {
         private boolean labelEnabled;
         private Direction labelDirection = Direction.EAST;
         
+        /**
+         * Reports changes to the properties of this switch that show on the
+         * playfield: its position, sprite, enabled state and label.
+         */
+        private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+        
         public Switch(Point position, String id, String label, Sprite sprite, String onEnter) {
             this.position = new Point(position);
             this.id = id;
@@ -133,6 +139,9 @@ public class LevelConfig {
             this.label = copyMe.label;
             this.labelEnabled = copyMe.labelEnabled;
             this.labelDirection = copyMe.labelDirection;
+            
+            // a null property name means any or all of them may have changed
+            pcs.firePropertyChange(null, null, null);
         }
         
         /**
@@ -207,7 +216,9 @@ public class LevelConfig {
          * @param y the Y coordinate
          */
         public void setPosition(int x, int y) {
+            Point oldPosition = this.position;
             this.position = new Point(x, y);
+            pcs.firePropertyChange("position", oldPosition, position);
         }
 
         /**
@@ -225,7 +236,7 @@ public class LevelConfig {
         }
         
         public void setX(int x) {
-            position.x = x;
+            setPosition(x, position.y);
         }
 
         public int getY() {
@@ -233,7 +244,7 @@ public class LevelConfig {
         }
         
         public void setY(int y) {
-            position.y = y;
+            setPosition(position.x, y);
         }
 
         public String getId() {
@@ -249,7 +260,9 @@ public class LevelConfig {
         }
         
         public void setSprite(Sprite sprite) {
+            Sprite oldSprite = this.sprite;
             this.sprite = sprite;
+            pcs.firePropertyChange("sprite", oldSprite, sprite);
         }
 
         public String getOnEnter() {
@@ -265,7 +278,9 @@ public class LevelConfig {
         }
         
         public void setEnabled(boolean enabled) {
+            boolean oldEnabled = this.enabled;
             this.enabled = enabled;
+            pcs.firePropertyChange("enabled", oldEnabled, enabled);
         }
         
         public String getLabel() {
@@ -273,7 +288,9 @@ public class LevelConfig {
         }
         
         public void setLabel(String label) {
+            String oldLabel = this.label;
             this.label = label;
+            pcs.firePropertyChange("label", oldLabel, label);
         }
         
         public boolean isLabelEnabled() {
@@ -281,7 +298,9 @@ public class LevelConfig {
         }
         
         public void setLabelEnabled(boolean enabled) {
+            boolean oldEnabled = this.labelEnabled;
             this.labelEnabled = enabled;
+            pcs.firePropertyChange("labelEnabled", oldEnabled, enabled);
         }
         
         public Direction getLabelDirection() {
@@ -289,7 +308,17 @@ public class LevelConfig {
         }
         
         public void setLabelDirection(Direction direction) {
+            Direction oldDirection = this.labelDirection;
             this.labelDirection = direction;
+            pcs.firePropertyChange("labelDirection", oldDirection, direction);
+        }
+        
+        public void addPropertyChangeListener(PropertyChangeListener l) {
+            pcs.addPropertyChangeListener(l);
+        }
+        
+        public void removePropertyChangeListener(PropertyChangeListener l) {
+            pcs.removePropertyChangeListener(l);
         }
 
         @Override
@@ -403,6 +432,7 @@ public class LevelConfig {
     }
     
     public void setDescription(String description) {
+        String oldDescription = this.description;
         this.description = description;
         
         if (description != null) {
@@ -410,6 +440,7 @@ public class LevelConfig {
         } else {
             descriptionPages = Collections.emptyList();
         }
+        pcs.firePropertyChange("description", oldDescription, description);
     }
 
     /**
@@ -528,8 +559,14 @@ public class LevelConfig {
         return new Dimension(getWidth(), getHeight());
     }
 
+    /**
+     * Replaces one square of the map.  Listeners are told with a "map"
+     * property change whose old value is null, because the map array itself
+     * has not been replaced.
+     */
     public void setSquare(int x, int y, Square square) {
         map[x][y] = square;
+        pcs.firePropertyChange("map", null, map);
     }
     
     public Square getSquare(int x, int y) {
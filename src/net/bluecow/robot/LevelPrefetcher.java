@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot;
+
+import java.awt.Image;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import net.bluecow.robot.LevelConfig.Switch;
+import net.bluecow.robot.resource.ResourceLoader;
+import net.bluecow.robot.sprite.Sprite;
+import net.bluecow.robot.sprite.SpriteAtlas;
+import net.bluecow.robot.sprite.SpriteLoadException;
+import net.bluecow.robot.sprite.SpriteManager;
+
+/**
+ * The LevelPrefetcher loads the resources a level needs on a background
+ * thread while the previous level is still being played, so that switching
+ * levels doesn't stall while images are read and decoded.
+ * <p>
+ * Prefetched images are handed over through the process-wide sprite image
+ * cache (see {@link SpriteManager#loadImage(ResourceLoader, String)}): once a
+ * prefetch has finished, the game UI for that level finds everything it needs
+ * already decoded. If the level switch happens while the prefetch is still
+ * running, {@link #await(LevelConfig)} waits for it to finish rather than
+ * decoding the same images a second time on the event dispatch thread.
+ * <p>
+ * Music doesn't need prefetching: every sound manager entry is decoded when
+ * the level pack is loaded.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class LevelPrefetcher {
+
+    /**
+     * Controls whether or not the debugging features of this class are enabled.
+     */
+    private static final boolean debugOn = false;
+
+    /**
+     * Prints the given string followed by a newline to the console if debugOn==true.
+     */
+    private static void debug(String msg) {
+        if (debugOn) System.out.println(msg);
+    }
+
+    /**
+     * The game UI skin images that get loaded every time a level is started.
+     */
+    static final String[] SKIN_IMAGES = {
+        "ROBO-INF/skin/play_button.png",
+        "ROBO-INF/skin/pause_button.png",
+        "ROBO-INF/skin/step_button.png",
+        "ROBO-INF/skin/stop_button.png",
+        "ROBO-INF/skin/next_level_button.png",
+        "ROBO-INF/skin/prev_page_button.png",
+        "ROBO-INF/skin/next_page_button.png"
+    };
+
+    /**
+     * The skin images the playfield paints as sprites, which can therefore be
+     * drawn from the sprite atlas.  The other skin images are button icons,
+     * which Swing paints itself.
+     */
+    private static final String[] PLAYFIELD_SKIN_IMAGES = {
+        "ROBO-INF/skin/prev_page_button.png",
+        "ROBO-INF/skin/next_page_button.png"
+    };
+
+    /**
+     * The resource loader the level's resources come from.
+     */
+    private final ResourceLoader resourceLoader;
+
+    /**
+     * Runs the prefetch tasks, one at a time.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The level the most recently requested prefetch is for, or null if
+     * there is no prefetch pending.
+     */
+    private LevelConfig pendingLevel;
+
+    /**
+     * The most recently requested prefetch task.
+     */
+    private Future<?> pending;
+
+    /**
+     * Creates a prefetcher for levels in the given game config. Its
+     * background thread is a daemon, so it won't keep the game running.
+     */
+    public LevelPrefetcher(GameConfig config) {
+        this.resourceLoader = config.getResourceLoader();
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Level prefetcher");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Starts loading the resources for the given level in the background.
+     * Any prefetch that is still waiting to run is cancelled.
+     */
+    public synchronized void prefetch(final LevelConfig level) {
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pendingLevel = level;
+        pending = executor.submit(new Runnable() {
+            public void run() {
+                long start = System.currentTimeMillis();
+                load(level);
+                debug("Prefetched level "+level.getName()+" in "+(System.currentTimeMillis() - start)+"ms");
+            }
+        });
+    }
+
+    /**
+     * Waits for the prefetch of the given level to finish, if one is running.
+     * If the pending prefetch is for a different level, it is cancelled
+     * instead, because its results aren't about to be needed.
+     * <p>
+     * Problems encountered while prefetching are not reported here; the
+     * same problem will come up (and be reported properly) when the level's
+     * resources are loaded for real.
+     */
+    public void await(LevelConfig level) {
+        Future<?> f;
+        synchronized (this) {
+            f = pending;
+            if (f == null) return;
+            if (pendingLevel != level) {
+                f.cancel(false);
+                f = null;
+            }
+            pending = null;
+            pendingLevel = null;
+        }
+        if (f == null) return;
+        try {
+            f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException ex) {
+            debug("Prefetch of level "+level.getName()+" was cancelled");
+        } catch (ExecutionException ex) {
+            debug("Prefetch of level "+level.getName()+" failed: "+ex.getCause());
+        }
+    }
+
+    /**
+     * Cancels any pending prefetch and stops the background thread. This
+     * prefetcher can't be used again afterward.
+     */
+    public synchronized void close() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+            pendingLevel = null;
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Loads the skin images and all the sprites that appear in the given
+     * level into the sprite cache.
+     */
+    private void load(LevelConfig level) {
+        for (String path : SKIN_IMAGES) {
+            try {
+                SpriteManager.loadImage(resourceLoader, path);
+            } catch (IOException ex) {
+                debug("Couldn't prefetch skin image "+path+": "+ex);
+            }
+        }
+
+        Set<Sprite> sprites = levelSprites(level);
+        for (Sprite sprite : sprites) {
+            if (sprite == null || sprite.getAttributes().get(Sprite.KEY_HREF) == null) continue;
+            try {
+                SpriteManager.load(resourceLoader, sprite.getAttributes());
+            } catch (SpriteLoadException ex) {
+                debug("Couldn't prefetch sprite "+sprite.getAttributes()+": "+ex);
+            }
+        }
+        packSprites(level);
+    }
+
+    /**
+     * Copies the images of all the sprites that appear in the given level,
+     * and the skin images the playfield paints, into the sprite atlas, so
+     * the playfield can paint them from a few shared pages.  Images that are
+     * already in the atlas are left where they are, so this is cheap to call
+     * again for the same level.
+     */
+    public void packSprites(LevelConfig level) {
+        Set<Sprite> sprites = levelSprites(level);
+        sprites.remove(null);
+        int packed = SpriteAtlas.packSprites(sprites);
+        List<Image> skinImages = new ArrayList<Image>();
+        for (String path : PLAYFIELD_SKIN_IMAGES) {
+            try {
+                skinImages.add(SpriteManager.loadImage(resourceLoader, path));
+            } catch (IOException ex) {
+                debug("Couldn't pack skin image "+path+": "+ex);
+            }
+        }
+        packed += SpriteAtlas.pack(skinImages);
+        debug("Packed "+packed+" new images for level "+level.getName());
+    }
+
+    /**
+     * Returns the sprites of the given level's squares, switches and robots.
+     * The set may contain null.
+     */
+    private static Set<Sprite> levelSprites(LevelConfig level) {
+        Set<Sprite> sprites = new HashSet<Sprite>();
+        for (Square[] column : level.getMap()) {
+            for (Square square : column) {
+                if (square != null) sprites.add(square.getSprite());
+            }
+        }
+        for (Switch s : level.getSwitches()) {
+            sprites.add(s.getSprite());
+        }
+        for (Robot robot : level.getRobots()) {
+            sprites.add(robot.getSprite());
+        }
+        return sprites;
+    }
+}
@@ -148,18 +148,30 @@ public class LevelStore {
         
         out.write("\n");
 
+        saveTypes(out, gc);
+        
+        for (LevelConfig level : gc.getLevels()) {
+            saveLevel(out, gc, level);
+        }
+        out.write("</rocky>\n");
+        out.flush();
+    }
+    
+    /**
+     * Writes the sensor, gate and square type elements of the given game
+     * configuration, in the format used by {@link #save(Writer, GameConfig, String)}.
+     */
+    public static void saveTypes(Writer out, GameConfig gc) throws IOException {
         for (SensorConfig sensor : gc.getSensorTypes()) {
             out.write("  <sensor type=\""+sensor.getId()+"\" />\n");
         }
         
         out.write("\n");
         
-        Map<Class<Gate>, String> gateNameMap = new HashMap<Class<Gate>, String>();
         for (GateConfig gate : gc.getGateTypes()) {
             out.write("  <gate type=\""+gate.getName()+"\" " +
                           "mnemonic=\""+gate.getAccelerator().getKeyChar()+"\" " +
                              "class=\""+gate.getGateClass().getName()+"\" />\n");
-            gateNameMap.put(gate.getGateClass(), gate.getName());
         }
         
         out.write("\n");
@@ -178,70 +190,77 @@ public class LevelStore {
         }
 
         out.write("\n");
+    }
+    
+    /**
+     * Writes the level element for the given level of the given game
+     * configuration, in the format used by {@link #save(Writer, GameConfig, String)}.
+     */
+    public static void saveLevel(Writer out, GameConfig gc, LevelConfig level) throws IOException {
+        Map<Class<Gate>, String> gateNameMap = new HashMap<Class<Gate>, String>();
+        for (GateConfig gate : gc.getGateTypes()) {
+            gateNameMap.put(gate.getGateClass(), gate.getName());
+        }
         
-        for (LevelConfig level : gc.getLevels()) {
-            out.write("  <level name=\""+level.getName()+"\" " +
-                             "size-x=\""+level.getWidth()+"\" " +
-                             "size-y=\""+level.getHeight()+"\">\n");
+        out.write("  <level name=\""+level.getName()+"\" " +
+                         "size-x=\""+level.getWidth()+"\" " +
+                         "size-y=\""+level.getHeight()+"\">\n");
 
-            if (level.getDescription() != null && level.getDescription().trim().length() > 0) {
-                out.write("  <description><![CDATA[\n");
-                out.write(level.getDescription());
-                out.write("\n  ]]></description>\n");
-            }
+        if (level.getDescription() != null && level.getDescription().trim().length() > 0) {
+            out.write("  <description><![CDATA[\n");
+            out.write(level.getDescription());
+            out.write("\n  ]]></description>\n");
+        }
 
-            if (level.getMarchMusicId() != null && level.getMarchMusicId().trim().length() > 0) {
-                out.write("  <march-music ref=\"" + level.getMarchMusicId() + "\" />\n");
-            }
+        if (level.getMarchMusicId() != null && level.getMarchMusicId().trim().length() > 0) {
+            out.write("  <march-music ref=\"" + level.getMarchMusicId() + "\" />\n");
+        }
+        
+        for (Robot r : level.getRobots()) {
+            out.write("    <grod id=\""+r.getId()+"\" " +
+                         "step-size=\""+r.getStepSize()+"\" " +
+                           "start-x=\""+r.getPosition().getX()+"\" " +
+                           "start-y=\""+r.getPosition().getY()+"\" " +
+                   "initial-heading=\""+RobotUtils.radToDeg(r.getInitialHeading())+"\" " +
+                    "evals-per-step=\""+r.getEvalsPerStep()+"\" " +
+                   makeLabelAttributes(r) +
+                   ">\n");
+            out.write("      "+makeSpriteTag(r.getSprite())+"\n");
             
-            for (Robot r : level.getRobots()) {
-                out.write("    <grod id=\""+r.getId()+"\" " +
-                             "step-size=\""+r.getStepSize()+"\" " +
-                               "start-x=\""+r.getPosition().getX()+"\" " +
-                               "start-y=\""+r.getPosition().getY()+"\" " +
-                       "initial-heading=\""+RobotUtils.radToDeg(r.getInitialHeading())+"\" " +
-                        "evals-per-step=\""+r.getEvalsPerStep()+"\" " +
-                       makeLabelAttributes(r) +
-                       ">\n");
-                out.write("      "+makeSpriteTag(r.getSprite())+"\n");
-                
-                for (Map.Entry<Class<? extends Gate>, Integer> ent : r.getCircuit().getGateAllowances().entrySet()) {
-                    String gateType = gateNameMap.get(ent.getKey());
-                    int allowance = ent.getValue();
-                    out.write("      <gate-allowance type=\""+gateType+"\" value=\""+allowance+"\" />\n");
-                }
-                
-                out.write("    </grod>\n");
+            for (Map.Entry<Class<? extends Gate>, Integer> ent : r.getCircuit().getGateAllowances().entrySet()) {
+                String gateType = gateNameMap.get(ent.getKey());
+                int allowance = ent.getValue();
+                out.write("      <gate-allowance type=\""+gateType+"\" value=\""+allowance+"\" />\n");
             }
+            
+            out.write("    </grod>\n");
+        }
 
-            out.write("\n");
+        out.write("\n");
 
-            for (LevelConfig.Switch s : level.getSwitches()) {
-                out.write("    <switch id=\""+s.getId()+"\" " +
-                                   "loc-x=\""+s.getX()+"\" " +
-                                   "loc-y=\""+s.getY()+"\" " +
-                                "on-enter=\""+s.getOnEnter()+"\" " +
-                                 "enabled=\""+s.isEnabled()+"\" " +
-                                  ""+makeLabelAttributes(s)+">\n");
-                out.write("      "+makeSpriteTag(s.getSprite())+"\n");
-                out.write("    </switch>\n");
-            }
+        for (LevelConfig.Switch s : level.getSwitches()) {
+            out.write("    <switch id=\""+s.getId()+"\" " +
+                               "loc-x=\""+s.getX()+"\" " +
+                               "loc-y=\""+s.getY()+"\" " +
+                            "on-enter=\""+s.getOnEnter()+"\" " +
+                             "enabled=\""+s.isEnabled()+"\" " +
+                              ""+makeLabelAttributes(s)+">\n");
+            out.write("      "+makeSpriteTag(s.getSprite())+"\n");
+            out.write("    </switch>\n");
+        }
 
-            out.write("\n");
+        out.write("\n");
 
-            out.write("    <map>\n");
-            for (int x = 0; x < level.getMap()[0].length; x++) {
-                for (int y = 0; y < level.getMap().length; y++) {
-                    out.write(level.getMap()[y][x].getMapChar());
-                }
-                out.write("\n");
+        out.write("    <map>\n");
+        for (int x = 0; x < level.getMap()[0].length; x++) {
+            for (int y = 0; y < level.getMap().length; y++) {
+                out.write(level.getMap()[y][x].getMapChar());
             }
-            out.write("    </map>\n");
-            
-            out.write("  </level>\n");
+            out.write("\n");
         }
-        out.write("</rocky>\n");
-        out.flush();
+        out.write("    </map>\n");
+        
+        out.write("  </level>\n");
     }
     
     private static String makeLabelAttributes(Labelable labelable) {
@@ -283,18 +302,37 @@ public class LevelStore {
      * @throws IOException If there is a general I/O problem reading the file.
      */
     public static GameConfig loadLevels(ResourceLoader resourceLoader, String mapResourcePath) throws IOException {
+        List<FileFormatException> warnings = new ArrayList<FileFormatException>();
+        GameConfig config = loadLevels(resourceLoader, mapResourcePath, true, warnings);
+        if (!warnings.isEmpty()) {
+            System.out.println("Warnings encountered during load:");
+            for (FileFormatException ffe : warnings) {
+                System.out.println(ffe.getMessage()+" (line "+ffe.getLineNum()+" col "+ffe.getBadCharPos()+")");
+            }
+        }
+        return config;
+    }
+    
+    /**
+     * Reads in a list of 0 or more levels like {@link #loadLevels(ResourceLoader, String)},
+     * but hands non-fatal problems back to the caller instead of printing them,
+     * and optionally leaves the audio system alone.
+     * 
+     * @param audioEnabled If false, sounds are only checked for existence and
+     * the game config's sound manager will not make any noise.  This allows
+     * level packs to be loaded on machines without audio hardware.
+     * @param warnings Non-fatal problems found while loading are appended to
+     * this list.
+     */
+    public static GameConfig loadLevels(ResourceLoader resourceLoader, String mapResourcePath,
+            boolean audioEnabled, List<FileFormatException> warnings) throws IOException {
         InputStream inStream = new BufferedInputStream(resourceLoader.getResourceAsStream(mapResourcePath));
-        LevelSaxHandler handler = new LevelSaxHandler(resourceLoader);
+        LevelSaxHandler handler = new LevelSaxHandler(resourceLoader, audioEnabled);
         try {
             SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
             // turn off validation parser.setProperty()
             parser.parse(inStream, handler);
-            if (!handler.getWarnings().isEmpty()) {
-                System.out.println("Warnings encountered during load:");
-                for (FileFormatException ffe : handler.getWarnings()) {
-                    System.out.println(ffe.getMessage()+" (line "+ffe.getLineNum()+" col "+ffe.getBadCharPos()+")");
-                }
-            }
+            warnings.addAll(handler.getWarnings());
         } catch (SAXException ex) {
             if (ex.getException() instanceof IOException) {
                 throw (IOException) ex.getException();
@@ -401,8 +439,8 @@ public class LevelStore {
          */
         private Stack<String> nestingContext = new Stack<String>();
         
-        public LevelSaxHandler(ResourceLoader resourceLoader) {
-            this.config = new GameConfig(resourceLoader);
+        public LevelSaxHandler(ResourceLoader resourceLoader, boolean audioEnabled) {
+            this.config = new GameConfig(resourceLoader, audioEnabled);
             this.warnings = new ArrayList<FileFormatException>();
         }
 
@@ -489,7 +527,7 @@ public class LevelStore {
                                 "Found an <ending> element that is not nested inside a <sound> element",
                                 loc.getLineNumber(), line, loc.getColumnNumber());
                     }
-                    if ( ! (soundManagerEntry instanceof ModMusic) ) {
+                    if (soundManagerEntry.getType() != SoundManagerEntry.EntryType.MOD) {
                         throw new FileFormatException(
                                 "<ending> elements are only supported for sounds of type MOD",
                                 loc.getLineNumber(), line, loc.getColumnNumber());
@@ -543,7 +581,10 @@ public class LevelStore {
                     checkMandatory("ending", "offset", offset);
                     checkMandatory("ending", "duration", duration);
                     
-                    ((ModMusic) soundManagerEntry).addEnding(name, sequenceIndex, offset, duration);
+                    // silent entries have nowhere to put endings, and don't need them
+                    if (soundManagerEntry instanceof ModMusic) {
+                        ((ModMusic) soundManagerEntry).addEnding(name, sequenceIndex, offset, duration);
+                    }
                     
                 } else if (qName.equals("sensor")) {
                     // sensor types (square attributes)
@@ -967,10 +1008,28 @@ public class LevelStore {
                             rows[i] = allRows[i+1];
                         }
                         
+                        if (rows.length != level.getHeight()) {
+                            warnings.add(new FileFormatException(
+                                    "Map of level \""+level.getName()+"\" has "+rows.length+
+                                    " rows, but size-y is "+level.getHeight(),
+                                    loc.getLineNumber(), line, -1));
+                        }
+                        
                         int y;
                         for (y = 0; y < rows.length && y < level.getHeight(); y++) {
+                            if (rows[y].length() != level.getWidth()) {
+                                warnings.add(new FileFormatException(
+                                        "Row "+y+" of the map of level \""+level.getName()+"\" has "+
+                                        rows[y].length()+" squares, but size-x is "+level.getWidth(),
+                                        loc.getLineNumber(), rows[y], -1));
+                            }
                             for (int x = 0; x < level.getWidth(); x++) {
                                 if (x < rows[y].length()) {
+                                    if (config.getSquare(rows[y].charAt(x)) == null) {
+                                        warnings.add(new FileFormatException(
+                                                "Undeclared square type '"+rows[y].charAt(x)+"' in the map of level \""+
+                                                level.getName()+"\"", loc.getLineNumber(), rows[y], x));
+                                    }
                                     level.setSquare(x, y, config.getSquare(rows[y].charAt(x)));
                                 } else {
                                     level.setSquare(x, y, config.getSquare(' '));
@@ -98,6 +98,12 @@ public class Main {
      */
     GameConfig config;
     
+    /**
+     * Loads the next level's resources in the background while the current
+     * level is being played.  Replaced along with {@link #config}.
+     */
+    private LevelPrefetcher prefetcher;
+
     /**
      * The frame that contains the entire user interface for the game.  The content
      * pane itself is managed by the {@link @gameUI} object.
@@ -204,10 +210,15 @@ public class Main {
             new PrefixResourceLoader(new SystemResourceLoader(), "builtin/");
         ResourceLoader loader =
             new CompoundResourceLoader(resourceLoader, builtinResourceLoader);
+        if (prefetcher != null) {
+            prefetcher.close();
+            prefetcher = null;
+        }
         if (config != null) {
             config.close();
         }
         config = LevelStore.loadLevels(loader);
+        prefetcher = new LevelPrefetcher(config);
         ResourceUtils.initResourceURLHandler(loader);
     }
 
@@ -226,6 +237,8 @@ public class Main {
         
         levelNumber = newLevelNum;
         final LevelConfig level = config.getLevels().get(newLevelNum);
+        prefetcher.await(level);
+        prefetcher.packSprites(level);
         level.resetState();
         
         Action nextLevelAction = new AbstractAction() {
@@ -280,6 +293,10 @@ public class Main {
         playfieldFrame.pack();
         playfieldFrame.setVisible(true);
         playfieldFrame.requestFocus();
+        
+        if (newLevelNum + 1 < config.getLevels().size()) {
+            prefetcher.prefetch(config.getLevels().get(newLevelNum + 1));
+        }
     }
     
     /**
@@ -40,35 +40,52 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
 import java.awt.Point;
 import java.awt.Rectangle;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.Transparency;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.BorderFactory;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.SwingConstants;
-import javax.swing.Timer;
 import javax.swing.event.AncestorEvent;
 import javax.swing.event.AncestorListener;
 
 import net.bluecow.robot.GameConfig.SquareConfig;
 import net.bluecow.robot.LevelConfig.Switch;
+import net.bluecow.robot.fx.AbstractEffect;
+import net.bluecow.robot.fx.AnimationClock;
 import net.bluecow.robot.fx.Effect;
+import net.bluecow.robot.sprite.AbstractSprite;
 import net.bluecow.robot.sprite.AnimatedSprite;
+import net.bluecow.robot.sprite.IconSprite;
+import net.bluecow.robot.sprite.RotatedFrameCache;
 import net.bluecow.robot.sprite.Sprite;
 import net.bluecow.robot.sprite.SpriteLoadException;
 import net.bluecow.robot.sprite.SpriteManager;
@@ -109,6 +126,74 @@ public class Playfield extends JPanel {
         }
     }
     
+    /**
+     * The state of one robot in a {@link FrameSnapshot}.
+     */
+    private static class RobotFrame {
+        final Robot robot;
+        final Composite composite;
+        final Point2D position;
+        final double heading;
+        
+        /**
+         * The robot's sprite image for this frame, or null if the sprite
+         * can't tell us (it's not an {@link AbstractSprite}).
+         */
+        final Image image;
+        
+        final boolean labelEnabled;
+        
+        RobotFrame(RoboStuff rs) {
+            robot = rs.getRobot();
+            composite = rs.getComposite();
+            position = robot.getPosition();
+            heading = robot.getIconHeading();
+            image = currentImage(robot.getSprite());
+            labelEnabled = robot.isLabelEnabled();
+        }
+    }
+    
+    /**
+     * The state of one switch in a {@link FrameSnapshot}.
+     */
+    private static class SwitchFrame {
+        final Switch sw;
+        
+        /**
+         * The switch's sprite image for this frame, or null if the sprite
+         * can't tell us (it's not an {@link AbstractSprite}).
+         */
+        final Image image;
+        
+        final boolean enabled;
+        final boolean labelEnabled;
+        
+        SwitchFrame(Switch sw) {
+            this.sw = sw;
+            image = currentImage(sw.getSprite());
+            enabled = sw.isEnabled();
+            labelEnabled = sw.isLabelEnabled();
+        }
+    }
+    
+    /**
+     * Everything about the robots and switches that the game loop changes
+     * from one step to the next, as it was at one moment.  Snapshots are
+     * immutable, so they can be painted on the Swing thread while the game
+     * loop carries on with the next step.  See {@link #publishFrame()}.
+     */
+    private static class FrameSnapshot {
+        final Integer frameCount;
+        final List<RobotFrame> robots;
+        final List<SwitchFrame> switches;
+        
+        FrameSnapshot(Integer frameCount, List<RobotFrame> robots, List<SwitchFrame> switches) {
+            this.frameCount = frameCount;
+            this.robots = Collections.unmodifiableList(robots);
+            this.switches = Collections.unmodifiableList(switches);
+        }
+    }
+    
     /**
      * The config for the whole game (currently used only to find out
      * the total score).
@@ -122,6 +207,93 @@ public class Playfield extends JPanel {
     
     private int squareWidth = 25;
     
+    /**
+     * The static part of the map (every square whose sprite is not animated)
+     * rendered at some square width, so paintComponent() can draw it with a
+     * single blit, along with what it was rendered from.  Instances are
+     * immutable, so the game loop thread can look at the layer while the
+     * Swing thread is rendering a new one.
+     */
+    private static class BackgroundLayer {
+        
+        final BufferedImage image;
+        
+        /**
+         * The map the image was rendered from.  Levels replace their map
+         * array when it is resized or reloaded, so a different array means
+         * the layer is stale.
+         */
+        final Square[][] map;
+        
+        /**
+         * The square width the image was rendered at.
+         */
+        final int squareWidth;
+        
+        /**
+         * The sprite each square type had when the image was rendered, in
+         * the order of the game's square types.  Sprites are replaced (rather
+         * than modified) when a square type's graphics change.
+         */
+        final List<Sprite> sprites;
+        
+        /**
+         * The map positions of the squares whose sprites are animated, and so
+         * have to be painted every frame on top of the image.
+         */
+        final List<Point> animatedSquares;
+        
+        BackgroundLayer(BufferedImage image, Square[][] map, int squareWidth,
+                List<Sprite> sprites, List<Point> animatedSquares) {
+            this.image = image;
+            this.map = map;
+            this.squareWidth = squareWidth;
+            this.sprites = Collections.unmodifiableList(sprites);
+            this.animatedSquares = Collections.unmodifiableList(animatedSquares);
+        }
+    }
+    
+    /**
+     * The most recently rendered background layer.  Null if it hasn't been
+     * rendered yet or has been invalidated. See {@link #invalidateBackground()}.
+     */
+    private volatile BackgroundLayer backgroundLayer;
+    
+    /**
+     * The frame most recently published by the game loop, which is what
+     * paintComponent() paints, or null if the playfield should paint the
+     * current state of its robots and switches instead.  This is a
+     * single-slot exchange: the game loop replaces the snapshot after every
+     * step without waiting for it to be painted, and each paint takes
+     * whichever snapshot is there, so frames that come faster than the
+     * display can show them are skipped.
+     */
+    private final AtomicReference<FrameSnapshot> publishedFrame =
+        new AtomicReference<FrameSnapshot>();
+    
+    /**
+     * Guards {@link #paintedRegion} and {@link #fullRepaintPending}, which are
+     * updated by paintComponent() on the Swing event thread and read by
+     * {@link #repaintChangedRegion()}, which is usually called by the game
+     * loop thread.
+     */
+    private final Object dirtyRegionLock = new Object();
+    
+    /**
+     * The union of the dynamic parts (see {@link #getDynamicBounds()}) of
+     * every frame painted since the last call to {@link #repaintChangedRegion()}.
+     * These areas have to be repainted along with the current dynamic parts
+     * to erase them.  Null if nothing has been painted since then.
+     */
+    private Rectangle paintedRegion;
+    
+    /**
+     * True if a frame that could only be repainted as a whole has been painted
+     * since the last call to {@link #repaintChangedRegion()}, or if that method
+     * has never been called.
+     */
+    private boolean fullRepaintPending = true;
+    
     private String winMessage;
     
     private Integer frameCount;
@@ -129,15 +301,67 @@ public class Playfield extends JPanel {
     /**
      * All of the effects that are currently active. To start a new effect, just
      * add it to this list. When effects are finished, the nextFrame() method
-     * will remove them from this list.
+     * will remove them from this list.  This list is painted on the Swing
+     * event thread and advanced on the game loop's thread, so it has to be
+     * safe to iterate while it is being changed.
      */
-    private List<Effect> effects = new ArrayList<Effect>();
+    private List<Effect> effects = new CopyOnWriteArrayList<Effect>();
+    
+    /**
+     * Effects that have been removed from the effects list but not released
+     * yet.  An effect can still be in the middle of painting when the game
+     * loop removes it, so it is only released by paintComponent(), on the
+     * thread that paints it.
+     */
+    private final Queue<AbstractEffect> finishedEffects = new ConcurrentLinkedQueue<AbstractEffect>();
     
     /**
      * All the robots in this playfield.  Includes ghosts as well as the robots
-     * that are actually part of the current level.
+     * that are actually part of the current level.  The list is copy-on-write
+     * because the game loop thread takes snapshots of it while ghosts can be
+     * added on the Swing thread.
      */
     private List<RoboStuff> robots;
+    
+    /**
+     * The switches {@link #itemListener} is listening to.  This is a copy of
+     * the level's switch list as of the last "switches" property change.
+     */
+    private List<LevelConfig.Switch> watchedSwitches = new ArrayList<LevelConfig.Switch>();
+    
+    /**
+     * Keeps this playfield up to date with changes to the properties of its
+     * level.  The async repaint manager stops ticking when nothing is
+     * animating, so changes made while the game isn't running (for instance
+     * in the level editor) would otherwise never reach the screen.
+     */
+    private final PropertyChangeListener levelListener = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent evt) {
+            if (evt.getSource() != level) return;
+            String property = evt.getPropertyName();
+            if ("map".equals(property)) {
+                invalidateBackground();
+                revalidate();
+            } else if ("switches".equals(property)) {
+                watchSwitches();
+                repaint();
+            } else if ("name".equals(property) || "description".equals(property) ||
+                    "robots".equals(property)) {
+                repaint();
+            }
+        }
+    };
+    
+    /**
+     * Repaints the parts of this playfield that a change to one of its robots
+     * or switches may have affected.  Like {@link #levelListener}, this is
+     * for changes made while the game isn't running.
+     */
+    private final PropertyChangeListener itemListener = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent evt) {
+            repaintChangedRegion();
+        }
+    };
 
     /**
      * Controls whether or not labels will be displayed by fading the opacity
@@ -232,6 +456,21 @@ public class Playfield extends JPanel {
      */
     private int descriptionPageNumber;
     
+    /**
+     * The description page as it was last rendered (box and text, at full
+     * opacity).  Laying out the HTML description is far too slow to do on
+     * every frame of a fade, so it is only re-rendered when the text or the
+     * size of the playfield changes; see {@link #getDescriptionImage(String, Rectangle, Graphics2D)}.
+     */
+    private BufferedImage descriptionImage;
+    
+    /**
+     * The HTML that {@link #descriptionImage} was rendered from.  It includes
+     * the level name and the text of the page, so it changes whenever the
+     * level or the page number does.
+     */
+    private String descriptionImageHtml;
+    
     /**
      * Creates a new playfield with the specified map.
      * 
@@ -283,21 +522,45 @@ public class Playfield extends JPanel {
      * @param level
      */
     public final void setLevel(LevelConfig level) {
-        robots = new ArrayList<RoboStuff>();
+        if (this.level != null) {
+            this.level.removePropertyChangeListener(levelListener);
+        }
+        if (robots != null) {
+            for (RoboStuff rs : robots) {
+                rs.getRobot().removePropertyChangeListener(itemListener);
+            }
+        }
+        robots = new CopyOnWriteArrayList<RoboStuff>();
+        publishedFrame.set(null);
         this.level = level;
+        watchSwitches();
         for (Robot r : level.getRobots()) {
             addRobot(r);
         }
         
-        effects.clear();
-        
-        level.addPropertyChangeListener("map", new PropertyChangeListener() {
-            public void propertyChange(PropertyChangeEvent evt) {
-                if (evt.getSource() == Playfield.this.level) {
-                    revalidate();
-                }
+        for (Effect e : effects) {
+            effects.remove(e);
+            if (e instanceof AbstractEffect) {
+                finishedEffects.add((AbstractEffect) e);
             }
-        });
+        }
+        
+        level.addPropertyChangeListener(levelListener);
+        repaintManager.wake(true);
+    }
+    
+    /**
+     * Moves {@link #itemListener} from the switches it was listening to over
+     * to the current level's switches.
+     */
+    private void watchSwitches() {
+        for (LevelConfig.Switch s : watchedSwitches) {
+            s.removePropertyChangeListener(itemListener);
+        }
+        watchedSwitches = new ArrayList<LevelConfig.Switch>(level.getSwitches());
+        for (LevelConfig.Switch s : watchedSwitches) {
+            s.addPropertyChangeListener(itemListener);
+        }
     }
     
     /**
@@ -321,6 +584,7 @@ public class Playfield extends JPanel {
      */
     public final void addRobot(Robot robot, Composite drawComposite) {
         robots.add(new RoboStuff(robot, drawComposite));
+        robot.addPropertyChangeListener(itemListener);
         repaint();
     }
     
@@ -328,9 +592,10 @@ public class Playfield extends JPanel {
      * Removes the given robot from this playfield.
      */
     public void removeRobot(Robot robot) {
-        for (Iterator<RoboStuff> it = robots.iterator(); it.hasNext(); ) {
-            if (it.next().getRobot() == robot) {
-                it.remove();
+        for (RoboStuff rs : robots) {
+            if (rs.getRobot() == robot) {
+                robots.remove(rs);
+                robot.removePropertyChangeListener(itemListener);
             }
         }
         repaint();
@@ -342,31 +607,38 @@ public class Playfield extends JPanel {
 
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
+        
+        // these were removed from the effects list, so they won't be painted again
+        AbstractEffect finished;
+        while ((finished = finishedEffects.poll()) != null) {
+            finished.release();
+        }
+        
         g.setColor(getBackground());
         g.fillRect(0, 0, getWidth(), getHeight());
         Graphics2D g2 = (Graphics2D) g.create();
         FontMetrics fm = getFontMetrics(getFont());
         
+        FrameSnapshot frame = getCurrentFrame();
         Square[][] squares = level.getMap();
-        for (int i = 0; i < squares.length; i++) {
-            for (int j = 0; j < squares[0].length; j++) {
-                Rectangle r = new Rectangle(i*squareWidth, j*squareWidth, squareWidth, squareWidth);
-                if (squares[i][j] != null) {
-                    squares[i][j].getSprite().paint(g2, r.x, r.y);
-                } else {
-                    g2.setColor(Color.red);
-                    g2.fillRect(r.x, r.y, r.width, r.height);
-                    g2.setColor(Color.white);
-                    g2.drawString("null", r.x, r.y+10);
-                }
-                
+        BackgroundLayer background = getValidBackground();
+        if (background == null) {
+            background = renderBackground();
+            // the new map might have animated squares
+            repaintManager.wake(false);
+        }
+        g2.drawImage(background.image, 0, 0, null);
+        Rectangle clip = g2.getClipBounds();
+        for (Point p : background.animatedSquares) {
+            if (clip == null || clip.intersects(p.x*squareWidth, p.y*squareWidth, squareWidth, squareWidth)) {
+                squares[p.x][p.y].getSprite().paint(g2, p.x*squareWidth, p.y*squareWidth);
             }
         }
         
-        for (LevelConfig.Switch s : level.getSwitches()) {
-            Point p = s.getPosition();
-            s.getSprite().paint(g2, p.x*squareWidth, p.y*squareWidth);
-            if (!s.isEnabled()) {
+        for (SwitchFrame sf : frame.switches) {
+            Point p = sf.sw.getPosition();
+            paintSprite(g2, sf.sw.getSprite(), sf.image, p.x*squareWidth, p.y*squareWidth);
+            if (!sf.enabled) {
                 g2.setColor(Color.RED);
                 int x = p.x*squareWidth;
                 int y = p.y*squareWidth;
@@ -376,16 +648,26 @@ public class Playfield extends JPanel {
         }
         
         Composite backupComposite = g2.getComposite();
-        for (RoboStuff rs : robots) {
-            Robot robot = rs.getRobot();
-            if (rs.getComposite() != null) {
-                g2.setComposite(rs.getComposite());
+        for (RobotFrame rf : frame.robots) {
+            if (rf.composite != null) {
+                g2.setComposite(rf.composite);
             } else {
                 g2.setComposite(AlphaComposite.SrcOver);
             }
             
-            Sprite sprite = robot.getSprite();
-            Point2D roboPos = robot.getPosition();
+            Sprite sprite = rf.robot.getSprite();
+            Point2D roboPos = rf.position;
+            double heading = rf.heading;
+            Image rotated = RotatedFrameCache.getFrame(sprite, rf.image, heading, g2.getDeviceConfiguration());
+            if (rotated != null) {
+                g2.drawImage(rotated,
+                        (int) Math.round((squareWidth * roboPos.getX()) - (rotated.getWidth(null) / 2.0)),
+                        (int) Math.round((squareWidth * roboPos.getY()) - (rotated.getHeight(null) / 2.0)),
+                        null);
+                continue;
+            }
+            
+            // the sprite is facing an odd direction or being transformed
             AffineTransform backupXform = g2.getTransform();
 
             g2.translate(
@@ -393,17 +675,35 @@ public class Playfield extends JPanel {
                     (squareWidth * roboPos.getY()) - (sprite.getHeight() / 2.0));
             
             AffineTransform iconXform = new AffineTransform();
-            iconXform.rotate(robot.getIconHeading(), sprite.getWidth()/2.0, sprite.getHeight()/2.0);
+            iconXform.rotate(heading, sprite.getWidth()/2.0, sprite.getHeight()/2.0);
             g2.transform(iconXform);
-            sprite.paint(g2, 0, 0);
+            paintSprite(g2, sprite, rf.image, 0, 0);
             g2.setTransform(backupXform);
         }
         g2.setComposite(backupComposite);
         
-        for (Effect e : effects) {
+        if (!effects.isEmpty()) {
+            // one graphics for all the effects, put back the way it was after each one
             Graphics2D effectsGraphics = (Graphics2D) g2.create();
-            e.paint(effectsGraphics);
-            effectsGraphics.dispose();
+            try {
+                AffineTransform effectsXform = effectsGraphics.getTransform();
+                Composite effectsComposite = effectsGraphics.getComposite();
+                Paint effectsPaint = effectsGraphics.getPaint();
+                Stroke effectsStroke = effectsGraphics.getStroke();
+                Font effectsFont = effectsGraphics.getFont();
+                Shape effectsClip = effectsGraphics.getClip();
+                for (Effect e : effects) {
+                    e.paint(effectsGraphics);
+                    effectsGraphics.setTransform(effectsXform);
+                    effectsGraphics.setComposite(effectsComposite);
+                    effectsGraphics.setPaint(effectsPaint);
+                    effectsGraphics.setStroke(effectsStroke);
+                    effectsGraphics.setFont(effectsFont);
+                    effectsGraphics.setClip(effectsClip);
+                }
+            } finally {
+                effectsGraphics.dispose();
+            }
         }
         
         if (spotlightLocation != null) {
@@ -424,8 +724,8 @@ public class Playfield extends JPanel {
                     (int) (spotlightRadius*squareWidth*2));
         }
         
-        if (frameCount != null) {
-            String fc = String.format("%4d", frameCount);
+        if (frame.frameCount != null) {
+            String fc = String.format("%4d", frame.frameCount);
             int width = fm.stringWidth(fc);
             int height = fm.getHeight();
             int x = getWidth() - width - 3;
@@ -437,16 +737,15 @@ public class Playfield extends JPanel {
         }
 
         if (labelOpacity > 0.0) {
-            for (RoboStuff rs : robots) {
-                Robot robot = rs.getRobot();
-                if (robot.isLabelEnabled()) {
-                    drawLabel(g2, fm, robot, robot.getPosition());
+            for (RobotFrame rf : frame.robots) {
+                if (rf.labelEnabled) {
+                    drawLabel(g2, fm, rf.robot, rf.position);
                 }
             }
             
-            for (Switch s : level.getSwitches()) {
-                if (s.isLabelEnabled()) {
-                    drawLabel(g2, fm, s, s.getPosition());
+            for (SwitchFrame sf : frame.switches) {
+                if (sf.labelEnabled) {
+                    drawLabel(g2, fm, sf.sw, sf.sw.getPosition());
                 }
             }
         }
@@ -462,18 +761,13 @@ public class Playfield extends JPanel {
         }
         
         final List<String> pages = level.getDescriptionPages();
-        if ( (pages != null) && (pages.size() > getDescriptionPageNumber()) && (descriptionOpacity > 0.0f) ) {
+        if (isDescriptionVisible()) {
             final String descText = pages.get(getDescriptionPageNumber());
             backupComposite = g2.getComposite();
             g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, descriptionOpacity));
             Rectangle labelBounds = new Rectangle(
                     (int) (getWidth() * 0.05), (int) (getHeight() * 0.05),
                     (int) (getWidth() * 0.9), (int) (getHeight() * 0.9));
-            g2.setColor(new Color(0, 0, 0, 150));
-            g2.fillRoundRect(
-                    labelBounds.x, labelBounds.y,
-                    labelBounds.width, labelBounds.height,
-                    10, 10);
             
             String htmlDescription =
                 "<html>" +
@@ -482,18 +776,8 @@ public class Playfield extends JPanel {
                 "<p>" + descText +
                 "</body></html>";
             
-            JLabel descriptionLabel = new JLabel(htmlDescription);
-            descriptionLabel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-            descriptionLabel.setForeground(Color.WHITE);
-            descriptionLabel.setBackground(Color.RED);
-            descriptionLabel.setOpaque(false);
-            descriptionLabel.setVerticalAlignment(SwingConstants.TOP);
-            descriptionLabel.setBounds(0, 0, labelBounds.width, labelBounds.height);
-            Graphics labelGraphics = g2.create(
-                    labelBounds.x, labelBounds.y,
-                    labelBounds.width, labelBounds.height);
-            descriptionLabel.paint(labelGraphics);
-            labelGraphics.dispose();
+            g2.drawImage(getDescriptionImage(htmlDescription, labelBounds, g2),
+                    labelBounds.x, labelBounds.y, null);
 
             
             // Page flipper
@@ -518,6 +802,252 @@ public class Playfield extends JPanel {
             
             g2.setComposite(backupComposite);
         }
+        
+        Rectangle painted = getDynamicBounds(frame);
+        synchronized (dirtyRegionLock) {
+            if (painted == null) {
+                fullRepaintPending = true;
+            } else if (paintedRegion == null) {
+                paintedRegion = painted;
+            } else {
+                paintedRegion = union(paintedRegion, painted);
+            }
+        }
+    }
+
+    /**
+     * Returns the description box with the given HTML text in it, rendered
+     * at full opacity into an image the size of the given bounds.  The image
+     * from the previous call is returned if the text and size haven't
+     * changed since then.
+     * 
+     * @param g2 The graphics the image will be drawn on.  Its rendering hints
+     * are used when rendering the image.
+     */
+    private BufferedImage getDescriptionImage(String html, Rectangle bounds, Graphics2D g2) {
+        if (descriptionImage != null &&
+                descriptionImage.getWidth() == bounds.width &&
+                descriptionImage.getHeight() == bounds.height &&
+                html.equals(descriptionImageHtml)) {
+            return descriptionImage;
+        }
+        debug("Rendering description image ("+bounds.width+"x"+bounds.height+")");
+        
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        BufferedImage image;
+        if (gc != null) {
+            image = gc.createCompatibleImage(bounds.width, bounds.height, Transparency.TRANSLUCENT);
+        } else {
+            image = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB);
+        }
+        
+        Graphics2D ig = image.createGraphics();
+        try {
+            ig.setRenderingHints(g2.getRenderingHints());
+            ig.setColor(new Color(0, 0, 0, 150));
+            ig.fillRoundRect(0, 0, bounds.width, bounds.height, 10, 10);
+            
+            JLabel descriptionLabel = new JLabel(html);
+            descriptionLabel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+            descriptionLabel.setForeground(Color.WHITE);
+            descriptionLabel.setBackground(Color.RED);
+            descriptionLabel.setOpaque(false);
+            descriptionLabel.setVerticalAlignment(SwingConstants.TOP);
+            descriptionLabel.setBounds(0, 0, bounds.width, bounds.height);
+            descriptionLabel.paint(ig);
+        } finally {
+            ig.dispose();
+        }
+        
+        descriptionImage = image;
+        descriptionImageHtml = html;
+        return image;
+    }
+    
+    /**
+     * Returns true if the description overlay is at least partly visible.
+     */
+    private boolean isDescriptionVisible() {
+        List<String> pages = level.getDescriptionPages();
+        return (pages != null) && (pages.size() > getDescriptionPageNumber()) && (descriptionOpacity > 0.0f);
+    }
+    
+    /**
+     * Takes a snapshot of the robots and switches as they are now, and makes
+     * it the frame this playfield paints until the next call to this method.
+     * The game loop calls this after every step, so painting on the Swing
+     * thread never sees a robot part of the way through a step.  Turning
+     * asynchronous repainting back on (see {@link #setAsyncRepaint(boolean)})
+     * discards the published frame, and the playfield goes back to painting
+     * the current state.
+     */
+    public void publishFrame() {
+        publishedFrame.set(takeSnapshot());
+    }
+    
+    /**
+     * Returns the published frame, or a snapshot of the current state if no
+     * frame has been published.
+     */
+    private FrameSnapshot getCurrentFrame() {
+        FrameSnapshot frame = publishedFrame.get();
+        if (frame == null) {
+            frame = takeSnapshot();
+        }
+        return frame;
+    }
+    
+    private FrameSnapshot takeSnapshot() {
+        List<RobotFrame> robotFrames = new ArrayList<RobotFrame>(robots.size());
+        for (RoboStuff rs : robots) {
+            robotFrames.add(new RobotFrame(rs));
+        }
+        List<Switch> levelSwitches = level.getSwitches();
+        List<SwitchFrame> switchFrames = new ArrayList<SwitchFrame>(levelSwitches.size());
+        for (Switch s : levelSwitches) {
+            switchFrames.add(new SwitchFrame(s));
+        }
+        return new FrameSnapshot(frameCount, robotFrames, switchFrames);
+    }
+    
+    /**
+     * Returns the image the given sprite would paint right now, or null if
+     * it isn't an {@link AbstractSprite}.
+     */
+    private static Image currentImage(Sprite sprite) {
+        if (sprite instanceof AbstractSprite) {
+            return ((AbstractSprite) sprite).getImage();
+        }
+        return null;
+    }
+    
+    /**
+     * Paints the given image of the given sprite (see {@link #currentImage(Sprite)}),
+     * or the sprite's current image if the image is null.
+     */
+    private static void paintSprite(Graphics2D g2, Sprite sprite, Image image, int x, int y) {
+        if (image != null && sprite instanceof AbstractSprite) {
+            ((AbstractSprite) sprite).paintImage(g2, x, y, image);
+        } else {
+            sprite.paint(g2, x, y);
+        }
+    }
+    
+    /**
+     * Repaints the parts of this playfield that may have changed since the
+     * last time it was painted: the areas covered by robots, switches, animated
+     * squares, labels and the frame counter in the last frame painted and in
+     * the current state.  When something that can't be tracked this way is
+     * showing (effects, the level description, the win message or the
+     * spotlight), or was showing in the last frame, the whole playfield is
+     * repainted.
+     * <p>
+     * Unlike repaint(), this method only works if it is called after every
+     * change to the things it tracks; the game loop and the async repaint
+     * manager call it once per frame. It is safe to call from any thread.
+     */
+    public void repaintChangedRegion() {
+        Rectangle current = getDynamicBounds(getCurrentFrame());
+        Rectangle dirty;
+        synchronized (dirtyRegionLock) {
+            if (current == null || fullRepaintPending) {
+                dirty = null;
+            } else if (paintedRegion == null) {
+                dirty = current;
+            } else {
+                dirty = union(paintedRegion, current);
+            }
+            paintedRegion = null;
+            fullRepaintPending = false;
+        }
+        if (dirty == null) {
+            repaint();
+        } else if (!dirty.isEmpty()) {
+            repaint(dirty);
+        }
+    }
+    
+    /**
+     * Returns the smallest rectangle that contains everything on this playfield
+     * that can change from one frame to the next without the whole playfield
+     * being repainted, in the current state.  This is an empty rectangle if
+     * there is nothing of that kind.  Returns null if something that can't be
+     * bounded is showing, in which case everything has to be repainted.
+     */
+    private Rectangle getDynamicBounds(FrameSnapshot frame) {
+        BackgroundLayer background = getValidBackground();
+        if (!effects.isEmpty() || winMessage != null || spotlightLocation != null ||
+                isDescriptionVisible() || background == null) {
+            return null;
+        }
+        Rectangle bounds = new Rectangle();
+        for (Point p : background.animatedSquares) {
+            bounds = union(bounds, new Rectangle(p.x*squareWidth, p.y*squareWidth, squareWidth, squareWidth));
+        }
+        for (SwitchFrame sf : frame.switches) {
+            Point p = sf.sw.getPosition();
+            Sprite sprite = sf.sw.getSprite();
+            bounds = union(bounds, new Rectangle(p.x*squareWidth, p.y*squareWidth,
+                    Math.max(squareWidth, sprite.getWidth()) + 1, Math.max(squareWidth, sprite.getHeight()) + 1));
+        }
+        for (RobotFrame rf : frame.robots) {
+            bounds = union(bounds, getRobotBounds(rf.robot.getSprite(), rf.position));
+        }
+        FontMetrics fm = getFontMetrics(getFont());
+        if (frame.frameCount != null) {
+            int width = fm.stringWidth(String.format("%4d", frame.frameCount));
+            bounds = union(bounds, new Rectangle(getWidth() - width - 3, 3, width, fm.getHeight()));
+        }
+        if (labelOpacity > 0.0) {
+            for (RobotFrame rf : frame.robots) {
+                if (rf.labelEnabled) {
+                    bounds = union(bounds, getLabelBounds(fm, rf.robot, rf.position));
+                }
+            }
+            for (SwitchFrame sf : frame.switches) {
+                if (sf.labelEnabled) {
+                    bounds = union(bounds, getLabelBounds(fm, sf.sw, squareCentre(sf.sw.getPosition())));
+                }
+            }
+        }
+        return bounds;
+    }
+    
+    /**
+     * Returns a rectangle that contains a robot with the given sprite at the
+     * given map position, no matter which way it is heading.
+     */
+    private Rectangle getRobotBounds(Sprite sprite, Point2D pos) {
+        double scale = sprite.getScale();
+        double width = sprite.getWidth();
+        double height = sprite.getHeight();
+        
+        // the sprite's image, in the coordinates it is rotated in
+        AffineTransform spriteXform = AffineTransform.getScaleInstance(scale, scale);
+        if (sprite.getTransform() != null) {
+            spriteXform.concatenate(sprite.getTransform());
+        }
+        Rectangle2D image = spriteXform.createTransformedShape(
+                new Rectangle2D.Double(0, 0, width / scale, height / scale)).getBounds2D();
+        
+        // the furthest any corner of it can get from the centre of rotation
+        double dx = Math.max(Math.abs(image.getMinX() - width / 2.0), Math.abs(image.getMaxX() - width / 2.0));
+        double dy = Math.max(Math.abs(image.getMinY() - height / 2.0), Math.abs(image.getMaxY() - height / 2.0));
+        double radius = Math.sqrt(dx*dx + dy*dy) + 1.0;
+        
+        return new Rectangle2D.Double(
+                pos.getX() * squareWidth - radius, pos.getY() * squareWidth - radius,
+                radius * 2.0, radius * 2.0).getBounds();
+    }
+    
+    /**
+     * Returns the union of the two given rectangles, ignoring either one
+     * if it is empty.
+     */
+    private static Rectangle union(Rectangle r1, Rectangle r2) {
+        if (r1.isEmpty()) return r2;
+        if (r2.isEmpty()) return r1;
+        return r1.union(r2);
     }
 
     private int getDescriptionPageNumber() {
@@ -532,6 +1062,7 @@ public class Playfield extends JPanel {
     public void addEffect(Effect e) {
         debug("Adding effect "+e);
         effects.add(e);
+        repaintManager.wake(false);
     }
     
     /**
@@ -571,12 +1102,13 @@ public class Playfield extends JPanel {
             }
         }
 
-        for (Iterator<Effect> effectsIt = effects.iterator(); effectsIt.hasNext(); ) {
-            Effect e = effectsIt.next();
-            
+        for (Effect e : effects) {
             if (e.isFinished()) {
                 debug("---- REMOVING EFFECT "+e);
-                effectsIt.remove();
+                effects.remove(e);
+                if (e instanceof AbstractEffect) {
+                    finishedEffects.add((AbstractEffect) e);
+                }
             } else {
                 debug("Next Frame for effect "+e);
                 e.nextFrame();
@@ -596,11 +1128,211 @@ public class Playfield extends JPanel {
         }
     }
 
+    /**
+     * Returns true if anything on this playfield changes from one frame to
+     * the next even when the game isn't in play: effects, fading labels or
+     * description, or animated squares and switches.
+     */
+    private boolean isAnimating() {
+        if (level == null) return false;
+        if (!effects.isEmpty()) return true;
+        if (labelOpacity != (labellingOn ? 1.0f : 0.0f)) return true;
+        if (descriptionOpacity != (descriptionOn ? 1.0f : 0.0f)) return true;
+        
+        // until the background is rendered, we don't know which squares are animated
+        BackgroundLayer background = getValidBackground();
+        if (background == null || !background.animatedSquares.isEmpty()) return true;
+        
+        for (LevelConfig.Switch s : level.getSwitches()) {
+            if (!(s.getSprite() instanceof IconSprite)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Discards the cached rendering of the map's static squares, so it will
+     * be redrawn the next time this playfield is painted.  Changing the
+     * level's map array or its squares, the square width, or the sprite of
+     * a square type is detected automatically; this method only has to be
+     * called after changing the map array in place without going through
+     * {@link LevelConfig#setSquare(int, int, Square)}.
+     * <p>
+     * This also schedules a full repaint, because nothing else will notice
+     * the change while the playfield is idle.
+     */
+    public void invalidateBackground() {
+        backgroundLayer = null;
+        repaint();
+    }
+    
+    /**
+     * Returns {@link #backgroundLayer} if it is an up-to-date rendering of
+     * the current level's map, or null if it isn't.
+     */
+    private BackgroundLayer getValidBackground() {
+        BackgroundLayer background = backgroundLayer;
+        if (background == null ||
+                background.map != level.getMap() ||
+                background.squareWidth != squareWidth) {
+            return null;
+        }
+        Iterator<Sprite> oldSprites = background.sprites.iterator();
+        for (SquareConfig sc : game.getSquareTypes()) {
+            if (!oldSprites.hasNext() || oldSprites.next() != sc.getSprite()) {
+                return null;
+            }
+        }
+        return oldSprites.hasNext() ? null : background;
+    }
+    
+    /**
+     * Renders every square of the current map whose sprite is not animated
+     * into a new background layer, recording the positions of the ones that
+     * are, and publishes it in {@link #backgroundLayer}.
+     * 
+     * @return The new background layer
+     */
+    private BackgroundLayer renderBackground() {
+        Square[][] squares = level.getMap();
+        int squareWidth = this.squareWidth;
+        int width = squares.length * squareWidth;
+        int height = squares[0].length * squareWidth;
+        debug("Rendering background layer ("+width+"x"+height+")");
+        
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        BufferedImage image;
+        if (gc != null) {
+            image = gc.createCompatibleImage(width, height);
+        } else {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        List<Sprite> sprites = new ArrayList<Sprite>();
+        for (SquareConfig sc : game.getSquareTypes()) {
+            sprites.add(sc.getSprite());
+        }
+        List<Point> animatedSquares = new ArrayList<Point>();
+        
+        Graphics2D g2 = image.createGraphics();
+        try {
+            g2.setColor(getBackground());
+            g2.fillRect(0, 0, width, height);
+            g2.setFont(getFont());
+            for (int i = 0; i < squares.length; i++) {
+                for (int j = 0; j < squares[0].length; j++) {
+                    Rectangle r = new Rectangle(i*squareWidth, j*squareWidth, squareWidth, squareWidth);
+                    if (squares[i][j] == null) {
+                        g2.setColor(Color.red);
+                        g2.fillRect(r.x, r.y, r.width, r.height);
+                        g2.setColor(Color.white);
+                        g2.drawString("null", r.x, r.y+10);
+                    } else if (squares[i][j].getSprite() instanceof IconSprite) {
+                        squares[i][j].getSprite().paint(g2, r.x, r.y);
+                    } else {
+                        animatedSquares.add(new Point(i, j));
+                    }
+                }
+            }
+        } finally {
+            g2.dispose();
+        }
+        BackgroundLayer background = new BackgroundLayer(image, squares, squareWidth, sprites, animatedSquares);
+        backgroundLayer = background;
+        return background;
+    }
+    
+    /**
+     * The shape of a label's callout box and arrow, and where its text goes,
+     * for a label pointing at (0, 0).  Instances are immutable, and are
+     * shared between frames through {@link #labelGeometryCache}.
+     */
+    private static class LabelGeometry {
+        final Area shape;
+        final double textX;
+        final double textY;
+        
+        LabelGeometry(Area shape, double textX, double textY) {
+            this.shape = shape;
+            this.textX = textX;
+            this.textY = textY;
+        }
+    }
+    
+    /**
+     * Everything a label's geometry depends on: its direction, and the size
+     * of its text in the font it's drawn with.
+     */
+    private static class LabelGeometryKey {
+        final Direction direction;
+        final int textWidth;
+        final int textHeight;
+        final int textAscent;
+        
+        LabelGeometryKey(Direction direction, int textWidth, int textHeight, int textAscent) {
+            this.direction = direction;
+            this.textWidth = textWidth;
+            this.textHeight = textHeight;
+            this.textAscent = textAscent;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof LabelGeometryKey)) return false;
+            LabelGeometryKey other = (LabelGeometryKey) obj;
+            return direction == other.direction &&
+                textWidth == other.textWidth &&
+                textHeight == other.textHeight &&
+                textAscent == other.textAscent;
+        }
+        
+        @Override
+        public int hashCode() {
+            int hash = direction == null ? 0 : direction.hashCode();
+            hash = hash * 31 + textWidth;
+            hash = hash * 31 + textHeight;
+            hash = hash * 31 + textAscent;
+            return hash;
+        }
+    }
+    
+    /**
+     * The most label geometries {@link #labelGeometryCache} will hold before
+     * it is emptied.  A level only has a handful of distinct labels, but the
+     * level editor can produce any number of them while a label is typed in.
+     */
+    private static final int MAX_CACHED_LABEL_GEOMETRIES = 100;
+    
+    /**
+     * Label geometries that have been worked out already.  Building one
+     * involves a geometric union of the box and arrow, which is far too
+     * slow to do for every label on every frame.  The game loop thread uses
+     * it too (through {@link #repaintChangedRegion()}), so access to it is
+     * synchronized on the map itself.
+     */
+    private final Map<LabelGeometryKey, LabelGeometry> labelGeometryCache =
+        new HashMap<LabelGeometryKey, LabelGeometry>();
+    
+    /**
+     * Returns the map position of the centre of the given square.
+     */
+    private static Point2D squareCentre(Point position) {
+        return new Point2D.Float(position.x + 0.5f, position.y + 0.5f);
+    }
+    
+    /**
+     * Returns the screen location of the tip of the arrow of a label
+     * pointing at the given map position.
+     */
+    private Point labelTip(Point2D position) {
+        return new Point(
+                (int) (position.getX() * squareWidth),
+                (int) (position.getY() * squareWidth));
+    }
+    
     /**
      * Draws a label for the centre of the square at the given position.
      */
     private void drawLabel(Graphics2D g2, FontMetrics fm, Labelable labelable, Point position) {
-        drawLabel(g2, fm, labelable, new Point2D.Float(position.x + 0.5f, position.y + 0.5f));
+        drawLabel(g2, fm, labelable, squareCentre(position));
     }
     
     /**
@@ -613,13 +1345,65 @@ public class Playfield extends JPanel {
      * position (3.5*squareWidth, 2.5*squareWidth).
      */
     private void drawLabel(Graphics2D g2, FontMetrics fm, Labelable labelable, Point2D position) {
-        String label = labelable.getLabel();
-        if (label == null) return;
-        int x = (int) (position.getX() * squareWidth);
-        int y = (int) (position.getY() * squareWidth);
+        LabelGeometry geometry = getLabelGeometry(fm, labelable);
+        if (geometry == null) return;
+        Point tip = labelTip(position);
         Composite backupComposite = g2.getComposite();
         g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, labelOpacity));
+        g2.translate(tip.x, tip.y);
         g2.setColor(boxColor);
+        g2.fill(geometry.shape);
+        
+        g2.setColor(labelColor);
+        g2.draw(geometry.shape);
+        g2.translate(-tip.x, -tip.y);
+        g2.drawString(labelable.getLabel(),
+                (int) (tip.x + geometry.textX), (int) (tip.y + geometry.textY));
+        g2.setComposite(backupComposite);
+    }
+    
+    /**
+     * Returns the area that {@link #drawLabel(Graphics2D, FontMetrics, Labelable, Point2D)}
+     * paints for the given label, or an empty rectangle if it has no label.
+     */
+    private Rectangle getLabelBounds(FontMetrics fm, Labelable labelable, Point2D position) {
+        LabelGeometry geometry = getLabelGeometry(fm, labelable);
+        if (geometry == null) return new Rectangle();
+        Point tip = labelTip(position);
+        Rectangle bounds = geometry.shape.getBounds();
+        bounds.translate(tip.x, tip.y);
+        bounds.grow(1, 1);  // the outline is drawn on the edge of the shape
+        return bounds;
+    }
+    
+    /**
+     * Returns the callout shape for the given label pointing at (0, 0) (see
+     * {@link #drawLabel(Graphics2D, FontMetrics, Labelable, Point2D)}), from
+     * the cache if possible.  Returns null if the labelable has no label.
+     */
+    private LabelGeometry getLabelGeometry(FontMetrics fm, Labelable labelable) {
+        String label = labelable.getLabel();
+        if (label == null) return null;
+        LabelGeometryKey key = new LabelGeometryKey(
+                labelable.getLabelDirection(), fm.stringWidth(label), fm.getHeight(), fm.getAscent());
+        synchronized (labelGeometryCache) {
+            LabelGeometry geometry = labelGeometryCache.get(key);
+            if (geometry == null) {
+                if (labelGeometryCache.size() >= MAX_CACHED_LABEL_GEOMETRIES) {
+                    labelGeometryCache.clear();
+                }
+                geometry = createLabelGeometry(key);
+                labelGeometryCache.put(key, geometry);
+            }
+            return geometry;
+        }
+    }
+    
+    /**
+     * Works out the callout shape for a label with the given direction and
+     * text size, pointing at (0, 0).
+     */
+    private static LabelGeometry createLabelGeometry(LabelGeometryKey key) {
         GeneralPath arrowPath = new GeneralPath();
         
         final int arrowLength = 10;  // the distance from the tip of the arrow to its base
@@ -636,71 +1420,59 @@ public class Playfield extends JPanel {
         Area arrowBox = new Area(arrowPath);
         
         Dimension boxSize = new Dimension(
-                fm.stringWidth(label) + fm.getHeight()*2,
-                fm.getHeight()*2);
+                key.textWidth + key.textHeight*2,
+                key.textHeight*2);
         RoundRectangle2D.Double box = 
             new RoundRectangle2D.Double(0, 0, boxSize.width, boxSize.height, 4, 4);
         
         // three cases: corner, top/bottom, left/right
-        Direction dir = labelable.getLabelDirection();
+        Direction dir = key.direction;
         if (dir == Direction.EAST) {
             arrowBox.transform(AffineTransform.getRotateInstance(-Math.PI / 2.0));
-            arrowBox.transform(AffineTransform.getTranslateInstance(x, y));
-            box.x = x + arrowLength;
-            box.y = y - box.height / 2;
+            box.x = arrowLength;
+            box.y = -box.height / 2;
             arrowBox.add(new Area(box));
         } else if (dir == Direction.WEST) {
             arrowBox.transform(AffineTransform.getRotateInstance(Math.PI / 2.0));
-            arrowBox.transform(AffineTransform.getTranslateInstance(x, y));
-            box.x = x - arrowLength - box.width;
-            box.y = y - box.height / 2;
+            box.x = -arrowLength - box.width;
+            box.y = -box.height / 2;
             arrowBox.add(new Area(box));
         } else if (dir == Direction.NORTH) {
             arrowBox.transform(AffineTransform.getRotateInstance(Math.PI));
-            arrowBox.transform(AffineTransform.getTranslateInstance(x, y));
-            box.x = x - box.width / 2;
-            box.y = y - box.height - arrowLength;
+            box.x = -box.width / 2;
+            box.y = -box.height - arrowLength;
             arrowBox.add(new Area(box));
         } else if (dir == Direction.SOUTH) {
             arrowBox.transform(AffineTransform.getRotateInstance(0.0));
-            arrowBox.transform(AffineTransform.getTranslateInstance(x, y));
-            box.x = x - box.width / 2;
-            box.y = y + arrowLength;
+            box.x = -box.width / 2;
+            box.y = arrowLength;
             arrowBox.add(new Area(box));
         } else if (dir == Direction.NORTHEAST) {
             arrowBox.transform(AffineTransform.getRotateInstance(-3.0 * Math.PI / 4.0));
-            arrowBox.transform(AffineTransform.getTranslateInstance(x, y));
-            box.x = x + arrowLength/3;
-            box.y = y - box.height - arrowLength/3;
+            box.x = arrowLength/3;
+            box.y = -box.height - arrowLength/3;
             arrowBox.add(new Area(box));
         } else if (dir == Direction.SOUTHEAST) {
             arrowBox.transform(AffineTransform.getRotateInstance(-Math.PI / 4.0));
-            arrowBox.transform(AffineTransform.getTranslateInstance(x, y));
-            box.x = x + arrowLength/3;
-            box.y = y + arrowLength/3;
+            box.x = arrowLength/3;
+            box.y = arrowLength/3;
             arrowBox.add(new Area(box));
         } else if (dir == Direction.NORTHWEST) {
             arrowBox.transform(AffineTransform.getRotateInstance(3.0 * Math.PI / 4.0));
-            arrowBox.transform(AffineTransform.getTranslateInstance(x, y));
-            box.x = x - box.width - arrowLength/3;
-            box.y = y - box.height - arrowLength/3;
+            box.x = -box.width - arrowLength/3;
+            box.y = -box.height - arrowLength/3;
             arrowBox.add(new Area(box));
         } else if (dir == Direction.SOUTHWEST) {
             arrowBox.transform(AffineTransform.getRotateInstance(Math.PI / 4.0));
-            arrowBox.transform(AffineTransform.getTranslateInstance(x, y));
-            box.x = x - box.width - arrowLength/3;
-            box.y = y + arrowLength/3;
+            box.x = -box.width - arrowLength/3;
+            box.y = arrowLength/3;
             arrowBox.add(new Area(box));
         } else {
             throw new IllegalStateException("Unknown label direction "+dir);
         }
         
-        g2.fill(arrowBox);
-        
-        g2.setColor(labelColor);
-        g2.draw(arrowBox);
-        g2.drawString(label, (int) (box.x + fm.getHeight()), (int) (box.y + fm.getHeight()/2 + fm.getAscent()));
-        g2.setComposite(backupComposite);
+        return new LabelGeometry(arrowBox,
+                box.x + key.textHeight, box.y + key.textHeight/2 + key.textAscent);
     }
     
     public Dimension getPreferredSize() {
@@ -764,6 +1536,7 @@ public class Playfield extends JPanel {
     
     public void setLabellingOn(boolean labellingOn) {
         this.labellingOn = labellingOn;
+        repaintManager.wake(false);
     }
     
     /**
@@ -779,43 +1552,86 @@ public class Playfield extends JPanel {
      */
     public void setAsyncRepaint(boolean asyncRepaint) {
         repaintManager.setEnabled(asyncRepaint);
+        if (asyncRepaint) {
+            publishedFrame.set(null);
+        }
     }
 
     private AsyncRepaintManager repaintManager = new AsyncRepaintManager(frameDelay);
     
-    private class AsyncRepaintManager implements ActionListener, AncestorListener {
+    /**
+     * Drives the asynchronous repaints from the {@link AnimationClock}.  It
+     * only keeps ticking while something on the playfield is actually
+     * animating (see {@link Playfield#isAnimating()}), and has to be woken
+     * up again with {@link #wake(boolean)} when something changes that might
+     * start an animation.
+     */
+    private class AsyncRepaintManager implements AnimationClock.Animation, AncestorListener {
         private boolean enabled = true;
-        private final Timer timer;
+        private final int delay;
+        
+        /**
+         * When true, the next tick will do a frame even if nothing seems to be
+         * animating, so that changes made outside of nextFrame() (for instance
+         * a robot that stopped moving) get picked up.
+         */
+        private boolean forceFrame;
         
         AsyncRepaintManager(int delay) {
+            this.delay = delay;
             Playfield.this.addAncestorListener(this);
-            timer = new Timer(delay, this);
-            timer.start();
+            wake(true);
         }
 
         public synchronized void setEnabled(boolean enabled) {
             this.enabled = enabled;
+            if (enabled) {
+                wake(true);
+            } else {
+                AnimationClock.stop(this);
+            }
         }
         
-        public synchronized void actionPerformed(ActionEvent e) {
-            if (enabled) {
-                debug("===="+System.identityHashCode(Playfield.this)+" Async Next Frame");
-                nextFrame(false);
-                repaint();
+        /**
+         * Starts ticking again if this manager is enabled and there is
+         * anything to animate.
+         * 
+         * @param force If true, ticks at least once even if nothing is animating.
+         */
+        public synchronized void wake(boolean force) {
+            if (!enabled) return;
+            if (force) {
+                forceFrame = true;
+            } else if (!isAnimating()) {
+                return;
+            }
+            AnimationClock.start(this, delay);
+        }
+        
+        public synchronized boolean tick() {
+            if (!enabled || level == null) return false;
+            if (!forceFrame && !isAnimating()) {
+                debug("===="+System.identityHashCode(Playfield.this)+" Nothing to animate");
+                return false;
             }
+            forceFrame = false;
+            debug("===="+System.identityHashCode(Playfield.this)+" Async Next Frame");
+            nextFrame(false);
+            repaintChangedRegion();
+            return true;
         }
 
         
         // AncestorListener implementation:
-        //  kills the timer when this component goes away
-        //  and reactivates it when this component is reattached
+        //  stops ticking when this component goes away
+        //  and starts again when this component is reattached
 
         public void ancestorAdded(AncestorEvent event) {
-            if (!timer.isRunning()) timer.start();
+            wake(true);
         }
 
         public void ancestorRemoved(AncestorEvent event) {
-            timer.stop();
+            AnimationClock.stop(this);
         }
 
         public void ancestorMoved(AncestorEvent event) {
@@ -845,6 +1661,17 @@ public class Playfield extends JPanel {
 
     public void setDescriptionOn(boolean v) {
         this.descriptionOn = v;
+        repaintManager.wake(false);
+    }
+
+    /**
+     * Skips to the end of any label or description fade in progress, so the
+     * next frame shows them fully on or fully off.
+     */
+    public void finishFades() {
+        labelOpacity = labellingOn ? 1.0f : 0.0f;
+        descriptionOpacity = descriptionOn ? 1.0f : 0.0f;
+        repaintManager.wake(false);
     }
 
     public boolean isClickToToggleDescription() {
@@ -863,6 +1690,7 @@ public class Playfield extends JPanel {
     private void switchToPrevPage() {
         if (getDescriptionPageNumber() > 0) {
             descriptionPageNumber--;
+            repaint();
         }
     }
 
@@ -874,6 +1702,7 @@ public class Playfield extends JPanel {
     private void switchToNextPage() {
         if ( (getDescriptionPageNumber() + 1) < level.getDescriptionPages().size()) {
             descriptionPageNumber++;
+            repaint();
         }
     }
 }
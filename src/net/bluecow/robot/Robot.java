@@ -36,6 +36,8 @@ import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.Point2D;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -64,10 +66,10 @@ public class Robot implements Labelable {
         if (debugOn) System.out.format(fmt, args);
     }
     
-    private static final int MOVING_UP = 1 << 0;
-    private static final int MOVING_DOWN = 1 << 1;
-    private static final int MOVING_LEFT = 1 << 2;
-    private static final int MOVING_RIGHT = 1 << 3;
+    public static final int MOVING_UP = 1 << 0;
+    public static final int MOVING_DOWN = 1 << 1;
+    public static final int MOVING_LEFT = 1 << 2;
+    public static final int MOVING_RIGHT = 1 << 3;
 	
     /**
      * A bitmask of the directions this robot is currently moving.
@@ -136,6 +138,14 @@ public class Robot implements Labelable {
      */
     private double initialHeading;
     
+    /**
+     * Reports changes to the properties of this robot that show on the
+     * playfield while the game isn't running: its label, sprite, starting
+     * position and initial heading.  The current position and heading change
+     * on every step of the game, so they are not reported.
+     */
+    private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+    
     private static final Dimension DEFAULT_GATE_SIZE = new Dimension(22,20);
 	
     /**
@@ -245,21 +255,18 @@ public class Robot implements Labelable {
     public void move() {
         int direction = 0;
 	    if (upInput.getState() == true) {
-	        moveUp();
             direction |= MOVING_UP;
 	    }
 	    if (downInput.getState() == true) {
-	        moveDown();
             direction |= MOVING_DOWN;
 	    }
 	    if (leftInput.getState() == true) {
-	        moveLeft();
             direction |= MOVING_LEFT;
 	    }
 	    if (rightInput.getState() == true) {
-	        moveRight();
             direction |= MOVING_RIGHT;
 	    }
+        move(level, position, stepSize, direction);
         
         if (direction == movingDirection) {
             movingFrame++;
@@ -281,21 +288,41 @@ public class Robot implements Labelable {
         }
 	}
 	
-	private void moveLeft() {
+    /**
+     * Applies the game's movement rules to the given position: for each
+     * direction in the bitmask (up, down, left, then right), the position is
+     * moved one step in that direction unless the map edge or an unoccupiable
+     * square is in the way.  This is the same rule {@link #move()} uses, and
+     * is exposed so that tools can explore movement without a circuit.
+     * 
+     * @param level The level whose map to move around on
+     * @param position The position to update in place
+     * @param stepSize The distance of one step
+     * @param direction A bitmask of <tt>MOVING_UP</tt>, <tt>MOVING_DOWN</tt>,
+     * <tt>MOVING_LEFT</tt> and <tt>MOVING_RIGHT</tt>
+     */
+    public static void move(LevelConfig level, Point2D.Float position, float stepSize, int direction) {
+        if ((direction & MOVING_UP) != 0) moveUp(level, position, stepSize);
+        if ((direction & MOVING_DOWN) != 0) moveDown(level, position, stepSize);
+        if ((direction & MOVING_LEFT) != 0) moveLeft(level, position, stepSize);
+        if ((direction & MOVING_RIGHT) != 0) moveRight(level, position, stepSize);
+    }
+    
+	private static void moveLeft(LevelConfig level, Point2D.Float position, float stepSize) {
 		if (position.x > 0
 				&& level.getSquare(position.x-stepSize, position.y).isOccupiable()) {
 			position.x -= stepSize;
 		}
 	}
 	
-	private void moveRight() {
+	private static void moveRight(LevelConfig level, Point2D.Float position, float stepSize) {
 		if (position.x < level.getWidth()
 				&& level.getSquare(position.x+stepSize, position.y).isOccupiable()) {
 			position.x += stepSize;
 		}
 	}
 	
-	private void moveDown() {
+	private static void moveDown(LevelConfig level, Point2D.Float position, float stepSize) {
         boolean atBottom = position.y >= level.getHeight();
         boolean obstacleInTheWay = !level.getSquare(position.x, position.y+stepSize).isOccupiable();
         if ( (!atBottom)	&& (!obstacleInTheWay)) {
@@ -303,7 +330,7 @@ public class Robot implements Labelable {
 		}
 	}
 	
-	private void moveUp() {
+	private static void moveUp(LevelConfig level, Point2D.Float position, float stepSize) {
 		if (position.y > 0
 				&& level.getSquare(position.x, position.y-stepSize).isOccupiable()) {
 			position.y -= stepSize;
@@ -602,8 +629,10 @@ public class Robot implements Labelable {
     }
     
     public void setLabel(String l) {
+        String oldLabel = labelText;
         circuit.setName(l);
         labelText = l;
+        pcs.firePropertyChange("label", oldLabel, l);
     }
 
     public Direction getLabelDirection() {
@@ -611,7 +640,9 @@ public class Robot implements Labelable {
     }
 
     public void setLabelDirection(Direction labelDirection) {
+        Direction oldDirection = this.labelDirection;
         this.labelDirection = labelDirection;
+        pcs.firePropertyChange("labelDirection", oldDirection, labelDirection);
     }
 
     public boolean isLabelEnabled() {
@@ -619,7 +650,9 @@ public class Robot implements Labelable {
     }
 
     public void setLabelEnabled(boolean labelEnabled) {
+        boolean oldEnabled = this.labelEnabled;
         this.labelEnabled = labelEnabled;
+        pcs.firePropertyChange("labelEnabled", oldEnabled, labelEnabled);
     }
 
     public String getId() {
@@ -635,7 +668,9 @@ public class Robot implements Labelable {
 	}
 
     public void setSprite(Sprite sprite) {
+        Sprite oldSprite = this.sprite;
         this.sprite = sprite;
+        pcs.firePropertyChange("sprite", oldSprite, sprite);
     }
 
     /**
@@ -669,7 +704,9 @@ public class Robot implements Labelable {
      * <p>This method is final because it is called from the constructor.
      */
     public final void setStartPosition(Point2D position) {
+        Point2D.Float oldPosition = startPosition;
         this.startPosition = new Point2D.Float((float) position.getX(), (float) position.getY());
+        pcs.firePropertyChange("startPosition", oldPosition, startPosition);
         debugf("Set start position of %s: (%2.1f,%2.1f)\n",
                 getId(), startPosition.getX(), startPosition.getY());
     }
@@ -685,8 +722,10 @@ public class Robot implements Labelable {
      * direction.
      */
     public void setInitialHeading(double initialHeadingRadians) {
+        double oldHeading = this.initialHeading;
         this.initialHeading = initialHeadingRadians;
         this.prevHeading = initialHeadingRadians;
+        pcs.firePropertyChange("initialHeading", oldHeading, initialHeadingRadians);
     }
 
     /**
@@ -812,4 +851,12 @@ public class Robot implements Labelable {
     public void setStepSize(float stepSize) {
         this.stepSize = stepSize;
     }
+    
+    public void addPropertyChangeListener(PropertyChangeListener l) {
+        pcs.addPropertyChangeListener(l);
+    }
+    
+    public void removePropertyChangeListener(PropertyChangeListener l) {
+        pcs.removePropertyChangeListener(l);
+    }
 }
@@ -34,15 +34,19 @@
 
 package net.bluecow.robot.ant;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.List;
 
 import net.bluecow.robot.resource.PreListedResourceLoader;
 import net.bluecow.robot.resource.RegexResourceNameFilter;
+import net.bluecow.robot.resource.ResourceListIndex;
 import net.bluecow.robot.resource.ResourceNameFilter;
 import net.bluecow.robot.resource.ResourceUtils;
 
@@ -51,7 +55,9 @@ import org.apache.tools.ant.Task;
 
 /**
  * An Ant task that creates a resource listing file suitable for use with
- * the {@link PreListedResourceLoader}.
+ * the {@link PreListedResourceLoader}.  By default the listing is written
+ * as a binary {@link ResourceListIndex}; set the <code>binary</code>
+ * attribute to false to get the older text format (one path per line).
  *
  * @author fuerth
  * @version $Id:$
@@ -79,6 +85,12 @@ public class ResourceListTask extends Task {
      */
     private String filterOut = "(.*/|).svn/.*";
     
+    /**
+     * Whether to write the listing as a binary {@link ResourceListIndex}
+     * (true) or as plain text (false).
+     */
+    private boolean binary = true;
+    
     @Override
     public void execute() throws BuildException {
         if (targetFile == null) throw new BuildException("You have to specify a target file");
@@ -92,12 +104,21 @@ public class ResourceListTask extends Task {
         try {
             File dir = new File(baseDir);
             List<String> resources = ResourceUtils.recursiveListResources(dir, filter);
-            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(targetFile)));
-            for (String resource : resources) {
-                out.println(resource);
+            if (binary) {
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFile));
+                try {
+                    ResourceListIndex.write(resources, out);
+                } finally {
+                    out.close();
+                }
+            } else {
+                PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(targetFile)));
+                for (String resource : resources) {
+                    out.println(resource);
+                }
+                out.flush();
+                out.close();
             }
-            out.flush();
-            out.close();
         } catch (IOException ex) {
             throw new BuildException(ex);
         }
@@ -118,5 +139,13 @@ public class ResourceListTask extends Task {
     public void setTargetFile(String targetFile) {
         this.targetFile = targetFile;
     }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
     
 }
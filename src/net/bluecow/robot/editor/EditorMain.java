@@ -124,6 +124,7 @@ import net.bluecow.robot.GameConfig.SquareConfig;
 import net.bluecow.robot.LevelConfig.Switch;
 import net.bluecow.robot.editor.resource.ResourcesComboBoxModel;
 import net.bluecow.robot.gate.Gate;
+import net.bluecow.robot.resource.DirectoryResourceManager;
 import net.bluecow.robot.sound.SoundManager;
 import net.bluecow.robot.sound.SoundManagerEntry;
 import net.bluecow.robot.sprite.Sprite;
@@ -1447,9 +1448,58 @@ public class EditorMain {
             }
         }
 
+        if (project.getProjectResourceManager() instanceof DirectoryResourceManager) {
+            project.getProjectResourceManager().addResourceManagerListener(
+                    new ResourceReloader(project, frame) {
+                        @Override
+                        protected void mapChanged() {
+                            reloadProject();
+                        }
+                        @Override
+                        protected void levelReloaded(LevelConfig oldLevel, LevelConfig newLevel) {
+                            if (oldLevel != null && levelChooser.getSelectedItem() == oldLevel) {
+                                levelChooser.setSelectedItem(null);
+                                if (newLevel != null) {
+                                    levelChooser.setSelectedItem(newLevel);
+                                } else if (levelChooser.getItemCount() > 0) {
+                                    levelChooser.setSelectedIndex(0);
+                                }
+                            }
+                        }
+                    });
+        }
+        
         frame.setVisible(true);
     }
 
+    /**
+     * Offers to reopen the project after its level map has been changed by
+     * another program.
+     */
+    private void reloadProject() {
+        int choice = JOptionPane.showOptionDialog(
+                frame,
+                "The level map was changed outside the editor, and the changes\n" +
+                "can't be merged with the project that is open.\n" +
+                "Reload the project? You will lose any unsaved changes.",
+                "Level map changed", 0, JOptionPane.QUESTION_MESSAGE, null,
+                new String[] {"Reload", "Keep Working"}, "Reload");
+        if (choice != 0) return;
+        
+        File location = project.getFileLocation();
+        project.close();
+        frame.dispose();
+        try {
+            new EditorMain(Project.load(location));
+        } catch (FileFormatException ex) {
+            RobotUtils.showFileFormatException(ex);
+            presentWelcomeMenu();
+        } catch (IOException ex) {
+            showException(null, "Couldn't reload the project", ex);
+            presentWelcomeMenu();
+        }
+    }
+
     /**
      * Creates a panel with any number of buttons in a centered FlowLayout. The
      * first action will be in a button on the left, and subsequent actions will
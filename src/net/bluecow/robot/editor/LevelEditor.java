@@ -135,6 +135,7 @@ public class LevelEditor extends Playfield {
     private MouseAdapter mouseAdapter = new MouseAdapter() {
         @Override
         public void mouseExited(MouseEvent e) {
+            repaintSquare(paintingLocation);
             paintingLocation = null;
         }
         
@@ -219,6 +220,9 @@ public class LevelEditor extends Playfield {
         } else if (repositioningSprite instanceof Robot) {
             ((Robot) repositioningSprite).setPosition(p);
         }
+        
+        // the async repaint manager is idle while nothing is animating
+        repaintChangedRegion();
     }
     
     /**
@@ -257,6 +261,7 @@ public class LevelEditor extends Playfield {
      * reported by mouse events and mouse motion events).
      */
     private void updatePaintingLocation(Point p) {
+        Point oldLocation = paintingLocation;
         double x = p.getX();
         double y = p.getY();
         double squareWidth = getSquareWidth();
@@ -268,6 +273,25 @@ public class LevelEditor extends Playfield {
             paintingLocationDouble = new Point2D.Double(x / squareWidth, y / squareWidth);
             paintingLocation = new Point((int) (x / squareWidth), (int) (y / squareWidth));
         }
+        if (oldLocation == null ? paintingLocation != null : !oldLocation.equals(paintingLocation)) {
+            repaintSquare(oldLocation);
+            repaintSquare(paintingLocation);
+        }
+    }
+    
+    /**
+     * Repaints the square at the given map position, including the outline
+     * paintComponent() draws around the square under the mouse pointer.
+     * The playfield only repaints the parts of itself it knows have changed,
+     * so this has to be called whenever that outline moves.
+     * 
+     * @param p The square to repaint.  If null, nothing happens.
+     */
+    private void repaintSquare(Point p) {
+        if (p != null) {
+            int sw = getSquareWidth();
+            repaint(p.x * sw - 2, p.y * sw - 2, sw + 4, sw + 4);
+        }
     }
     
     /**
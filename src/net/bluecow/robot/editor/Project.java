@@ -107,6 +107,12 @@ public class Project {
      */
     private static final String NEW_PROJECT_RESOURCES_PREFIX = "new_project/";
 
+    /**
+     * How often (in milliseconds) a project directory is checked for changes
+     * made outside the editor.
+     */
+    private static final long DIRECTORY_WATCH_INTERVAL = 1000;
+
     private static final boolean debugOn = false;
 
     private static void debug(String msg) {
@@ -202,7 +208,9 @@ public class Project {
         
         ResourceManager projResources;
         if (jarOrDir.isDirectory()) {
-            projResources = new DirectoryResourceManager(jarOrDir);
+            DirectoryResourceManager drm = new DirectoryResourceManager(jarOrDir);
+            drm.startWatching(DIRECTORY_WATCH_INTERVAL);
+            projResources = drm;
         } else {
             projResources = new JarResourceManager(jarOrDir);
         }
@@ -248,9 +256,20 @@ public class Project {
     }
     
 
+    /**
+     * Returns the resource manager that holds this project's own resources
+     * (as opposed to the built-in resources every project can use). If the
+     * project is a directory, this resource manager reports changes made to
+     * the directory by other programs.
+     */
+    public ResourceManager getProjectResourceManager() {
+        return ((CompoundResourceManager) getResourceManager()).getPrimary();
+    }
+    
     /**
      * Saves this project by bundling all its resources into a single JAR file.
-     * Also updates the {@link #fileLocation} property if applicable.
+     * Resources with identical contents are only stored once in the JAR (see
+     * {@link net.bluecow.robot.resource.ContentIndex}).  Also updates the {@link #fileLocation} property if applicable.
      * 
      * FIXME there should be a variant that preens the resource set a little bit: remove
      * old map backups, remove example solutions (when we get that working),
@@ -282,7 +301,7 @@ public class Project {
         } else {
             throw new IllegalStateException("The project's resource manager is not what it used to be!");
         }
-        ResourceUtils.createResourceJar(saveThisOne, location);
+        ResourceUtils.createResourceJar(saveThisOne, location, true);
         fileLocation = location;
     }
     
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.editor;
+
+import java.awt.Component;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import net.bluecow.robot.FileFormatException;
+import net.bluecow.robot.GameConfig;
+import net.bluecow.robot.LevelConfig;
+import net.bluecow.robot.LevelStore;
+import net.bluecow.robot.Robot;
+import net.bluecow.robot.GameConfig.SquareConfig;
+import net.bluecow.robot.LevelConfig.Switch;
+import net.bluecow.robot.Square;
+import net.bluecow.robot.resource.ResourceLoader;
+import net.bluecow.robot.resource.ResourceUtils;
+import net.bluecow.robot.resource.event.ResourceManagerEvent;
+import net.bluecow.robot.resource.event.ResourceManagerListener;
+import net.bluecow.robot.sound.SoundManager;
+import net.bluecow.robot.sound.SoundManagerEntry;
+import net.bluecow.robot.sprite.Sprite;
+import net.bluecow.robot.sprite.SpriteLoadException;
+import net.bluecow.robot.sprite.SpriteManager;
+
+/**
+ * Brings a project's loaded resources up to date when the files behind them
+ * are changed outside the editor.  Register it with a resource manager that
+ * reports outside changes (see
+ * {@link net.bluecow.robot.resource.DirectoryResourceManager#startWatching(long)}).
+ * <p>
+ * For each resource that is added or changed, only the things made from it
+ * are reloaded: the sprites of square types, robots and switches whose
+ * graphics come from it, and the sound manager entries that play it.  The
+ * cached copies of the resource are discarded as well.
+ * <p>
+ * When the level map changes, it is parsed again and only the levels that
+ * are different in the file are replaced in the open game config (see
+ * {@link #levelReloaded(LevelConfig, LevelConfig)}).  Levels that were only
+ * changed in the editor are left alone.  If the square, sensor, gate or
+ * sound types changed, or a level was changed both in the file and in the
+ * editor, the levels can't be merged, and the change is passed on to
+ * {@link #mapChanged()} instead.
+ * <p>
+ * Events may arrive on any thread; the reloading is always done on the
+ * Swing event dispatch thread.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class ResourceReloader implements ResourceManagerListener {
+
+    /**
+     * Controls the debugging features of this class.
+     */
+    private static final boolean debugOn = false;
+
+    /**
+     * Prints the given message to System.out if debugOn is true.
+     */
+    private static void debug(String msg) {
+        if (debugOn) System.out.println(msg);
+    }
+
+    private final Project project;
+
+    /**
+     * The component to repaint after sprites have been reloaded.
+     */
+    private final Component view;
+
+    /**
+     * The level elements of the level map as they were when it was last
+     * read, in the format written by
+     * {@link LevelStore#saveLevel(java.io.Writer, GameConfig, LevelConfig)}.
+     * Used to tell which levels changed in the file and which were changed
+     * in the editor.
+     */
+    private List<String> loadedLevels;
+
+    /**
+     * @param project The project whose resources should be kept up to date
+     * @param view The component that shows the project's sprites. It will be
+     * repainted whenever sprites are reloaded.
+     */
+    public ResourceReloader(Project project, Component view) {
+        this.project = project;
+        this.view = view;
+        this.loadedLevels = describeLevels(project.getGameConfig());
+    }
+
+    public void resourceAdded(ResourceManagerEvent event) {
+        scheduleReload(event);
+    }
+
+    public void resourceChanged(ResourceManagerEvent event) {
+        scheduleReload(event);
+    }
+
+    public void resourceRemoved(ResourceManagerEvent event) {
+        final String path = pathOf(event);
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                invalidateCaches(path);
+            }
+        });
+    }
+
+    /**
+     * Called on the event dispatch thread when the project's level map has
+     * been changed outside the editor in a way that can't be merged into the
+     * open game config.  This implementation does nothing.
+     */
+    protected void mapChanged() {
+        // subclasses decide what to do
+    }
+
+    /**
+     * Called on the event dispatch thread after a level of the open game
+     * config has been replaced because it was changed outside the editor.
+     * This implementation does nothing.
+     *
+     * @param oldLevel The level that was replaced, or null if the level was added
+     * @param newLevel The level that replaced it, or null if the level was removed
+     */
+    protected void levelReloaded(LevelConfig oldLevel, LevelConfig newLevel) {
+        // subclasses decide what to do
+    }
+
+    private void scheduleReload(ResourceManagerEvent event) {
+        final String path = pathOf(event);
+        if (path.endsWith("/")) return;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                reload(path);
+            }
+        });
+    }
+
+    /**
+     * Returns the full resource path of the resource an event is about.
+     */
+    private static String pathOf(ResourceManagerEvent event) {
+        String parent = event.getParentPath();
+        return parent.equals("/") ? event.getChildName() : parent + event.getChildName();
+    }
+
+    private void invalidateCaches(String path) {
+        SpriteManager.invalidateCache(project.getResourceManager(), path);
+        ResourceUtils.invalidateResourceURLCache(path);
+    }
+
+    /**
+     * Reloads everything in the project that was made from the given resource.
+     */
+    private void reload(String path) {
+        debug("Reloading things made from "+path);
+        invalidateCaches(path);
+        if (path.equals(LevelStore.DEFAULT_MAP_RESOURCE_PATH)) {
+            reloadLevels();
+            return;
+        }
+
+        GameConfig gc = project.getGameConfig();
+        ResourceLoader loader = gc.getResourceLoader();
+        boolean spritesChanged = false;
+        for (SquareConfig sc : gc.getSquareTypes()) {
+            Sprite s = reloadSprite(loader, sc.getSprite(), path);
+            if (s != null) {
+                sc.setSprite(s);
+                spritesChanged = true;
+            }
+        }
+        for (LevelConfig level : gc.getLevels()) {
+            for (Robot robot : level.getRobots()) {
+                Sprite s = reloadSprite(loader, robot.getSprite(), path);
+                if (s != null) {
+                    robot.setSprite(s);
+                    spritesChanged = true;
+                }
+            }
+            for (Switch sw : level.getSwitches()) {
+                Sprite s = reloadSprite(loader, sw.getSprite(), path);
+                if (s != null) {
+                    sw.setSprite(s);
+                    spritesChanged = true;
+                }
+            }
+        }
+        if (spritesChanged) {
+            view.repaint();
+        }
+
+        SoundManager sm = gc.getSoundManager();
+        List<String> soundIds = new ArrayList<String>();
+        for (SoundManagerEntry sme : sm.getClips()) {
+            if (path.equals(sme.getPath())) {
+                soundIds.add(sme.getId());
+            }
+        }
+        for (String id : soundIds) {
+            try {
+                sm.reloadEntry(id);
+            } catch (RuntimeException ex) {
+                EditorMain.showException(view, "Couldn't reload sound "+id, ex);
+            }
+        }
+    }
+
+    /**
+     * Reads the level map again and replaces the levels that changed in it.
+     */
+    private void reloadLevels() {
+        GameConfig gc = project.getGameConfig();
+        GameConfig fresh;
+        try {
+            fresh = LevelStore.loadLevels(
+                    gc.getResourceLoader(), LevelStore.DEFAULT_MAP_RESOURCE_PATH,
+                    false, new ArrayList<FileFormatException>());
+        } catch (IOException ex) {
+            // the file may still be half-written; the next change will retry
+            debug("Couldn't reload level map: "+ex);
+            return;
+        }
+        
+        if (!describeTypes(gc).equals(describeTypes(fresh))) {
+            debug("Square, sensor, gate or sound types changed");
+            mapChanged();
+            return;
+        }
+        
+        List<LevelConfig> levels = new ArrayList<LevelConfig>(gc.getLevels());
+        List<LevelConfig> freshLevels = fresh.getLevels();
+        List<String> current = describeLevels(gc);
+        List<String> reloaded = describeLevels(fresh);
+        
+        // the levels are matched up by position, which only works if the
+        // editor hasn't added or removed any
+        if (current.size() != loadedLevels.size()) {
+            debug("Levels were added or removed in the editor");
+            mapChanged();
+            return;
+        }
+        for (int i = 0; i < current.size(); i++) {
+            String file = i < reloaded.size() ? reloaded.get(i) : null;
+            boolean changedInFile = !loadedLevels.get(i).equals(file);
+            boolean changedHere = !loadedLevels.get(i).equals(current.get(i));
+            if (changedInFile && changedHere && !current.get(i).equals(file)) {
+                debug("Level "+i+" was changed in the file and in the editor");
+                mapChanged();
+                return;
+            }
+        }
+        
+        for (int i = 0; i < Math.max(levels.size(), freshLevels.size()); i++) {
+            LevelConfig oldLevel = i < levels.size() ? levels.get(i) : null;
+            LevelConfig newLevel = i < freshLevels.size() ? freshLevels.get(i) : null;
+            if (oldLevel != null && newLevel != null &&
+                    (loadedLevels.get(i).equals(reloaded.get(i)) || current.get(i).equals(reloaded.get(i)))) {
+                continue;
+            }
+            debug("Reloading level "+i);
+            if (oldLevel != null) {
+                gc.removeLevel(oldLevel);
+            }
+            if (newLevel != null) {
+                newLevel.setMap(adoptSquares(gc, newLevel.getMap()));
+                gc.addLevel(Math.min(i, gc.getLevels().size()), newLevel);
+            }
+            levelReloaded(oldLevel, newLevel);
+        }
+        loadedLevels = reloaded;
+    }
+
+    /**
+     * Returns a copy of the given map whose squares are the given game
+     * config's square types with the same map characters.
+     */
+    private static Square[][] adoptSquares(GameConfig gc, Square[][] map) {
+        Square[][] adopted = new Square[map.length][];
+        for (int x = 0; x < map.length; x++) {
+            adopted[x] = new Square[map[x].length];
+            for (int y = 0; y < map[x].length; y++) {
+                adopted[x][y] = gc.getSquare(map[x][y].getMapChar());
+            }
+        }
+        return adopted;
+    }
+
+    /**
+     * Returns the sound, sensor, gate and square types of the given game
+     * config as text, so two configs' types can be compared.  Sound endings
+     * aren't included, since they aren't loaded when audio is disabled.
+     */
+    private static String describeTypes(GameConfig gc) {
+        StringWriter out = new StringWriter();
+        for (SoundManagerEntry sme : gc.getSoundManager().getClips()) {
+            out.write(sme.getId()+" "+sme.getType()+" "+sme.getPath()+"\n");
+        }
+        try {
+            LevelStore.saveTypes(out, gc);
+        } catch (IOException ex) {
+            throw new RuntimeException("Writing to a string failed", ex);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Returns every level of the given game config as text, so levels from
+     * two configs can be compared.
+     */
+    private static List<String> describeLevels(GameConfig gc) {
+        List<String> levels = new ArrayList<String>();
+        for (LevelConfig level : gc.getLevels()) {
+            StringWriter out = new StringWriter();
+            try {
+                LevelStore.saveLevel(out, gc, level);
+            } catch (IOException ex) {
+                throw new RuntimeException("Writing to a string failed", ex);
+            }
+            levels.add(out.toString());
+        }
+        return levels;
+    }
+
+    /**
+     * Returns a fresh copy of the given sprite if it was made from the given
+     * resource, or null if it wasn't (or couldn't be reloaded).
+     */
+    private Sprite reloadSprite(ResourceLoader loader, Sprite sprite, String path) {
+        if (sprite == null) return null;
+        String href = sprite.getAttributes().get(Sprite.KEY_HREF);
+        if (href == null) return null;
+        String dir = path.substring(0, path.lastIndexOf('/') + 1);
+        boolean affected = href.equals(path) ||
+            (href.endsWith(".rsf") && href.startsWith(dir) && href.indexOf('/', dir.length()) < 0);
+        if (!affected) return null;
+        try {
+            return SpriteManager.load(loader, sprite.getAttributes());
+        } catch (SpriteLoadException ex) {
+            // the file may still be half-written; the next change will retry
+            debug("Couldn't reload sprite "+href+": "+ex);
+            return null;
+        }
+    }
+}
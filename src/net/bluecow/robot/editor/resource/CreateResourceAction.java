@@ -50,6 +50,8 @@ import javax.swing.JFileChooser;
 
 import net.bluecow.robot.RobotUtils;
 import net.bluecow.robot.resource.ResourceManager;
+import net.bluecow.robot.resource.ResourceUtils;
+import net.bluecow.robot.sprite.SpriteManager;
 
 /**
  * A GUI action for creating a new resource. When invoked, prompts the user for
@@ -110,6 +112,9 @@ public class CreateResourceAction extends ResourceEditorAction {
                 try { out.flush(); } catch (IOException ex) { ex.printStackTrace(); }
                 try { out.close(); } catch (IOException ex) { ex.printStackTrace(); }
             }
+            // the new resource may have replaced an image that sprites or level descriptions use
+            SpriteManager.invalidateCache(resourceManager);
+            ResourceUtils.invalidateResourceURLCache();
         }
     }
 
@@ -151,6 +151,17 @@ public abstract class AbstractEffect implements Effect {
      */
     public abstract boolean isFinished();
     
+    /**
+     * Called once this effect has finished and been removed from whatever
+     * was painting it.  Effects that borrow pooled resources (such as a
+     * {@link ParticleSystem}) give them back here.  It is called on the thread
+     * that painted this effect, so it can't pull resources out from under a
+     * paint in progress.  This implementation does nothing.
+     */
+    public void release() {
+        // nothing to release
+    }
+    
     /**
      * Not currently implemented.
      */
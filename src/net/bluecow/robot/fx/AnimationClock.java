@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.fx;
+
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.Timer;
+
+/**
+ * The AnimationClock drives all the Swing-side animations in the game (label
+ * fades, effects, zooming gates and so on) from a single timer, so they all
+ * wake up the event dispatch thread together once per frame instead of each
+ * one at its own moment.  Each animation is ticked at (about) its own
+ * period, which is rounded up to whole frames of {@link #FRAME_PERIOD}
+ * milliseconds.
+ * <p>
+ * Animations can ask for components to be repainted with
+ * {@link #requestRepaint(Component)}; each component is repainted once at
+ * the end of the frame, no matter how many animations asked.  The timer is
+ * stopped whenever there are no animations, so an idle game costs nothing.
+ * <p>
+ * Animations are ticked on the Swing event dispatch thread.  The other
+ * methods can be called from any thread.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public final class AnimationClock {
+
+    /**
+     * Controls the debugging features of this class.
+     */
+    private static final boolean debugOn = false;
+
+    /**
+     * Prints the given message to System.out if debugOn is true.
+     */
+    private static void debug(String msg) {
+        if (debugOn) System.out.println(msg);
+    }
+
+    /**
+     * The time between frames, in milliseconds.  This is about the refresh
+     * period of a typical display.
+     */
+    public static final int FRAME_PERIOD = 16;
+
+    /**
+     * Something the clock ticks periodically.
+     */
+    public static interface Animation {
+
+        /**
+         * Advances this animation by one step.  Returns false if the
+         * animation is finished, in which case the clock forgets about it.
+         */
+        boolean tick();
+    }
+
+    /**
+     * An animation and when it is due to be ticked next.
+     */
+    private static class Entry {
+        final Animation animation;
+        final long period;
+        long nextTick;
+        
+        /**
+         * Set when {@link AnimationClock#start(Animation, int)} is called for
+         * this animation while it is being ticked, so the clock keeps it even
+         * if that tick says it is finished.
+         */
+        boolean restarted;
+
+        Entry(Animation animation, long period, long now) {
+            this.animation = animation;
+            this.period = period;
+            this.nextTick = now + period;
+        }
+    }
+
+    /**
+     * The animations that are running.  Guarded by the class.
+     */
+    private static final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * The components to repaint at the end of the current frame.  Guarded
+     * by the class.
+     */
+    private static final Set<Component> repaintRequests = new LinkedHashSet<Component>();
+
+    private static final Timer timer = new Timer(FRAME_PERIOD, new ActionListener() {
+        public void actionPerformed(ActionEvent e) {
+            tickAll();
+        }
+    });
+    static {
+        timer.setCoalesce(true);
+    }
+
+    private AnimationClock() {
+        // static methods only
+    }
+
+    /**
+     * Starts ticking the given animation every <tt>period</tt> milliseconds,
+     * beginning one period from now.  If the animation is already running,
+     * it keeps its schedule, but it won't be forgotten if the tick in
+     * progress (if any) returns false: whatever made the animation finish
+     * may have changed since.
+     */
+    public static synchronized void start(Animation animation, int period) {
+        int i = indexOf(animation);
+        if (i >= 0) {
+            entries.get(i).restarted = true;
+            return;
+        }
+        entries.add(new Entry(animation, Math.max(period, 1), currentTime()));
+        if (!timer.isRunning()) {
+            debug("Starting animation clock");
+            timer.start();
+        }
+    }
+
+    /**
+     * Stops ticking the given animation.  Does nothing if it isn't running.
+     */
+    public static synchronized void stop(Animation animation) {
+        int i = indexOf(animation);
+        if (i >= 0) {
+            entries.remove(i);
+        }
+    }
+
+    /**
+     * Returns true if the given animation is running.
+     */
+    public static synchronized boolean isRunning(Animation animation) {
+        return indexOf(animation) >= 0;
+    }
+
+    /**
+     * Asks for the given component to be repainted at the end of the
+     * current frame.  If the clock isn't running, the component is
+     * repainted right away instead.
+     */
+    public static void requestRepaint(Component c) {
+        synchronized (AnimationClock.class) {
+            if (timer.isRunning()) {
+                repaintRequests.add(c);
+                return;
+            }
+        }
+        c.repaint();
+    }
+
+    private static int indexOf(Animation animation) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).animation == animation) return i;
+        }
+        return -1;
+    }
+
+    private static long currentTime() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    /**
+     * Ticks every animation that is due, then does the repaints they asked
+     * for.  Called by the timer on the event dispatch thread.
+     */
+    private static void tickAll() {
+        long now = currentTime();
+        List<Entry> due = new ArrayList<Entry>();
+        synchronized (AnimationClock.class) {
+            for (Entry entry : entries) {
+                if (now >= entry.nextTick) {
+                    due.add(entry);
+                    entry.nextTick += entry.period;
+                    if (entry.nextTick <= now) {
+                        // fell behind (or the period is shorter than a frame): don't try to catch up
+                        entry.nextTick = now + entry.period;
+                    }
+                }
+            }
+        }
+
+        for (Entry entry : due) {
+            synchronized (AnimationClock.class) {
+                // an earlier animation this frame might have stopped it
+                if (!entries.contains(entry)) continue;
+                entry.restarted = false;
+            }
+            boolean keepGoing;
+            try {
+                keepGoing = entry.animation.tick();
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+                keepGoing = false;
+            }
+            if (!keepGoing) {
+                synchronized (AnimationClock.class) {
+                    if (!entry.restarted) {
+                        entries.remove(entry);
+                    }
+                }
+            }
+        }
+
+        List<Component> toRepaint;
+        synchronized (AnimationClock.class) {
+            toRepaint = new ArrayList<Component>(repaintRequests);
+            repaintRequests.clear();
+            if (entries.isEmpty()) {
+                debug("No more animations; stopping animation clock");
+                timer.stop();
+            }
+        }
+        for (Component c : toRepaint) {
+            c.repaint();
+        }
+    }
+}
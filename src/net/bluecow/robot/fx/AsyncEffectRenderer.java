@@ -37,15 +37,11 @@ package net.bluecow.robot.fx;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Graphics2D;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-
-import javax.swing.Timer;
 
 /**
  * A class for executing an effect in an asynchronous painting environment
- * such as a typical Swing component.  This class uses a Swing Timer to
- * periodically update and paint an effect on a target component.
+ * such as a typical Swing component.  This class uses the {@link AnimationClock}
+ * to periodically update and paint an effect on a target component.
  * <p>
  * In a synchronous environment, such as a game loop that handles repaints
  * internally, use of this class is not appropriate.  The game loop should
@@ -68,9 +64,9 @@ public class AsyncEffectRenderer {
     private final Effect effect;
     
     /**
-     * The timer that triggers the next frame of the effect. 
+     * The time between frames of the effect, in milliseconds.
      */
-    private final Timer timer;
+    private static final int FRAME_DELAY = 20;
     
     /**
      * The component the effect is rendered into.
@@ -78,24 +74,23 @@ public class AsyncEffectRenderer {
     private final Component targetComponent;
     
     /**
-     * Handles rendering a frame of the effect for each tick of the timer.
+     * Handles rendering a frame of the effect for each tick of the clock.
      */
-    private final ActionListener timerHandler = new ActionListener() {
-        public void actionPerformed(ActionEvent e) {
+    private final AnimationClock.Animation animation = new AnimationClock.Animation() {
+        public boolean tick() {
             
             debug("Rendering a frame!");
             
             effect.nextFrame();
             if (effect.isFinished()) {
-                timer.stop();
-                targetComponent.repaint();
-                return;
+                AnimationClock.requestRepaint(targetComponent);
+                return false;
             }
 
             Graphics2D g = (Graphics2D) targetComponent.getGraphics();
             if (g == null) {
                 debug("Not painting effect because target component is not displayable");
-                return;
+                return true;
             }
             targetComponent.paint(g);
             effect.paint(g);
@@ -104,6 +99,7 @@ public class AsyncEffectRenderer {
                 g.drawRect(effect.getX(), effect.getY(), effect.getWidth(), effect.getHeight());
             }
             g.dispose();
+            return true;
         }
     };
 
@@ -122,7 +118,6 @@ public class AsyncEffectRenderer {
         if (targetComponent == null) throw new NullPointerException("Null target component not allowed");
         this.effect = effect;
         this.targetComponent = targetComponent;
-        timer = new Timer(20, timerHandler);
     }
     
     /**
@@ -130,13 +125,13 @@ public class AsyncEffectRenderer {
      * reports is has completed, or when the {@link #stop()} method is called.
      */
     public void start() {
-        timer.start();
+        AnimationClock.start(animation, FRAME_DELAY);
     }
 
     /**
      * Stops rendering the effect.
      */
     public void stop() {
-        timer.stop();
+        AnimationClock.stop(animation);
     }
 }
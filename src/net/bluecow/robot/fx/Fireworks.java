@@ -36,8 +36,12 @@
  */
 package net.bluecow.robot.fx;
 
+import java.awt.Color;
+import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.geom.Point2D;
+import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
@@ -45,144 +49,180 @@ import java.util.Random;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
- * TODO make this class implement the Effect interface
+ * The Fireworks effect launches a rocket from its position, which bursts
+ * into a shower of shrapnel when its fuse runs out.  The shrapnel is kept in
+ * a pooled {@link ParticleSystem}, so a big show doesn't create garbage on
+ * every frame; the particle system goes back to the pool when the effect is
+ * released.
  *
  * @author fuerth
  * @version $Id$
  */
-public class Fireworks {
+public class Fireworks extends AbstractEffect {
     
-    private static class Velocity {
-        private float x;
-        private float y;
-        
-        public Velocity(float x, float y) {
-            this.x = x;
-            this.y = y;
-        }
-        
-        public Velocity add(float x, float y) {
-            return new Velocity(this.x + x, this.y + y);
-        }
-        
-        public float getX() {
-            return x;
-        }
-        
-        public float getY() {
-            return y;
-        }
-    }
+    /**
+     * The downward acceleration of the rocket and the shrapnel, in pixels
+     * per frame per frame.
+     */
+    public static final float GRAV_ACCEL = 0.15f;
     
-    // internal state
+    // the rocket, relative to the launch position
     private int fuseRemaining;
-    private Velocity velocity;
-    private Point2D.Float position;
+    private float rocketX;
+    private float rocketY;
+    private float rocketVX;
+    private float rocketVY;
+    
+    // the burst
+    private final int burstSize;
+    private final double burstPowerStdDev;
+    private final double burstPowerMean;
+    private final double ttlStdDev;
+    private final double ttlMean;
+    
+    /**
+     * The shrapnel, relative to the launch position.  Null before the
+     * rocket bursts, and after this effect has been released.
+     */
+    private ParticleSystem shrapnel;
     
-    // these should be refactored into a Projectile class
-    private Point2D.Float[] shrapnelPosition;
-    private Velocity[] shrapnelVelocity;
-    private int[] shrapnelTTL;
+    /**
+     * True once the rocket has burst.
+     */
+    private boolean burst;
     
-    public static final float GRAV_ACCEL = -0.15f;
+    /**
+     * The colour the rocket and shrapnel are drawn in.  Defaults to white.
+     */
+    private Color color = Color.WHITE;
     
     /**
-     * @param heading
-     * @param initialSpeed
-     * @param fuseLength
-     * @param burstSize
+     * @param launchPosition Where the rocket starts, in pixels.  Shrapnel
+     * that falls below this height disappears.
+     * @param heading The rocket's direction, in radians clockwise from straight up
+     * @param initialSpeed The rocket's speed, in pixels per frame
+     * @param fuseLength The number of frames before the rocket bursts
+     * @param burstSize The number of pieces of shrapnel
      */
-    public Fireworks(float heading, float initialSpeed, int fuseLength,
+    public Fireworks(Point launchPosition, float heading, float initialSpeed, int fuseLength,
             int burstSize,
             double burstPowerStdDev, double burstPowerMean,
             double ttlStdDev, double ttlMean) {
-        super();
+        bounds.setLocation(launchPosition);
         this.fuseRemaining = fuseLength;
-        
-        velocity = new Velocity((float) (Math.sin(heading) * initialSpeed),
-                                (float) (Math.cos(heading) * initialSpeed));
-        position = new Point2D.Float(100, 0);
-        shrapnelPosition = new Point2D.Float[burstSize];
-        shrapnelVelocity = new Velocity[burstSize];
-        shrapnelTTL = new int[burstSize];
+        rocketVX = (float) (Math.sin(heading) * initialSpeed);
+        rocketVY = (float) (-Math.cos(heading) * initialSpeed);
+        this.burstSize = burstSize;
+        this.burstPowerStdDev = burstPowerStdDev;
+        this.burstPowerMean = burstPowerMean;
+        this.ttlStdDev = ttlStdDev;
+        this.ttlMean = ttlMean;
+    }
+
+    @Override
+    public void nextFrame() {
+        if (fuseRemaining > 0) {
+            rocketVY += GRAV_ACCEL;
+            rocketX += rocketVX;
+            rocketY += rocketVY;
+            fuseRemaining--;
+        } else if (!burst) {
+            explode();
+        } else if (shrapnel != null) {
+            shrapnel.update(0f, GRAV_ACCEL, 0f);
+        }
+    }
+    
+    /**
+     * Replaces the rocket with shrapnel flying out evenly in all directions,
+     * carried along by the rocket's momentum.
+     */
+    private void explode() {
+        burst = true;
+        shrapnel = ParticleSystem.obtain(burstSize);
         Random rnd = new Random();
         for (int i = 0; i < burstSize; i++) {
-            shrapnelPosition[i] = new Point2D.Float(0f, 0f);
-            shrapnelVelocity[i] = new Velocity(
-                    (float) (Math.sin(i*(Math.PI*2.0/burstSize)) * (rnd.nextGaussian() * burstPowerStdDev + burstPowerMean)),
-                    (float) (Math.cos(i*(Math.PI*2.0/burstSize)) * (rnd.nextGaussian() * burstPowerStdDev + burstPowerMean)));
-            shrapnelTTL[i] = (int) (rnd.nextGaussian() * ttlStdDev + ttlMean);
+            double angle = i * (Math.PI * 2.0 / burstSize);
+            shrapnel.emit(rocketX, rocketY,
+                    rocketVX + (float) (Math.sin(angle) * (rnd.nextGaussian() * burstPowerStdDev + burstPowerMean)),
+                    rocketVY - (float) (Math.cos(angle) * (rnd.nextGaussian() * burstPowerStdDev + burstPowerMean)),
+                    (int) (rnd.nextGaussian() * ttlStdDev + ttlMean));
         }
     }
 
+    @Override
+    public void paint(Graphics2D g2, int x, int y) {
+        g2.setColor(color);
+        ParticleSystem shrapnel = this.shrapnel;
+        if (!burst) {
+            g2.drawLine((int) (x + rocketX), (int) (y + rocketY),
+                        (int) (x + rocketX), (int) (y + rocketY));
+        } else if (shrapnel != null) {
+            shrapnel.paint(g2, x, y);
+        }
+    }
 
+    @Override
+    public boolean isFinished() {
+        ParticleSystem shrapnel = this.shrapnel;
+        return burst && (shrapnel == null || shrapnel.size() == 0);
+    }
+    
     /**
-     * Draws the next frame on the given graphics.  Returns true while the
-     * animation still has more frames to draw; false when the show is over.
+     * Returns the shrapnel to the particle system pool.  This must be called
+     * on the thread that paints this effect, once it will not be painted again.
      */
-    public boolean nextFrame(Graphics2D g) {
-        boolean done = true;
-        if (fuseRemaining > 0) {
-            velocity = velocity.add(0, GRAV_ACCEL);
-            position.x += velocity.getX();
-            position.y += velocity.getY();
-            fuseRemaining--;
-            g.drawLine( (int) position.x, (int) position.y,
-                        (int) position.x, (int) position.y);
-            done = false;
-        } else {
-            for (int i = 0; i < shrapnelPosition.length; i++) {
-                Point2D.Float p = shrapnelPosition[i];
-                Velocity v = shrapnelVelocity[i];
-                v = v.add(0, GRAV_ACCEL);
-                shrapnelVelocity[i] = v;
-                p.x += v.x + velocity.x;
-                p.y += v.y + velocity.y;
-                if (shrapnelTTL[i] >= 0) {
-                    g.drawLine( (int) (position.x + p.x), (int) (position.y + p.y),
-                               (int) (position.x + p.x - v.x), (int) (position.y + p.y - v.y) );
-                }
-                shrapnelTTL[i]--;
-                boolean thisDone = (position.y + p.y < 0) || (shrapnelTTL[i] < 0);
-                done &= thisDone;
-            }
-
+    @Override
+    public void release() {
+        if (shrapnel != null) {
+            ParticleSystem.release(shrapnel);
+            shrapnel = null;
         }
-        return !done;
+    }
+    
+    public Color getColor() {
+        return color;
+    }
+    
+    public void setColor(Color color) {
+        this.color = color;
     }
     
     public static void main(String[] args) {
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
-                List<Fireworks> liveFire = new LinkedList<Fireworks>();
-                liveFire.add(new Fireworks(0.3f, 10.0f, 35, 300, 1.5, 4.5, 10.0, 30.0));
-                //liveFire.add(new Fireworks(0.3f, 10.0f, 35, 300, 1.0, 1.5, 10.0, 30.0));
+                final List<Fireworks> liveFire = new LinkedList<Fireworks>();
+                final JPanel p = new JPanel() {
+                    @Override
+                    protected void paintComponent(Graphics g) {
+                        super.paintComponent(g);
+                        for (Fireworks anim : liveFire) {
+                            anim.paint((Graphics2D) g);
+                        }
+                    }
+                };
+                p.setBackground(Color.BLACK);
                 JFrame f = new JFrame("Fireworks!");
-                JPanel p = new JPanel();
                 f.setContentPane(p);
                 f.setSize(640,480);
                 f.setVisible(true);
-                Graphics2D g = (Graphics2D) p.getGraphics();
-                g.translate(0, f.getHeight());
-                g.scale(1.0, -1.0);
-                boolean keepGoing;
-                do {
-                    keepGoing = false;
-                    try {
-                        g.setColor(p.getBackground());
-                        g.fillRect(0, 0, f.getWidth(), f.getHeight());
-                        g.setColor(p.getForeground());
+                liveFire.add(new Fireworks(new Point(100, p.getHeight()), 0.3f, 10.0f, 35, 3000, 1.5, 4.5, 10.0, 30.0));
+                new Timer(50, new ActionListener() {
+                    public void actionPerformed(ActionEvent e) {
+                        boolean keepGoing = false;
                         for (Fireworks anim : liveFire) {
-                            keepGoing |= anim.nextFrame(g);
+                            anim.nextFrame();
+                            keepGoing |= !anim.isFinished();
+                        }
+                        p.repaint();
+                        if (!keepGoing) {
+                            System.exit(0);
                         }
-                        Thread.sleep(50);
-                    } catch (InterruptedException e) {
-                        System.out.println("Animation thread was interrupted during sleep");
                     }
-                } while (keepGoing);
-                System.exit(0);
+                }).start();
             }
         });
     }
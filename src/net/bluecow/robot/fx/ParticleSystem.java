@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.fx;
+
+import java.awt.Graphics2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ParticleSystem keeps the state of a large number of simple particles
+ * (position, velocity and time to live) in parallel float arrays rather than
+ * in one object per particle, so updating and painting thousands of them
+ * every frame doesn't create any garbage.  Dead particles are replaced by
+ * the last live one, so the live particles are always at the start of the
+ * arrays.
+ * <p>
+ * Particle systems are fairly big, so effects that use them should get them
+ * from the pool with {@link #obtain(int)} and give them back with
+ * {@link #release(ParticleSystem)} when they are finished.
+ * <p>
+ * Co-ordinates are in pixels, with y increasing downward as on the screen.
+ * Instances are not thread safe, but the pool is.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class ParticleSystem {
+
+    /**
+     * The most particle systems the pool keeps for reuse.
+     */
+    private static final int MAX_POOLED = 8;
+
+    /**
+     * Particle systems that are waiting to be reused.
+     */
+    private static final List<ParticleSystem> pool = new ArrayList<ParticleSystem>();
+
+    private final float[] x;
+    private final float[] y;
+    private final float[] vx;
+    private final float[] vy;
+
+    /**
+     * The number of frames each particle has left to live.
+     */
+    private final int[] ttl;
+
+    /**
+     * The number of live particles.  They are at indices 0 to size-1.
+     */
+    private int size;
+
+    /**
+     * Creates a particle system with room for the given number of particles.
+     * Effects should normally use {@link #obtain(int)} instead.
+     */
+    public ParticleSystem(int capacity) {
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        ttl = new int[capacity];
+    }
+
+    /**
+     * Returns an empty particle system with room for at least the given
+     * number of particles, from the pool if there is a suitable one.
+     */
+    public static ParticleSystem obtain(int capacity) {
+        synchronized (pool) {
+            for (int i = 0; i < pool.size(); i++) {
+                if (pool.get(i).getCapacity() >= capacity) {
+                    return pool.remove(i);
+                }
+            }
+        }
+        return new ParticleSystem(capacity);
+    }
+
+    /**
+     * Empties the given particle system and puts it in the pool for reuse.
+     * The caller must not use it afterward.
+     */
+    public static void release(ParticleSystem particles) {
+        particles.clear();
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED) {
+                pool.add(particles);
+            }
+        }
+    }
+
+    /**
+     * Returns the most particles this system can hold.
+     */
+    public int getCapacity() {
+        return x.length;
+    }
+
+    /**
+     * Returns the number of live particles.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all the particles.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Adds a particle.  Returns false (and doesn't add the particle) if this
+     * system is full.
+     *
+     * @param ttl The number of frames the particle lives for.
+     */
+    public boolean emit(float x, float y, float vx, float vy, int ttl) {
+        if (size == this.x.length) return false;
+        this.x[size] = x;
+        this.y[size] = y;
+        this.vx[size] = vx;
+        this.vy[size] = vy;
+        this.ttl[size] = ttl;
+        size++;
+        return true;
+    }
+
+    /**
+     * Moves every particle on by one frame: accelerates it by the given
+     * amount, moves it by its velocity, and takes a frame off its time to
+     * live.  Particles whose time is up, or that have fallen below the given
+     * floor, are removed.
+     *
+     * @param floorY Particles whose y position is greater than this are
+     * removed.  Use {@link Float#POSITIVE_INFINITY} for no floor.
+     */
+    public void update(float ax, float ay, float floorY) {
+        int i = 0;
+        while (i < size) {
+            vx[i] += ax;
+            vy[i] += ay;
+            x[i] += vx[i];
+            y[i] += vy[i];
+            ttl[i]--;
+            if (ttl[i] < 0 || y[i] > floorY) {
+                size--;
+                x[i] = x[size];
+                y[i] = y[size];
+                vx[i] = vx[size];
+                vy[i] = vy[size];
+                ttl[i] = ttl[size];
+                // the particle moved here hasn't been updated yet
+                continue;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Draws every live particle as a streak from where it was on the previous
+     * frame to where it is now, in the graphics' current colour, offset by
+     * the given amount.
+     */
+    public void paint(Graphics2D g2, int dx, int dy) {
+        for (int i = 0; i < size; i++) {
+            g2.drawLine(
+                    (int) (dx + x[i]), (int) (dy + y[i]),
+                    (int) (dx + x[i] - vx[i]), (int) (dy + y[i] - vy[i]));
+        }
+    }
+}
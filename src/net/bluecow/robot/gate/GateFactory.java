@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.gate;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A GateFactory creates new instances of one type of gate. Factories are
+ * kept in a process-wide registry keyed by gate class name, so the class is
+ * looked up and its no-args constructor is resolved only once, no matter how
+ * many gates of that type get created (for example while loading a large
+ * circuit archive).
+ * <p>
+ * GateFactory instances are immutable and thread safe.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public final class GateFactory {
+
+    /**
+     * All the factories created so far, keyed by gate class name.
+     */
+    private static final ConcurrentMap<String, GateFactory> registry =
+        new ConcurrentHashMap<String, GateFactory>();
+
+    private final Class<? extends Gate> gateClass;
+
+    /**
+     * The cached no-args constructor of {@link #gateClass}.
+     */
+    private final Constructor<? extends Gate> constructor;
+
+    private GateFactory(Class<? extends Gate> gateClass) {
+        if (gateClass.isInterface() || Modifier.isAbstract(gateClass.getModifiers())) {
+            throw new IllegalArgumentException("Gate class "+gateClass.getName()+" is abstract");
+        }
+        try {
+            this.gateClass = gateClass;
+            this.constructor = gateClass.getConstructor();
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalArgumentException(
+                    "Gate class "+gateClass.getName()+" has no public no-args constructor");
+        }
+    }
+
+    /**
+     * Returns the factory for the gate class with the given name, loading
+     * the class if this is the first time it has been asked for.
+     *
+     * @throws ClassNotFoundException if there is no class with the given name
+     * @throws IllegalArgumentException if the class is not a concrete gate
+     * class with a public no-args constructor
+     */
+    public static GateFactory forClassName(String className) throws ClassNotFoundException {
+        GateFactory factory = registry.get(className);
+        if (factory == null) {
+            Class<?> c = Class.forName(className);
+            if (!Gate.class.isAssignableFrom(c)) {
+                throw new IllegalArgumentException("Class "+className+" is not a gate");
+            }
+            factory = forClass(c.asSubclass(Gate.class));
+        }
+        return factory;
+    }
+
+    /**
+     * Returns the factory for the given gate class.
+     *
+     * @throws IllegalArgumentException if the class is not a concrete gate
+     * class with a public no-args constructor
+     */
+    public static GateFactory forClass(Class<? extends Gate> gateClass) {
+        GateFactory factory = registry.get(gateClass.getName());
+        if (factory == null || factory.gateClass != gateClass) {
+            factory = new GateFactory(gateClass);
+            GateFactory existing = registry.putIfAbsent(gateClass.getName(), factory);
+            if (existing != null && existing.gateClass == gateClass) {
+                factory = existing;
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Returns the class of gate this factory creates.
+     */
+    public Class<? extends Gate> getGateClass() {
+        return gateClass;
+    }
+
+    /**
+     * Creates a new gate instance using the gate class's no-args constructor.
+     *
+     * @throws RuntimeException if the gate's constructor fails
+     */
+    public Gate newGate() {
+        try {
+            return constructor.newInstance();
+        } catch (InstantiationException ex) {
+            throw new RuntimeException("Couldn't create gate "+gateClass.getName(), ex);
+        } catch (IllegalAccessException ex) {
+            throw new RuntimeException("Couldn't access gate constructor of "+gateClass.getName(), ex);
+        } catch (InvocationTargetException ex) {
+            throw new RuntimeException("Gate constructor of "+gateClass.getName()+" failed", ex.getCause());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GateFactory for "+gateClass.getName();
+    }
+}
@@ -36,17 +36,18 @@
  */
 package net.bluecow.robot.resource;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 /**
  * The AbstractResourceLoader is a useful starting point for implementing
- * the ResourceLoader interface.  It defines a getResourceBytes() implementation
- * which depends on the abstract getResourceAsStream() method.  Therefore,
- * when you extend this class you only need to implement getResourceAsStream().
+ * the ResourceLoader interface.  It defines getResourceBytes() and
+ * getResourceBuffer() implementations which depend on the abstract
+ * getResourceAsStream() method.  Therefore, when you extend this class you
+ * only need to implement getResourceAsStream().  Subclasses that know the
+ * size of their resources in advance, or can map them into memory, should
+ * override the other methods as well.
  *
  * @author fuerth
  * @version $Id$
@@ -54,18 +55,16 @@ import java.util.List;
 public abstract class AbstractResourceLoader implements ResourceLoader {
 
     public byte[] getResourceBytes(String resourceName) throws IOException {
-        List<Byte> bytes = new ArrayList<Byte>();
-        InputStream in = new BufferedInputStream(getResourceAsStream(resourceName));
-        int ch;
-        while ((ch = in.read()) != -1) {
-            bytes.add(new Byte((byte) ch));
+        InputStream in = getResourceAsStream(resourceName);
+        try {
+            return ResourceUtils.readAllBytes(in, -1);
+        } finally {
+            in.close();
         }
-        in.close();
-        byte[] byteArray = new byte[bytes.size()];
-        for (int i = 0; i < byteArray.length; i++) {
-            byteArray[i] = bytes.get(i);
-        }
-        return byteArray;
+    }
+
+    public ByteBuffer getResourceBuffer(String resourceName) throws IOException {
+        return ByteBuffer.wrap(getResourceBytes(resourceName)).asReadOnlyBuffer();
     }
 
 }
@@ -35,8 +35,8 @@
 package net.bluecow.robot.resource;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.bluecow.robot.resource.event.ResourceManagerEvent;
 import net.bluecow.robot.resource.event.ResourceManagerListener;
@@ -72,9 +72,12 @@ public abstract class AbstractResourceManager extends AbstractResourceLoader imp
     // ------------- Events! ----------------
     
     /**
-     * All the listners of this resource manager.
+     * All the listners of this resource manager.  Events may be fired from
+     * threads other than the one that registers listeners (see
+     * {@link DirectoryResourceManager#startWatching(long)}), so the list is
+     * copied on write.
      */
-    private final List<ResourceManagerListener> listeners = new ArrayList<ResourceManagerListener>();
+    private final List<ResourceManagerListener> listeners = new CopyOnWriteArrayList<ResourceManagerListener>();
 
     /**
      * Adds the given listener.  No attempt is made to prevent duplication
@@ -102,4 +105,42 @@ public abstract class AbstractResourceManager extends AbstractResourceLoader imp
         }
     }
 
+    /**
+     * Delivers a "resource removed" event to all currently-registered listeners.
+     */
+    protected void fireResourceRemoved(String parentPath, String resourceName) {
+        ResourceManagerEvent evt = new ResourceManagerEvent(this, parentPath, resourceName);
+        for (int i = listeners.size() - 1; i >= 0; i--) {
+            listeners.get(i).resourceRemoved(evt);
+        }
+    }
+
+    /**
+     * Delivers a "resource changed" event to all currently-registered listeners.
+     */
+    protected void fireResourceChanged(String parentPath, String resourceName) {
+        ResourceManagerEvent evt = new ResourceManagerEvent(this, parentPath, resourceName);
+        for (int i = listeners.size() - 1; i >= 0; i--) {
+            listeners.get(i).resourceChanged(evt);
+        }
+    }
+
+    /**
+     * Returns the parent directory of the given resource path in the form
+     * resource manager events use: with a trailing slash, and "/" for the
+     * root directory.
+     */
+    protected static String parentPath(String path) {
+        int slash = path.lastIndexOf('/', path.length() - 2);
+        return slash < 0 ? "/" : path.substring(0, slash + 1);
+    }
+
+    /**
+     * Returns the last element of the given resource path, keeping its
+     * trailing slash if it has one.
+     */
+    protected static String resourceName(String path) {
+        return path.substring(path.lastIndexOf('/', path.length() - 2) + 1);
+    }
+
 }
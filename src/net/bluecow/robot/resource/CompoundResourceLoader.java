@@ -37,6 +37,7 @@ package net.bluecow.robot.resource;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * The CompoundResourceLoader composes two other resource loaders, treating
@@ -51,7 +52,7 @@ import java.io.InputStream;
  * @author fuerth
  * @version $Id:$
  */
-public class CompoundResourceLoader implements ResourceLoader {
+public class CompoundResourceLoader implements ResourceLoader, ContentAddressable {
 
     private final ResourceLoader primary;
     private final ResourceLoader backup;
@@ -76,4 +77,24 @@ public class CompoundResourceLoader implements ResourceLoader {
             return backup.getResourceBytes(resourceName);
         }
     }
+
+    public ByteBuffer getResourceBuffer(String resourceName) throws IOException {
+        try {
+            return primary.getResourceBuffer(resourceName);
+        } catch (FileNotFoundException ex) {
+            return backup.getResourceBuffer(resourceName);
+        }
+    }
+
+    /**
+     * Returns the primary loader's content hash for the named resource.  The
+     * backup loader is not consulted, because a resource the primary doesn't
+     * know the hash of may still be in the primary.
+     */
+    public String getContentHash(String resourceName) throws IOException {
+        if (primary instanceof ContentAddressable) {
+            return ((ContentAddressable) primary).getContentHash(resourceName);
+        }
+        return null;
+    }
 }
@@ -38,11 +38,15 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import net.bluecow.robot.resource.event.ResourceManagerEvent;
+import net.bluecow.robot.resource.event.ResourceManagerListener;
+
 /**
  * The CompoundResourceManager serves to combine two other resource managers
  * together into one unified namespace. The intended practical use is to augment
@@ -98,11 +102,18 @@ import java.util.TreeSet;
  * 
  * Note that listAll() always combines the results from both the primary and secondary
  * resource managers.
+ * <p>
+ * Listings are answered from an index of the combined namespace, which is
+ * built the first time it's needed.  After that, the index is kept up to date
+ * by listening to the primary resource manager's events (and by the changes
+ * made through this resource manager), so listing a directory costs the same
+ * no matter how many resources the two managers hold.  The secondary is
+ * assumed not to change.
  * 
  * @author fuerth
  * @version $Id:$
  */
-public class CompoundResourceManager extends AbstractResourceManager {
+public class CompoundResourceManager extends AbstractResourceManager implements ContentAddressable {
 
     /**
      * Controls the debugging features of this class.
@@ -128,10 +139,74 @@ public class CompoundResourceManager extends AbstractResourceManager {
      */
     private final ListableResourceLoader secondary;
     
+    /**
+     * The combined listing of the primary and secondary. Null until the first
+     * time it's needed, and whenever the primary reports a change that can't
+     * be applied to it incrementally.
+     */
+    private volatile ResourcePathIndex index;
+    
+    /**
+     * Keeps {@link #index} in step with the primary resource manager.
+     */
+    private final ResourceManagerListener indexUpdater = new ResourceManagerListener() {
+        public void resourceAdded(ResourceManagerEvent event) {
+            ResourcePathIndex idx = index;
+            if (idx != null) idx.add(event.getParentPath() + event.getChildName());
+        }
+        public void resourceRemoved(ResourceManagerEvent event) {
+            String path = event.getParentPath() + event.getChildName();
+            ResourcePathIndex idx = index;
+            // the secondary's copy of the resource shows through once the primary's is gone
+            if (idx != null && !secondary.resourceExists(path)) idx.remove(path);
+        }
+        public void resourceChanged(ResourceManagerEvent event) {
+            invalidateIndex();
+        }
+    };
+    
     public CompoundResourceManager(ResourceManager primary, ListableResourceLoader secondary) {
         debug("Creating new resource manager");
         this.primary = primary;
         this.secondary = secondary;
+        primary.addResourceManagerListener(indexUpdater);
+    }
+    
+    /**
+     * Returns the index of the combined namespace, building it if necessary.
+     */
+    private synchronized ResourcePathIndex getIndex() throws IOException {
+        if (index == null) {
+            debug("Building resource index");
+            SortedSet<String> mergedListing = new TreeSet<String>();
+            mergedListing.addAll(primary.listAll());
+            mergedListing.addAll(secondary.listAll());
+            index = new ResourcePathIndex(mergedListing);
+        }
+        return index;
+    }
+    
+    /**
+     * Discards the index of the combined namespace, so that the next
+     * listing request will rebuild it from the primary and secondary.
+     * Resource managers normally report their changes, so this is only
+     * necessary if the primary has been changed behind this resource
+     * manager's back (for instance, by modifying files on disk).
+     */
+    public synchronized void invalidateIndex() {
+        index = null;
+    }
+    
+    /**
+     * Returns the resources in the given list that the filter accepts.
+     */
+    private static List<String> filter(List<String> resources, ResourceNameFilter filter) {
+        if (filter == null) return new ArrayList<String>(resources);
+        List<String> retval = new ArrayList<String>();
+        for (String resource : resources) {
+            if (filter.accepts(resource)) retval.add(resource);
+        }
+        return retval;
     }
     
     public void close() throws IOException {
@@ -172,28 +247,22 @@ public class CompoundResourceManager extends AbstractResourceManager {
         }
         
         primary.createDirectory(targetDir, newDirName);
+        if (index != null) {
+            index.add((targetDir.endsWith("/") ? targetDir : targetDir + "/") + newDirName + "/");
+        }
     }
 
     public List<String> list(String path, ResourceNameFilter filter)
     throws IOException {
-        if ( ! (primary.resourceExists(path) || secondary.resourceExists(path)) ) {
+        List<String> children = getIndex().list(path);
+        if (children == null) {
             throw new FileNotFoundException("No such directory \""+path+"\"");
         }
-        SortedSet<String> mergedListing = new TreeSet<String>();
-        if (primary.resourceExists(path)) {
-            mergedListing.addAll(primary.list(path, filter));
-        }
-        if (secondary.resourceExists(path)) {
-            mergedListing.addAll(secondary.list(path, filter));
-        }
-        return new ArrayList<String>(mergedListing);
+        return filter(children, filter);
     }
 
     public List<String> listAll(ResourceNameFilter filter) throws IOException {
-        SortedSet<String> mergedListing = new TreeSet<String>();
-        mergedListing.addAll(primary.listAll(filter));
-        mergedListing.addAll(secondary.listAll(filter));
-        return new ArrayList<String>(mergedListing);
+        return filter(getIndex().listAll(), filter);
     }
 
     public OutputStream openForWrite(String path, boolean create) throws IOException {
@@ -216,12 +285,15 @@ public class CompoundResourceManager extends AbstractResourceManager {
                 ResourceUtils.mkdirs(primary, parentDir);
             }
         }
-        return primary.openForWrite(path, create);
+        OutputStream out = primary.openForWrite(path, create);
+        if (index != null) index.add(path);
+        return out;
     }
 
     public void remove(String path) throws IOException {
         if (primary.resourceExists(path)) {
             primary.remove(path);
+            if (index != null && !secondary.resourceExists(path)) index.remove(path);
         } else if (secondary.resourceExists(path)) {
             throw new IOException("Cannot remove resources from secondary resource manager");
         } else {
@@ -240,6 +312,45 @@ public class CompoundResourceManager extends AbstractResourceManager {
         }
     }
 
+    public byte[] getResourceBytes(String resourceName) throws IOException {
+        if (primary.resourceExists(resourceName)) {
+            return primary.getResourceBytes(resourceName);
+        } else if (secondary.resourceExists(resourceName)) {
+            return secondary.getResourceBytes(resourceName);
+        } else {
+            throw new FileNotFoundException("No such resource \""+resourceName+"\"");
+        }
+    }
+
+    public ByteBuffer getResourceBuffer(String resourceName) throws IOException {
+        if (primary.resourceExists(resourceName)) {
+            return primary.getResourceBuffer(resourceName);
+        } else if (secondary.resourceExists(resourceName)) {
+            return secondary.getResourceBuffer(resourceName);
+        } else {
+            throw new FileNotFoundException("No such resource \""+resourceName+"\"");
+        }
+    }
+
+    /**
+     * Returns the content hash of the named resource, as reported by
+     * whichever of the primary and secondary it would be read from.
+     */
+    public String getContentHash(String resourceName) throws IOException {
+        ResourceLoader source;
+        if (primary.resourceExists(resourceName)) {
+            source = primary;
+        } else if (secondary.resourceExists(resourceName)) {
+            source = secondary;
+        } else {
+            return null;
+        }
+        if (source instanceof ContentAddressable) {
+            return ((ContentAddressable) source).getContentHash(resourceName);
+        }
+        return null;
+    }
+
     public boolean resourceExists(String path) {
         return primary.resourceExists(path) || secondary.resourceExists(path);
     }
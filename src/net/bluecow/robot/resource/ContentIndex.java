@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.resource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import net.bluecow.robot.FileFormatException;
+
+/**
+ * The table of contents of a content-addressed resource pack.  In such a
+ * pack, resources with identical contents are only stored once: the first
+ * resource with a given content hash is stored under its own path, and
+ * every other resource with that hash is stored only as an entry in this
+ * index (see {@link ResourceUtils#createResourceJar(ListableResourceLoader, java.io.File, boolean)}).
+ * <p>
+ * The index is stored in the pack as the resource {@link #PATH}. It is a
+ * UTF-8 text file with one line per regular resource, in the form
+ * <pre>
+ *  HASH PATH
+ * </pre>
+ * where HASH is the resource's {@link ResourceUtils#contentHash(byte[]) content hash}.
+ * The first line that mentions a hash names the path that hash's contents
+ * are stored under.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class ContentIndex {
+
+    /**
+     * The resource path a content-addressed pack keeps its index under.
+     */
+    public static final String PATH = "ROBO-INF/content.index";
+
+    /**
+     * Maps each resource path to its content hash, in the order the
+     * resources were added.
+     */
+    private final Map<String, String> hashes = new LinkedHashMap<String, String>();
+
+    /**
+     * Maps each content hash to the path its contents are stored under.
+     */
+    private final Map<String, String> blobs = new HashMap<String, String>();
+
+    /**
+     * Creates an empty index.
+     */
+    public ContentIndex() {
+        // nothing to do
+    }
+
+    /**
+     * Reads an index in the format described in the class comment. The
+     * stream is not closed.
+     *
+     * @throws FileFormatException if the index contains a malformed line
+     */
+    public static ContentIndex read(InputStream in) throws IOException {
+        ContentIndex index = new ContentIndex();
+        BufferedReader r = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        String line;
+        int lineNum = 0;
+        while ((line = r.readLine()) != null) {
+            lineNum++;
+            if (line.length() == 0) continue;
+            int space = line.indexOf(' ');
+            if (space <= 0 || space == line.length() - 1) {
+                throw new FileFormatException("Expected HASH PATH", lineNum, line, -1);
+            }
+            index.add(line.substring(space + 1), line.substring(0, space));
+        }
+        return index;
+    }
+
+    /**
+     * Reads the index out of the given pack, or returns null if the pack is
+     * not content addressed.
+     */
+    static ContentIndex read(ZipFile zip) throws IOException {
+        ZipEntry entry = zip.getEntry(PATH);
+        if (entry == null) return null;
+        InputStream in = zip.getInputStream(entry);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Records that the resource at the given path has the given content hash.
+     *
+     * @return true if this is the first resource with the given hash (so its
+     * contents have to be stored under the given path); false if the contents
+     * are already stored elsewhere.
+     */
+    public boolean add(String path, String hash) {
+        hashes.put(path, hash);
+        if (blobs.containsKey(hash)) {
+            return false;
+        }
+        blobs.put(hash, path);
+        return true;
+    }
+
+    /**
+     * Returns the content hash of the resource at the given path, or null if
+     * this index doesn't list that path.
+     */
+    public String getHash(String path) {
+        return hashes.get(path);
+    }
+
+    /**
+     * Returns the path the contents of the given resource are stored under,
+     * or null if this index doesn't list that path.  For the first resource
+     * with any given contents, this is the resource's own path.
+     */
+    public String getStoredPath(String path) {
+        String hash = hashes.get(path);
+        return hash == null ? null : blobs.get(hash);
+    }
+
+    /**
+     * Returns the paths of all the resources in this index. The returned set
+     * can't be modified.
+     */
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(hashes.keySet());
+    }
+
+    /**
+     * Returns the number of distinct contents in this index.
+     */
+    public int getBlobCount() {
+        return blobs.size();
+    }
+
+    /**
+     * Writes this index in the format described in the class comment. The
+     * stream is flushed but not closed.
+     */
+    public void write(OutputStream out) throws IOException {
+        Writer w = new OutputStreamWriter(out, "UTF-8");
+        for (Map.Entry<String, String> e : hashes.entrySet()) {
+            w.write(e.getValue());
+            w.write(' ');
+            w.write(e.getKey());
+            w.write('\n');
+        }
+        w.flush();
+    }
+}
@@ -40,14 +40,33 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * A resource manager whose resources are the files and subdirectories of a
+ * directory in the local filesystem.
+ * <p>
+ * The directory can also be modified by other programs while the resource
+ * manager is open (for example, an image editor saving over one of the
+ * sprites).  To find out about such changes, call {@link #startWatching(long)}:
+ * the directory will then be scanned periodically, and resource added,
+ * removed, and changed events will be fired for any differences found.
+ * Changes made through this resource manager are not reported twice.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
 public class DirectoryResourceManager extends AbstractResourceManager {
 
     /**
@@ -62,8 +81,72 @@ public class DirectoryResourceManager extends AbstractResourceManager {
         if (debugOn) System.out.println(msg);
     }
     
+    /**
+     * Files at least this big are memory-mapped by {@link #getResourceBuffer(String)}
+     * when {@link #memoryMapping} is on.  Mapping has a fixed cost that isn't
+     * worth paying for small files.
+     */
+    private static final int MIN_MAPPED_SIZE = 64 * 1024;
+    
     private File basedir;
     
+    /**
+     * Whether large files are memory-mapped rather than read into the heap.
+     * Off by default.  See {@link #setMemoryMapping(boolean)}.
+     */
+    private boolean memoryMapping;
+    
+    /**
+     * The modification time and length of a file, as last seen by the watcher.
+     */
+    private static class FileState {
+        final long lastModified;
+        final long length;
+        
+        FileState(File f) {
+            lastModified = f.lastModified();
+            length = f.isDirectory() ? -1 : f.length();
+        }
+        
+        boolean isDirectory() {
+            return length < 0;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FileState)) return false;
+            FileState other = (FileState) obj;
+            return lastModified == other.lastModified && length == other.length;
+        }
+        
+        @Override
+        public int hashCode() {
+            return (int) (lastModified ^ (lastModified >>> 32)) * 31 + (int) length;
+        }
+    }
+    
+    /**
+     * The state of every file and directory under {@link #basedir} as of the
+     * watcher's last scan, keyed by resource path (directory paths end with a
+     * slash).  Null when the directory isn't being watched.  Access is
+     * guarded by this resource manager's monitor.
+     */
+    private Map<String, FileState> watchState;
+    
+    /**
+     * The number of open write streams (see {@link #openForWrite(String, boolean)})
+     * for each resource path that has any.  The watcher ignores these paths,
+     * so it doesn't report a save in progress as an outside change.  Access
+     * is guarded by this resource manager's monitor.
+     */
+    private final Map<String, Integer> openWrites = new HashMap<String, Integer>();
+    
+    /**
+     * The thread that periodically scans the directory for changes, or null
+     * when the directory isn't being watched.
+     */
+    private Thread watcher;
+    
     public DirectoryResourceManager(File basedir) {
         if (!basedir.isDirectory()) {
             if (!basedir.exists()) {
@@ -90,6 +173,56 @@ public class DirectoryResourceManager extends AbstractResourceManager {
         return new FileInputStream(resourceFile);
     }
 
+    /**
+     * Reads the whole file in one go, into an array sized from the file's length.
+     */
+    @Override
+    public byte[] getResourceBytes(String resourceName) throws IOException {
+        File resourceFile = new File(basedir, resourceName);
+        InputStream in = getResourceAsStream(resourceName);
+        try {
+            return ResourceUtils.readAllBytes(in, (int) resourceFile.length());
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Memory-maps large files if memory mapping is on; otherwise reads the
+     * file into a heap buffer.
+     */
+    @Override
+    public ByteBuffer getResourceBuffer(String resourceName) throws IOException {
+        File resourceFile = new File(basedir, resourceName);
+        if (!memoryMapping || resourceFile.length() < MIN_MAPPED_SIZE) {
+            return ByteBuffer.wrap(getResourceBytes(resourceName)).asReadOnlyBuffer();
+        }
+        debug("Mapping "+resourceFile.getAbsolutePath());
+        FileInputStream in = (FileInputStream) getResourceAsStream(resourceName);
+        try {
+            FileChannel ch = in.getChannel();
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Turns memory mapping of large files by {@link #getResourceBuffer(String)}
+     * on or off.  Only turn it on for directories nothing will write to while
+     * they are in use: a mapping stays open until it is garbage collected,
+     * and on some platforms an open mapping stops the file from being
+     * written, renamed or deleted.  That rules out project directories open
+     * in the editor, which is why it is off by default.
+     */
+    public void setMemoryMapping(boolean memoryMapping) {
+        this.memoryMapping = memoryMapping;
+    }
+    
+    public boolean isMemoryMapping() {
+        return memoryMapping;
+    }
+
     /* docs come from interface */
     public void createDirectory(String targetDir, String newDirName) throws IOException {
         if (!targetDir.endsWith("/")) {
@@ -109,6 +242,7 @@ public class DirectoryResourceManager extends AbstractResourceManager {
         if (!newDir.mkdir()) {
             throw new IOException("Could not create resource directory \"" + newDirPath + "\".");
         }
+        noteChange(newDirPath + "/");
         fireResourceAdded(targetDir, newDirName + "/");
     }
 
@@ -165,7 +299,59 @@ public class DirectoryResourceManager extends AbstractResourceManager {
                     "Resource \""+path+"\" cannot be written because it" +
                     " does not exist, and I was instructed not to create it.");
         }
-        return new FileOutputStream(resourceFile);
+        final boolean existed = resourceFile.exists();
+        final String resourcePath = path;
+        writeStarted(path);
+        FileOutputStream fout;
+        try {
+            fout = new FileOutputStream(resourceFile);
+        } catch (IOException ex) {
+            writeFinished(path);
+            throw ex;
+        }
+        return new FilterOutputStream(fout) {
+            private boolean closed;
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    writeFinished(resourcePath);
+                }
+                if (!existed) {
+                    fireResourceAdded(parentPath(resourcePath), resourceName(resourcePath));
+                }
+            }
+        };
+    }
+    
+    /**
+     * Tells the watcher to leave the given resource alone until the matching
+     * call to {@link #writeFinished(String)}.
+     */
+    private synchronized void writeStarted(String path) {
+        Integer count = openWrites.get(path);
+        openWrites.put(path, count == null ? 1 : count + 1);
+    }
+    
+    /**
+     * Records the state of a resource that has just been written, and lets the
+     * watcher look at it again once no other write streams are open on it.
+     */
+    private synchronized void writeFinished(String path) {
+        int count = openWrites.get(path);
+        if (count == 1) {
+            openWrites.remove(path);
+        } else {
+            openWrites.put(path, count - 1);
+        }
+        noteChange(path);
     }
 
     
@@ -179,6 +365,8 @@ public class DirectoryResourceManager extends AbstractResourceManager {
             throw new IOException("Couldn't delete resource \""+path+"\" " +
                     "(exists="+exists+", canWrite="+canWrite+", isDir="+isDir+")");
         }
+        noteChange(path);
+        fireResourceRemoved(parentPath(path), resourceName(path));
     }
     
 
@@ -186,4 +374,160 @@ public class DirectoryResourceManager extends AbstractResourceManager {
         File f = new File(basedir, path);
         return f.exists();
     }
+
+    /**
+     * Stops watching the directory (if it was being watched) and closes this
+     * resource manager.
+     */
+    @Override
+    public void close() throws IOException {
+        stopWatching();
+        super.close();
+    }
+
+    // ------------------ Watching for outside changes ----------------------
+    
+    /**
+     * Starts scanning the directory for changes made by other programs every
+     * <tt>interval</tt> milliseconds.  Any differences found are reported to
+     * this resource manager's listeners as resource added, removed, and
+     * changed events.  The events are delivered on the watcher thread, not
+     * the Swing event dispatch thread.  If the directory is already being
+     * watched, this method has no effect.
+     */
+    public synchronized void startWatching(final long interval) {
+        if (watcher != null) return;
+        watchState = scan();
+        watcher = new Thread("Resource directory watcher for "+basedir) {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        sleep(interval);
+                        checkForChanges();
+                    }
+                } catch (InterruptedException ex) {
+                    debug("Watcher for "+basedir+" stopped");
+                }
+            }
+        };
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+    
+    /**
+     * Stops watching the directory for changes.  If the directory isn't being
+     * watched, this method has no effect.
+     */
+    public synchronized void stopWatching() {
+        if (watcher == null) return;
+        watcher.interrupt();
+        watcher = null;
+        watchState = null;
+    }
+    
+    /**
+     * Returns true if the directory is being watched for changes.
+     */
+    public synchronized boolean isWatching() {
+        return watcher != null;
+    }
+    
+    /**
+     * Scans the directory and fires events for everything that has changed
+     * since the last scan.  Normally called by the watcher thread, but it can
+     * be called directly to check for changes right away.  Resources that
+     * have write streams open through this resource manager are skipped until
+     * the streams are closed.
+     */
+    public void checkForChanges() {
+        List<String> added = new ArrayList<String>();
+        List<String> removed = new ArrayList<String>();
+        List<String> changed = new ArrayList<String>();
+        synchronized (this) {
+            if (watchState == null) return;
+            
+            // scanning under the lock means no write can finish halfway through the scan
+            Map<String, FileState> newState = scan();
+            for (String path : openWrites.keySet()) {
+                FileState old = watchState.get(path);
+                if (old == null) {
+                    newState.remove(path);
+                } else {
+                    newState.put(path, old);
+                }
+            }
+            for (Map.Entry<String, FileState> e : newState.entrySet()) {
+                FileState old = watchState.get(e.getKey());
+                if (old == null) {
+                    added.add(e.getKey());
+                } else if (!e.getValue().isDirectory() && !old.equals(e.getValue())) {
+                    changed.add(e.getKey());
+                }
+            }
+            for (String path : watchState.keySet()) {
+                if (!newState.containsKey(path)) {
+                    removed.add(path);
+                }
+            }
+            watchState = newState;
+        }
+        
+        // parents are announced before their children, and removed after them
+        Collections.sort(added);
+        Collections.sort(removed, Collections.reverseOrder());
+        for (String path : removed) {
+            debug("Watcher: removed "+path);
+            fireResourceRemoved(parentPath(path), resourceName(path));
+        }
+        for (String path : added) {
+            debug("Watcher: added "+path);
+            fireResourceAdded(parentPath(path), resourceName(path));
+        }
+        for (String path : changed) {
+            debug("Watcher: changed "+path);
+            fireResourceChanged(parentPath(path), resourceName(path));
+        }
+    }
+    
+    /**
+     * Records the current state of the given resource (which has just been
+     * changed through this resource manager), so the watcher won't report
+     * the change again.
+     */
+    private synchronized void noteChange(String path) {
+        if (watchState == null) return;
+        File f = new File(basedir, path);
+        String key = f.isDirectory() && !path.endsWith("/") ? path + "/" : path;
+        if (f.exists()) {
+            watchState.put(key, new FileState(f));
+        } else {
+            watchState.remove(key);
+            watchState.remove(key.endsWith("/") ? key : key + "/");
+        }
+    }
+    
+    /**
+     * Returns the current state of every file and directory under the base
+     * directory.
+     */
+    private Map<String, FileState> scan() {
+        Map<String, FileState> state = new HashMap<String, FileState>();
+        scan(basedir, "", state);
+        return state;
+    }
+    
+    private static void scan(File dir, String path, Map<String, FileState> state) {
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        for (File f : children) {
+            if (f.isDirectory()) {
+                String dirPath = path + f.getName() + "/";
+                state.put(dirPath, new FileState(f));
+                scan(f, dirPath, state);
+            } else {
+                state.put(path + f.getName(), new FileState(f));
+            }
+        }
+    }
 }
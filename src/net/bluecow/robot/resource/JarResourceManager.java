@@ -38,17 +38,40 @@ package net.bluecow.robot.resource;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
-public class JarResourceManager extends AbstractResourceManager {
+/**
+ * A resource manager whose initial contents come from a JAR file. The JAR
+ * is read in place: opening it only reads its table of contents, and
+ * resources are decompressed from the JAR when they are asked for.
+ * <p>
+ * Changes are kept in a write overlay.  Resources that are written, and
+ * directories that are created, go into a temporary directory (which isn't
+ * created until the first change), and removed JAR entries are hidden
+ * rather than deleted.  The JAR file itself is never modified; use
+ * {@link ResourceUtils#createResourceJar(ListableResourceLoader, File)} to
+ * save the combined contents.
+ * <p>
+ * Content-addressed JARs (see {@link ContentIndex}) are supported: every
+ * resource in the JAR's content index is listed, and reading one that
+ * shares its contents with another resource reads the stored copy.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class JarResourceManager extends AbstractResourceManager implements ContentAddressable {
 
     /**
      * Controls the debugging features of this class.
@@ -63,121 +86,415 @@ public class JarResourceManager extends AbstractResourceManager {
     }
     
     /**
-     * A filter that excludes the JAR manifest from the files being extracted.
-     * If we extract the manifest and include it in the resource list, then
-     * creating a JAR of this resource manager's contents will fail due to
-     * a duplicate entry name exception.
+     * A filter that excludes the JAR manifest from the resources being listed.
+     * If we include the manifest in the resource list, then creating a JAR of
+     * this resource manager's contents will fail due to a duplicate entry
+     * name exception.
      */
     private static ResourceNameFilter jarJunkFilter =
         new RegexResourceNameFilter("META-INF/MANIFEST.MF", true);
     
     /**
-     * The temporary directory where the jar file contents have been
-     * unpacked so we can manipulate them.
+     * The file {@link #jar} is opened from.
+     */
+    private final File jarFile;
+    
+    /**
+     * The JAR file this resource manager's initial contents are read from.
+     * Only replaced by {@link #replaceJar(File)}.
+     */
+    private ZipFile jar;
+    
+    /**
+     * If the JAR had to be copied out of a class loader resource, this is the
+     * copy, which gets deleted when this resource manager is closed.
+     * Otherwise null.
+     */
+    private final File tempJarFile;
+    
+    /**
+     * The names of all the resources in the JAR.  Directory names end with
+     * a slash, and every directory that contains an entry is listed, whether
+     * or not the JAR has an entry for the directory itself.
+     */
+    private final SortedSet<String> jarEntries = new TreeSet<String>();
+    
+    /**
+     * JAR entries that have been removed from this resource manager.
+     */
+    private final Set<String> removed = new HashSet<String>();
+    
+    /**
+     * The JAR's content index, or null if it isn't a content-addressed JAR.
+     */
+    private ContentIndex contentIndex;
+    
+    /**
+     * The temporary directory that holds resources that have been written or
+     * created since the JAR was opened.  Null until the first change.
      */
-    private File dir;
+    private File overlayDir;
     
     /**
-     * Once the JAR file has been unpacked, this DirectoryResourceManager does all the
-     * heavy lifting for us.
+     * Manages the contents of {@link #overlayDir}.  Null until the first change.
      */
-    private final DirectoryResourceManager delegate;
+    private DirectoryResourceManager overlay;
 
     /**
      * Creates a new ResourceManager whose contents are populated initially from
      * a JAR file in the filesystem.
      * 
-     * @param jar The JAR file to extract the initial set of resources from.
-     * @throws IOException If there is a problem opening or extracting from
-     * the JAR.
+     * @param jar The JAR file to read the initial set of resources from.
+     * @throws IOException If there is a problem opening the JAR.
      */
     public JarResourceManager(File jar) throws IOException {
-        dir = createTempDir();
-        unjar(jar, dir);
-        delegate = new DirectoryResourceManager(dir);
+        this(jar, false);
     }
 
     /**
      * Creates a new ResourceManager whose contents are populated initially from
-     * a JAR file which is available as a classloader resource.
+     * a JAR file which is available as a classloader resource.  Since the JAR
+     * isn't necessarily a file, it is copied to a temporary file first.
      * 
      * @param classLoader The class loader to read the resource from
      * @param resourcePath The resource's path within the given classloader's
      * namespace.
-     * @throws IOException If there is a problem opening or extracting from
-     * the JAR.
+     * @throws IOException If there is a problem copying or opening the JAR.
      */
     public JarResourceManager(ClassLoader classLoader, String resourcePath) throws IOException {
-        dir = createTempDir();
-        JarInputStream jin =
-            new JarInputStream(classLoader.getResourceAsStream(resourcePath));
-        JarEntry je;
-        while ( (je = jin.getNextJarEntry()) != null ) {
-            String path = je.getName();
-            if (!jarJunkFilter.accepts(path)) {
-                continue;
+        this(copyToTempFile(classLoader, resourcePath), true);
+    }
+    
+    /**
+     * @param jarFile The JAR file to read
+     * @param temporary True if the JAR file should be deleted when this
+     * resource manager is closed
+     */
+    private JarResourceManager(File jarFile, boolean temporary) throws IOException {
+        this.jarFile = jarFile;
+        this.tempJarFile = temporary ? jarFile : null;
+        openJar();
+    }
+    
+    /**
+     * Opens {@link #jarFile} and reads its table of contents and content index.
+     */
+    private void openJar() throws IOException {
+        jar = new ZipFile(jarFile);
+        contentIndex = ContentIndex.read(jar);
+        jarEntries.clear();
+        for (Enumeration<? extends ZipEntry> e = jar.entries(); e.hasMoreElements(); ) {
+            addJarEntry(e.nextElement().getName());
+        }
+        if (contentIndex != null) {
+            for (String name : contentIndex.getPaths()) {
+                addJarEntry(name);
             }
-            File resourceFile = new File(dir, path);
-            if (je.isDirectory()) {
-                debug("Creating resource directory "+resourceFile.getAbsolutePath());
-                resourceFile.mkdir();
-            } else {
-                debug("Creating resource file "+resourceFile.getAbsolutePath());
-                OutputStream out = new FileOutputStream(resourceFile);
-                byte[] buffer = new byte[1024];
-                int len;
-                while ( (len = jin.read(buffer)) != -1 ) {
-                    out.write(buffer, 0, len);
-                }
-                out.flush();
-                out.close();
+        }
+        debug("Opened "+jarFile+" with "+jarEntries.size()+" resources");
+    }
+    
+    /**
+     * Returns true if the given file is the JAR this resource manager reads from.
+     */
+    boolean isReadingFrom(File file) {
+        return jarFile.getAbsoluteFile().equals(file.getAbsoluteFile());
+    }
+    
+    /**
+     * Replaces the JAR this resource manager reads from with the given file,
+     * which must hold all of this resource manager's current contents (as
+     * written by {@link ResourceUtils#createResourceJar(ListableResourceLoader, File, boolean)}).
+     * The old JAR is closed first, because some platforms won't replace a
+     * file that is open, and the new one is opened in its place.  This must
+     * not be called while other threads are reading from this resource manager.
+     * 
+     * @throws IOException if the file can't be replaced (see
+     * {@link ResourceUtils#replaceFile(File, File)}), or the new JAR can't
+     * be opened
+     */
+    synchronized void replaceJar(File newJar) throws IOException {
+        checkClosed();
+        jar.close();
+        try {
+            ResourceUtils.replaceFile(newJar, jarFile);
+        } finally {
+            // if the old JAR is gone and the new one didn't take its place, there's nothing to reopen
+            if (jarFile.exists()) {
+                openJar();
             }
         }
-        jin.close();
-        
-        delegate = new DirectoryResourceManager(dir);
     }
     
+    /**
+     * Adds the given resource and all the directories above it to
+     * {@link #jarEntries}, unless it is rejected by the {@link #jarJunkFilter}
+     * or is the JAR's content index.
+     */
+    private void addJarEntry(String name) {
+        if (!jarJunkFilter.accepts(name) || name.equals(ContentIndex.PATH)) {
+            debug("Skipping JAR entry "+name+" (rejected by filter)");
+            return;
+        }
+        jarEntries.add(name);
+        for (int slash = name.indexOf('/'); slash >= 0 && slash < name.length() - 1;
+                slash = name.indexOf('/', slash + 1)) {
+            jarEntries.add(name.substring(0, slash + 1));
+        }
+    }
     
-    // ------------------ Interface Methods (delegated to DirectoryResourceManager) ---------------------
+    private static File copyToTempFile(ClassLoader classLoader, String resourcePath) throws IOException {
+        InputStream in = classLoader.getResourceAsStream(resourcePath);
+        if (in == null) {
+            throw new FileNotFoundException("Can't locate resource '"+resourcePath+"' on classpath");
+        }
+        File f = File.createTempFile("robotmp_", ".jar");
+        try {
+            ResourceUtils.copyToFile(in, f);
+        } finally {
+            in.close();
+        }
+        return f;
+    }
+    
+    // ------------------ Interface Methods ---------------------
     
     public void close() throws IOException {
-        delegate.close();
         super.close();
-        recursiveRmdir(dir);
+        jar.close();
+        if (overlay != null) {
+            overlay.close();
+            recursiveRmdir(overlayDir);
+        }
+        if (tempJarFile != null) {
+            tempJarFile.delete();
+        }
     }
     
     public void createDirectory(String targetDir, String newDirName) throws IOException {
-        delegate.createDirectory(targetDir, newDirName);
+        checkClosed();
+        targetDir = dirPath(targetDir);
+        if (newDirName.contains("/")) {
+            throw new IOException(
+                    "New resource directory name \""+newDirName+"\" not valid: it contains the / character.");
+        }
+        if (!resourceExists(targetDir)) {
+            throw new IOException("Target resource directory \"" + targetDir + "\" does not exist.");
+        }
+        String newDirPath = targetDir + newDirName;
+        if (resourceExists(newDirPath)) {
+            throw new IOException("Could not create resource directory \"" + newDirPath + "\".");
+        }
+        File newDir = new File(getOverlayDir(), newDirPath);
+        if (!newDir.mkdirs()) {
+            throw new IOException("Could not create resource directory \"" + newDirPath + "\".");
+        }
+        removed.remove(newDirPath + "/");
+        fireResourceAdded(targetDir.length() == 0 ? "/" : targetDir, newDirName + "/");
     }
 
     public InputStream getResourceAsStream(String resourceName) throws IOException {
-        return delegate.getResourceAsStream(resourceName);
+        if (isOverlayFile(resourceName)) {
+            return overlay.getResourceAsStream(resourceName);
+        }
+        return jar.getInputStream(getJarEntry(resourceName));
     }
 
+    /**
+     * Reads the whole resource in one go, into an array sized from the
+     * resource's length.
+     */
+    @Override
+    public byte[] getResourceBytes(String resourceName) throws IOException {
+        if (isOverlayFile(resourceName)) {
+            return overlay.getResourceBytes(resourceName);
+        }
+        ZipEntry entry = getJarEntry(resourceName);
+        InputStream in = jar.getInputStream(entry);
+        try {
+            return ResourceUtils.readAllBytes(in, (int) entry.getSize());
+        } finally {
+            in.close();
+        }
+    }
+    
+    @Override
+    public ByteBuffer getResourceBuffer(String resourceName) throws IOException {
+        if (isOverlayFile(resourceName)) {
+            return overlay.getResourceBuffer(resourceName);
+        }
+        return super.getResourceBuffer(resourceName);
+    }
+    
     public List<String> list(String path, ResourceNameFilter filter) throws IOException {
-        return delegate.list(path, filter);
+        checkClosed();
+        String dir = dirPath(path);
+        if (!resourceExists(dir)) {
+            throw new IOException("No such resource directory: \""+dir+"\"");
+        }
+        SortedSet<String> children = new TreeSet<String>();
+        for (String entry : jarEntries.tailSet(dir)) {
+            if (!entry.startsWith(dir)) break;
+            String rest = entry.substring(dir.length());
+            if (rest.length() == 0) continue;
+            int slash = rest.indexOf('/');
+            children.add(slash < 0 ? entry : dir + rest.substring(0, slash + 1));
+        }
+        if (overlay != null && overlay.resourceExists(dir)) {
+            children.addAll(overlay.list(dir, null));
+        }
+        return filter(children, filter);
     }
 
     public List<String> listAll(ResourceNameFilter filter) throws IOException {
-        return delegate.listAll(filter);
+        checkClosed();
+        SortedSet<String> all = new TreeSet<String>(jarEntries);
+        if (overlay != null) {
+            all.addAll(overlay.listAll(null));
+        }
+        return filter(all, filter);
     }
 
     public OutputStream openForWrite(String path, boolean create) throws IOException {
-        return delegate.openForWrite(path, create);
+        checkClosed();
+        if (!create && !resourceExists(path)) {
+            throw new FileNotFoundException(
+                    "Resource \""+path+"\" cannot be written because it" +
+                    " does not exist, and I was instructed not to create it.");
+        }
+        int lastSlash = path.lastIndexOf('/');
+        if (lastSlash > 0) {
+            new File(getOverlayDir(), path.substring(0, lastSlash)).mkdirs();
+        }
+        boolean existed = resourceExists(path);
+        removed.remove(path);
+        debug("Writing "+path+" to the overlay");
+        OutputStream out = getOverlay().openForWrite(path, true);
+        if (!existed) {
+            fireResourceAdded(parentPath(path), resourceName(path));
+        }
+        return out;
     }
 
     public void remove(String path) throws IOException {
-        delegate.remove(path);
+        checkClosed();
+        if (!resourceExists(path)) {
+            throw new FileNotFoundException("No such resource \""+path+"\"");
+        }
+        String dir = dirPath(path);
+        if (resourceExists(dir) && !list(dir, null).isEmpty()) {
+            throw new IOException("Couldn't delete resource \""+path+"\" (it is a non-empty directory)");
+        }
+        if (overlay != null && overlay.resourceExists(path)) {
+            overlay.remove(path);
+        }
+        if (jarEntries.contains(path)) {
+            removed.add(path);
+        }
+        if (!path.endsWith("/") && jarEntries.contains(path + "/")) {
+            removed.add(path + "/");
+        }
+        fireResourceRemoved(parentPath(path), resourceName(path));
     }
 
+    /**
+     * Returns the content hash recorded in the JAR's content index for the
+     * named resource, as long as it hasn't been changed since the JAR was
+     * opened.
+     */
+    public String getContentHash(String resourceName) {
+        if (contentIndex == null || isOverlayFile(resourceName) || removed.contains(resourceName)) {
+            return null;
+        }
+        return contentIndex.getHash(resourceName);
+    }
+    
     public boolean resourceExists(String path) {
-        return delegate.resourceExists(path);
-    }    
+        if (path.length() == 0 || path.equals("/")) return true;
+        String file = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        String dir = file + "/";
+        if (overlay != null && overlay.resourceExists(file)) return true;
+        return (jarEntries.contains(file) && !removed.contains(file)) ||
+               (jarEntries.contains(dir) && !removed.contains(dir));
+    }
     
 
     // ------------------ Helper Methods ----------------------
 
+    /**
+     * Returns the given path with a trailing slash, or the empty string
+     * if it denotes the root directory.
+     */
+    private static String dirPath(String path) {
+        if (path.length() == 0 || path.equals("/")) return "";
+        return path.endsWith("/") ? path : path + "/";
+    }
+    
+    /**
+     * Returns true if the given resource is a regular resource in the overlay.
+     */
+    private boolean isOverlayFile(String resourceName) {
+        return overlay != null && new File(overlayDir, resourceName).isFile();
+    }
+    
+    /**
+     * Returns the JAR entry for the given regular resource.
+     * 
+     * @throws FileNotFoundException if there is no such resource, or it has
+     * been removed
+     */
+    private ZipEntry getJarEntry(String resourceName) throws IOException {
+        checkClosed();
+        ZipEntry entry = null;
+        if (!removed.contains(resourceName) && jarEntries.contains(resourceName)) {
+            entry = jar.getEntry(resourceName);
+            if (entry == null && contentIndex != null) {
+                String storedPath = contentIndex.getStoredPath(resourceName);
+                if (storedPath != null) {
+                    entry = jar.getEntry(storedPath);
+                }
+            }
+        }
+        if (entry == null || entry.isDirectory()) {
+            throw new FileNotFoundException(
+                    "Resource '"+resourceName+"' not found in JAR file "+jar.getName());
+        }
+        return entry;
+    }
+    
+    /**
+     * Returns the resources in the given set that haven't been removed and
+     * are accepted by the given filter.
+     */
+    private List<String> filter(SortedSet<String> resources, ResourceNameFilter filter) {
+        List<String> retval = new ArrayList<String>();
+        for (String resource : resources) {
+            if (removed.contains(resource)) continue;
+            if (filter == null || filter.accepts(resource)) {
+                retval.add(resource);
+            }
+        }
+        return retval;
+    }
+    
+    private File getOverlayDir() {
+        getOverlay();
+        return overlayDir;
+    }
+    
+    /**
+     * Returns the overlay resource manager, creating it and its directory
+     * first if necessary.
+     */
+    private DirectoryResourceManager getOverlay() {
+        if (overlay == null) {
+            overlayDir = createTempDir();
+            debug("Created overlay directory "+overlayDir.getAbsolutePath());
+            overlay = new DirectoryResourceManager(overlayDir);
+        }
+        return overlay;
+    }
+    
     /**
      * Deletes the given directory and all of its contents, including
      * any nested directories.
@@ -193,62 +510,6 @@ public class JarResourceManager extends AbstractResourceManager {
         dir.delete();
     }
     
-    /**
-     * Extracts all the files in the given JAR file to the target
-     * directory (and subdirectories thereof).
-     * 
-     * @param jar The input JAR file
-     * @param dir The base directory to store the extracted files into
-     * @throws IOException If there are problems either reading the JAR or
-     * writing the extracted files
-     * @throws FileNotFoundException If the specified JAR file does not exist
-     */
-    private final static void unjar(File jar, File dir) throws IOException, FileNotFoundException {
-        JarFile jf = new JarFile(jar);
-        for (Enumeration<JarEntry> e = jf.entries() ; e.hasMoreElements() ;) {
-            final JarEntry jarEntry = e.nextElement();
-            final File outFile = new File(dir, jarEntry.getName());
-            debug("JarEntry: " + jarEntry.getName() + "; outFile: " + outFile);
-            if (!jarJunkFilter.accepts(jarEntry.getName())) {
-                debug("  skipping (rejected by filter)");
-                continue;
-            }
-            if (jarEntry.isDirectory()) {
-                debug("  making dir");
-                outFile.mkdirs();
-                continue;
-            }
-            InputStream in = null;
-            OutputStream out = null;
-            try {
-                debug("  extracting file");
-                in = jf.getInputStream(jarEntry);
-                out = new FileOutputStream(outFile);
-                int count;
-                byte[] buf = new byte[8192];
-                while ( (count = in.read(buf)) > 0 ) {
-                    out.write(buf, 0, count);
-                }
-                out.flush();
-            } finally {
-                if (in != null) {
-                    try {
-                        in.close();
-                    } catch (IOException ex) {
-                        System.err.println("Couldn't close input stream"); ex.printStackTrace();
-                    }
-                }
-                if (out != null) {
-                    try {
-                        out.close();
-                    } catch (IOException ex) {
-                        System.err.println("Couldn't close output stream"); ex.printStackTrace();
-                    }
-                }
-            }
-        }
-    }
-
     /**
      * Creates a new directory inside the system's "java.io.tmpdir" area.
      * Some attempt is made to ensure the name of the created directory
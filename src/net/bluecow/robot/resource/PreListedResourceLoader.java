@@ -38,15 +38,23 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 /**
  * The PreListedResourceLoader wraps a ResourceLoader with the ability to produce
  * listings of its resources.  It does this by consulting a resource file which
  * contains a list of all contents within that resource loader.
+ * <p>
+ * The listing can be a binary {@link ResourceListIndex} (as produced by the
+ * resourcelist Ant task), which is used directly from the buffer the delegate
+ * loader returns, or a text file with one path per line, which is converted
+ * to an index in memory when the loader is created.  Either way,
+ * {@link #listAll(ResourceNameFilter)} returns exactly the listed paths, but
+ * directories that are only implied by the paths inside them can still be
+ * listed with {@link #list(String, ResourceNameFilter)}.
  *
  * @author fuerth
  * @version $Id:$
@@ -72,9 +80,9 @@ public class PreListedResourceLoader implements ListableResourceLoader {
     private final ResourceLoader loader;
 
     /**
-     * The set of contents reported by this resource loader.
+     * The contents reported by this resource loader.
      */
-    private final SortedSet<String> contents;
+    private final ResourceListIndex contents;
     
     /**
      * Creates a new PreListedResourceLoader that loads its resources from the
@@ -94,11 +102,12 @@ public class PreListedResourceLoader implements ListableResourceLoader {
         }
         this.loader = loader;
         
-        InputStream listingStream = loader.getResourceAsStream(listPath);
-        try {
-            this.contents = parseResourceList(listingStream);
-        } finally {
-            listingStream.close();
+        ByteBuffer listing = loader.getResourceBuffer(listPath);
+        if (ResourceListIndex.isIndex(listing)) {
+            this.contents = new ResourceListIndex(listing);
+        } else {
+            this.contents = ResourceListIndex.create(
+                    parseResourceList(new ByteBufferInputStream(listing)));
         }
     }
 
@@ -109,11 +118,11 @@ public class PreListedResourceLoader implements ListableResourceLoader {
      * a new instance of this class and get the listing information that way.
      * 
      * @param in The input stream to read the list of resources from (text file, one item per line)
-     * @return A sorted set containing all of the resource names that were listed in the input stream
+     * @return A list containing all of the resource names that were listed in the input stream
      * @throws IOException If there are problems reading the stream
      */
-    private static SortedSet<String> parseResourceList(InputStream in) throws IOException {
-        SortedSet<String> contents = new TreeSet<String>();
+    private static List<String> parseResourceList(InputStream in) throws IOException {
+        List<String> contents = new ArrayList<String>();
         BufferedReader r = new BufferedReader(new InputStreamReader(in));
         String line = null;
         while ( (line = r.readLine()) != null ) {
@@ -140,29 +149,34 @@ public class PreListedResourceLoader implements ListableResourceLoader {
         return loader.getResourceBytes(resourceName);
     }
 
+    /**
+     * Passes on the request to the delegate loader only if the given
+     * resource path is in the resource listing.
+     */
+    public ByteBuffer getResourceBuffer(String resourceName) throws IOException {
+        resourceName = cleanPath(resourceName);
+        return loader.getResourceBuffer(resourceName);
+    }
+
     public List<String> list(String path) throws IOException {
         return list(path, null);
     }
 
+    /**
+     * Lists the direct children of the given directory.  The path is always
+     * taken to be a directory, whether or not it ends with a slash.
+     */
     public List<String> list(String path, ResourceNameFilter filter) throws IOException {
         path = cleanPath(path);
+        if (path.length() > 0 && !path.endsWith("/")) {
+            path += "/";
+        }
         debug("Listing path \""+path+"\"");
-        List<String> listing = new ArrayList<String>();
-        SortedSet<String> dirContents = contents.tailSet(path);
-        for (String p : dirContents) {
-            debug("  Considering \""+p+"\"");
-            if (!p.startsWith(path)) break;
-            debug("  It starts with path");
-            int nextSlash = p.indexOf('/', path.length() + 1);
-            if (nextSlash >= 0 && nextSlash != p.length() - 1) continue;
-            if (p.equals(path)) continue;
-            debug("  It's not in a subdirectory");
-            if (filter == null || filter.accepts(p)) {
-                debug("  It passes the filter. Adding to list.");
-                listing.add(p);
-            }
+        int entry = contents.indexOf(path);
+        if (entry < 0) {
+            return Collections.emptyList();
         }
-        return listing;
+        return contents.listChildren(entry, filter);
     }
 
     public List<String> listAll() throws IOException {
@@ -170,22 +184,16 @@ public class PreListedResourceLoader implements ListableResourceLoader {
     }
 
     public List<String> listAll(ResourceNameFilter filter) throws IOException {
-        List<String> listing = new ArrayList<String>();
-        for (String p : contents) {
-            if (filter == null || filter.accepts(p)) {
-                listing.add(p);
-            }
-        }
-        return listing;
+        return contents.listAll(filter);
     }
 
     public boolean resourceExists(String path) {
         path = cleanPath(path);
-        boolean exists = contents.contains(path);
+        boolean exists = contents.indexOf(path) >= 0;
         debug("Resource \""+path+"\" exists? " + exists);
         if (!exists) {
             // try again with trailing slash (in case it's a directory)
-            exists = contents.contains(path + "/");
+            exists = contents.indexOf(path + "/") >= 0;
         }
         return exists;
     }
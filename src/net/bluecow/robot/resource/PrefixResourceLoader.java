@@ -36,6 +36,7 @@ package net.bluecow.robot.resource;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A ResourceLoader implementation that applies a prefix to all the path
@@ -59,7 +60,7 @@ import java.io.InputStream;
  * @author fuerth
  * @version $Id:$
  */
-public class PrefixResourceLoader implements ResourceLoader {
+public class PrefixResourceLoader implements ResourceLoader, ContentAddressable {
     
     /**
      * The ResourceLoader that all the actual resource loading activity is
@@ -105,6 +106,27 @@ public class PrefixResourceLoader implements ResourceLoader {
         return loader.getResourceBytes(addPrefix(resourceName));
     }
 
+    /**
+     * Prepends the given resource path name as described in {@link #addPrefix()},
+     * then delegates the request to the resource loader that was given in the
+     * constructor.
+     */
+    public ByteBuffer getResourceBuffer(String resourceName) throws IOException {
+        return loader.getResourceBuffer(addPrefix(resourceName));
+    }
+
+    /**
+     * Prepends the given resource path name as described in {@link #addPrefix()},
+     * then asks the resource loader that was given in the constructor for the
+     * content hash, if it is {@link ContentAddressable}.
+     */
+    public String getContentHash(String resourceName) throws IOException {
+        if (loader instanceof ContentAddressable) {
+            return ((ContentAddressable) loader).getContentHash(addPrefix(resourceName));
+        }
+        return null;
+    }
+
     /**
      * Adds the prefix that was given in the constructor to the front of the
      * given resource name, returning the resultant string. Prefixes are
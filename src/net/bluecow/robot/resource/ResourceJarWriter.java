@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a JAR file whose entries have been compressed ahead of time, so
+ * that the expensive part of creating a JAR (deflating the entries) can be
+ * done on several threads at once.  Entries are prepared with
+ * {@link #prepare(String, byte[], boolean)}, which is thread safe, then
+ * written in order with {@link #write(Entry)}.
+ * <p>
+ * Entries whose names indicate an already-compressed format (PNG images,
+ * for example) are stored rather than deflated, as are entries that deflate
+ * to no smaller than their original size.
+ * <p>
+ * The output is a plain zip file with UTF-8 entry names and no manifest,
+ * just like the one JarOutputStream produces when it isn't given a
+ * manifest.  The Zip64 extensions are not supported, so the JAR can't have
+ * more than 65535 entries or be bigger than 4GB.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+class ResourceJarWriter {
+
+    /**
+     * File name extensions of formats that are already compressed, and
+     * don't get any smaller when they are deflated.
+     */
+    private static final String[] STORED_EXTENSIONS = {
+        ".png", ".gif", ".jpg", ".jpeg", ".ogg", ".mp3", ".jar", ".zip", ".gz"
+    };
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    /**
+     * A JAR entry whose contents have been compressed (or not) and
+     * checksummed, and are ready to be written.  Instances are immutable.
+     */
+    static class Entry {
+        private final String name;
+        private final byte[] nameBytes;
+        private final int method;
+        private final long crc;
+        private final int size;
+        private final byte[] data;
+        private final String contentHash;
+
+        private Entry(String name, int method, long crc, int size, byte[] data, String contentHash) {
+            this.name = name;
+            this.nameBytes = utf8(name);
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.contentHash = contentHash;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the content hash of this entry's uncompressed contents, or
+         * null if it wasn't asked for when the entry was prepared.
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+    }
+
+    /**
+     * An entry that has been written, as recorded in the central directory.
+     */
+    private static class WrittenEntry {
+        final Entry entry;
+        final long offset;
+
+        WrittenEntry(Entry entry, long offset) {
+            this.entry = entry;
+            this.offset = offset;
+        }
+    }
+
+    private final OutputStream out;
+
+    /**
+     * The number of bytes written to {@link #out} so far.
+     */
+    private long offset;
+
+    private final List<WrittenEntry> written = new ArrayList<WrittenEntry>();
+
+    /**
+     * The modification time recorded for every entry, in MS-DOS format.
+     */
+    private final int dosTime;
+
+    /**
+     * A scratch buffer for assembling headers.
+     */
+    private final byte[] header = new byte[46];
+
+    /**
+     * Creates a writer that writes a JAR to the given stream. The stream
+     * should be buffered.
+     */
+    ResourceJarWriter(OutputStream out) {
+        this.out = out;
+        this.dosTime = dosTime(Calendar.getInstance());
+    }
+
+    /**
+     * Prepares a directory entry. Directory names end with a slash.
+     */
+    static Entry directory(String name) {
+        return new Entry(name, STORED, 0, 0, new byte[0], null);
+    }
+
+    /**
+     * Prepares a regular entry with the given contents, deflating them unless
+     * the name indicates an already-compressed format.  This method can be
+     * called from any thread.
+     *
+     * @param hash True if the entry's content hash should be calculated too
+     */
+    static Entry prepare(String name, byte[] contents, boolean hash) {
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+        String contentHash = hash ? ResourceUtils.contentHash(contents) : null;
+        if (!isCompressedFormat(name) && contents.length > 0) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(contents);
+                deflater.finish();
+                byte[] buf = new byte[contents.length];
+                int len = 0;
+                while (!deflater.finished() && len < buf.length) {
+                    len += deflater.deflate(buf, len, buf.length - len);
+                }
+                if (deflater.finished() && len < contents.length) {
+                    byte[] data = new byte[len];
+                    System.arraycopy(buf, 0, data, 0, len);
+                    return new Entry(name, DEFLATED, crc.getValue(), contents.length, data, contentHash);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        return new Entry(name, STORED, crc.getValue(), contents.length, contents, contentHash);
+    }
+
+    /**
+     * Returns true if the given resource name has the file name extension
+     * of an already-compressed format.
+     */
+    static boolean isCompressedFormat(String name) {
+        String lower = name.toLowerCase();
+        for (String ext : STORED_EXTENSIONS) {
+            if (lower.endsWith(ext)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the given entry's local header and data.
+     */
+    void write(Entry e) throws IOException {
+        if (written.size() == 0xffff) {
+            throw new IOException("Too many entries for a resource JAR");
+        }
+        written.add(new WrittenEntry(e, offset));
+        putInt(header, 0, LOCAL_HEADER_SIG);
+        putShort(header, 4, VERSION);
+        putShort(header, 6, FLAG_UTF8);
+        putShort(header, 8, e.method);
+        putInt(header, 10, dosTime);
+        putInt(header, 14, (int) e.crc);
+        putInt(header, 18, e.data.length);
+        putInt(header, 22, e.size);
+        putShort(header, 26, e.nameBytes.length);
+        putShort(header, 28, 0);
+        writeBytes(header, 30);
+        writeBytes(e.nameBytes, e.nameBytes.length);
+        writeBytes(e.data, e.data.length);
+    }
+
+    /**
+     * Writes the central directory, then closes the underlying stream.
+     */
+    void close() throws IOException {
+        long centralOffset = offset;
+        for (WrittenEntry we : written) {
+            Entry e = we.entry;
+            putInt(header, 0, CENTRAL_HEADER_SIG);
+            putShort(header, 4, VERSION);
+            putShort(header, 6, VERSION);
+            putShort(header, 8, FLAG_UTF8);
+            putShort(header, 10, e.method);
+            putInt(header, 12, dosTime);
+            putInt(header, 16, (int) e.crc);
+            putInt(header, 20, e.data.length);
+            putInt(header, 24, e.size);
+            putShort(header, 28, e.nameBytes.length);
+            putShort(header, 30, 0);
+            putShort(header, 32, 0);
+            putShort(header, 34, 0);
+            putShort(header, 36, 0);
+            putInt(header, 38, 0);
+            putInt(header, 42, (int) we.offset);
+            writeBytes(header, 46);
+            writeBytes(e.nameBytes, e.nameBytes.length);
+        }
+        long centralSize = offset - centralOffset;
+        if (offset > 0xffffffffL) {
+            throw new IOException("Resource JAR is too big ("+offset+" bytes)");
+        }
+        putInt(header, 0, END_SIG);
+        putShort(header, 4, 0);
+        putShort(header, 6, 0);
+        putShort(header, 8, written.size());
+        putShort(header, 10, written.size());
+        putInt(header, 12, (int) centralSize);
+        putInt(header, 16, (int) centralOffset);
+        putShort(header, 20, 0);
+        writeBytes(header, 22);
+        out.close();
+    }
+
+    private void writeBytes(byte[] b, int len) throws IOException {
+        out.write(b, 0, len);
+        offset += len;
+    }
+
+    private static void putShort(byte[] b, int pos, int value) {
+        b[pos] = (byte) value;
+        b[pos + 1] = (byte) (value >> 8);
+    }
+
+    private static void putInt(byte[] b, int pos, int value) {
+        putShort(b, pos, value);
+        putShort(b, pos + 2, value >> 16);
+    }
+
+    /**
+     * Converts the given time to the MS-DOS date and time format zip files use.
+     */
+    private static int dosTime(Calendar c) {
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+            | (c.get(Calendar.MONTH) + 1) << 21
+            | c.get(Calendar.DAY_OF_MONTH) << 16
+            | c.get(Calendar.HOUR_OF_DAY) << 11
+            | c.get(Calendar.MINUTE) << 5
+            | c.get(Calendar.SECOND) >> 1;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (IOException ex) {
+            throw new RuntimeException("UTF-8 is always supported", ex);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.bluecow.robot.FileFormatException;
+
+/**
+ * A ResourceListIndex is the binary form of a resource listing, as used by
+ * {@link PreListedResourceLoader}. The listing is read straight out of a
+ * ByteBuffer (which may be memory-mapped), without parsing it into a
+ * collection first: looking up a path is a binary search, and listing a
+ * directory reads its children from a precomputed table, so it costs
+ * O(log n) plus the size of the directory rather than a scan of the whole
+ * listing.
+ * <p>
+ * Index files are created by {@link #write(Collection, OutputStream)}.  The
+ * layout is as follows (integers are big-endian):
+ * <pre>
+ *  header    4 byte magic (0x89 'R' 'L' 'I'), 1 byte version, 3 reserved bytes,
+ *            int entry count, int child table length
+ *  entries   one 16-byte record per path, sorted by name:
+ *              int name offset, int flags and name length,
+ *              int first child, int child count
+ *  children  the child table: entry numbers, grouped by parent directory
+ *  names     the path names, UTF-8 encoded, back to back
+ * </pre>
+ * Names are compared as unsigned UTF-8 byte strings.  Entry 0 is always the
+ * root directory, whose name is the empty string.  Directory names end with
+ * a slash, and each directory's "first child" is the position in the child
+ * table where the entry numbers of its direct children start (they are in
+ * sorted order).  Regular resources have a first child of -1 and a child
+ * count of 0.
+ * <p>
+ * Directories that contain listed paths but were not listed themselves are
+ * added to the index, so they can be looked up and show up in their
+ * parent's children, but they are flagged as implied (the top bit of the
+ * name length is set), and {@link #listAll(ResourceNameFilter)} leaves them
+ * out so it returns exactly the paths that were listed.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class ResourceListIndex {
+
+    private static final byte[] MAGIC = { (byte) 0x89, 'R', 'L', 'I' };
+
+    public static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 16;
+
+    /**
+     * The bit of a record's name length field that marks an entry which was
+     * not listed, but was added because it is the parent of one that was.
+     */
+    private static final int IMPLIED = 0x80000000;
+
+    /**
+     * The whole index. Its position and limit are never modified.
+     */
+    private final ByteBuffer buf;
+
+    /**
+     * The number of entries in this index, including the root directory.
+     */
+    private final int size;
+
+    /**
+     * The absolute offset of the child table in {@link #buf}.
+     */
+    private final int childTableOffset;
+
+    /**
+     * Returns true if the remaining bytes of the given buffer start with the
+     * resource list index magic number.  Listings that don't are assumed to be
+     * in the older text format (one path per line).
+     */
+    public static boolean isIndex(ByteBuffer buf) {
+        if (buf.remaining() < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buf.get(buf.position() + i) != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates a reader for the index contained in the remaining bytes of the
+     * given buffer. The buffer is not copied.
+     *
+     * @throws FileFormatException if the buffer doesn't hold a valid index
+     */
+    public ResourceListIndex(ByteBuffer index) throws FileFormatException {
+        this.buf = index.slice();
+        int length = buf.limit();
+        if (!isIndex(buf) || length < HEADER_SIZE) {
+            throw new FileFormatException("Not a resource list index", -1, null, 0);
+        }
+        int version = buf.get(MAGIC.length) & 0xff;
+        if (version != VERSION) {
+            throw new FileFormatException(
+                    "Unsupported resource list index version "+version+
+                    " (expected "+VERSION+")", -1, null, MAGIC.length);
+        }
+        size = buf.getInt(8);
+        int childTableLength = buf.getInt(12);
+        long childTableOffset = HEADER_SIZE + (long) size * RECORD_SIZE;
+        if (size < 1 || childTableLength < 0 ||
+                childTableOffset + (long) childTableLength * 4 > length) {
+            throw new FileFormatException("Resource list index is corrupt", -1, null, 8);
+        }
+        this.childTableOffset = (int) childTableOffset;
+    }
+
+    /**
+     * Returns the number of entries in this index, including the root directory.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the path name of the given entry.
+     */
+    public String getName(int entry) {
+        int rec = recordOffset(entry);
+        byte[] name = new byte[buf.getInt(rec + 4) & ~IMPLIED];
+        ByteBuffer b = buf.duplicate();
+        b.position(buf.getInt(rec));
+        b.get(name);
+        try {
+            return new String(name, "UTF-8");
+        } catch (IOException ex) {
+            throw new RuntimeException("UTF-8 is always supported", ex);
+        }
+    }
+
+    /**
+     * Returns true if the given entry was in the listing the index was made
+     * from, and false if it is a directory that was only implied by the paths
+     * inside it.
+     */
+    public boolean isListed(int entry) {
+        return (buf.getInt(recordOffset(entry) + 4) & IMPLIED) == 0;
+    }
+
+    /**
+     * Returns true if the given entry is a directory (including the root).
+     */
+    public boolean isDirectory(int entry) {
+        return buf.getInt(recordOffset(entry) + 8) >= 0;
+    }
+
+    /**
+     * Returns the index of the entry with the given path name, or a negative
+     * number if there is no such entry.
+     */
+    public int indexOf(String path) {
+        byte[] key = utf8(path);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int rec = recordOffset(mid);
+            int cmp = compareName(buf.getInt(rec), buf.getInt(rec + 4) & ~IMPLIED, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns the names of the direct children of the given directory entry
+     * that are accepted by the given filter, in sorted order.  Returns the
+     * empty list if the entry is not a directory.
+     *
+     * @param filter The filter to apply, or null to accept everything
+     */
+    public List<String> listChildren(int entry, ResourceNameFilter filter) {
+        int rec = recordOffset(entry);
+        int firstChild = buf.getInt(rec + 8);
+        int childCount = buf.getInt(rec + 12);
+        List<String> listing = new ArrayList<String>(childCount);
+        for (int i = 0; i < childCount; i++) {
+            String name = getName(buf.getInt(childTableOffset + (firstChild + i) * 4));
+            if (filter == null || filter.accepts(name)) {
+                listing.add(name);
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * Returns the names of all listed entries except the root that are
+     * accepted by the given filter, in sorted order.  Implied directories
+     * are not included.
+     *
+     * @param filter The filter to apply, or null to accept everything
+     */
+    public List<String> listAll(ResourceNameFilter filter) {
+        List<String> listing = new ArrayList<String>(size - 1);
+        for (int i = 1; i < size; i++) {
+            if (!isListed(i)) continue;
+            String name = getName(i);
+            if (filter == null || filter.accepts(name)) {
+                listing.add(name);
+            }
+        }
+        return listing;
+    }
+
+    private int recordOffset(int entry) {
+        if (entry < 0 || entry >= size) {
+            throw new IndexOutOfBoundsException("Entry "+entry+" (index has "+size+" entries)");
+        }
+        return HEADER_SIZE + entry * RECORD_SIZE;
+    }
+
+    /**
+     * Compares the name stored in the buffer at the given location with the
+     * given key, as unsigned bytes.
+     */
+    private int compareName(int nameOffset, int nameLength, byte[] key) {
+        int n = Math.min(nameLength, key.length);
+        for (int i = 0; i < n; i++) {
+            int diff = (buf.get(nameOffset + i) & 0xff) - (key[i] & 0xff);
+            if (diff != 0) return diff;
+        }
+        return nameLength - key.length;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (IOException ex) {
+            throw new RuntimeException("UTF-8 is always supported", ex);
+        }
+    }
+
+    /**
+     * Orders UTF-8 names the same way {@link ResourceListIndex#indexOf(String)} does.
+     */
+    private static final Comparator<byte[]> NAME_ORDER = new Comparator<byte[]>() {
+        public int compare(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; i++) {
+                int diff = (a[i] & 0xff) - (b[i] & 0xff);
+                if (diff != 0) return diff;
+            }
+            return a.length - b.length;
+        }
+    };
+
+    /**
+     * Returns the path of the directory that contains the given path,
+     * which is the empty string for entries in the root directory.
+     */
+    private static String parentOf(String path) {
+        int end = path.endsWith("/") ? path.length() - 1 : path.length();
+        return path.substring(0, path.lastIndexOf('/', end - 1) + 1);
+    }
+
+    /**
+     * Creates an index of the given resource paths in memory.  This is how
+     * listings in the old text format are read.
+     */
+    public static ResourceListIndex create(Collection<String> paths) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(paths, out);
+        return new ResourceListIndex(ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer());
+    }
+
+    /**
+     * Writes an index of the given resource paths to the given stream.  The
+     * paths may be in any order, and must not have a leading slash; directory
+     * paths must end with a slash.  Directories that contain listed paths but
+     * are not listed themselves are added to the index as implied entries.
+     * The stream is not closed.
+     */
+    public static void write(Collection<String> paths, OutputStream out) throws IOException {
+        Set<String> allPaths = new HashSet<String>();
+        allPaths.add("");
+        for (String path : paths) {
+            for (String p = path; allPaths.add(p); p = parentOf(p)) {
+                // adds the path and any missing parent directories
+            }
+        }
+
+        byte[][] names = new byte[allPaths.size()][];
+        int i = 0;
+        for (String path : allPaths) {
+            names[i++] = utf8(path);
+        }
+        Arrays.sort(names, NAME_ORDER);
+
+        // entry numbers of each directory's children, in sorted order
+        Map<String, Integer> entryNumbers = new HashMap<String, Integer>();
+        Map<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+        for (i = 0; i < names.length; i++) {
+            String path = new String(names[i], "UTF-8");
+            entryNumbers.put(path, i);
+            if (i == 0) continue;
+            Integer parent = entryNumbers.get(parentOf(path));
+            List<Integer> siblings = children.get(parent);
+            if (siblings == null) {
+                siblings = new ArrayList<Integer>();
+                children.put(parent, siblings);
+            }
+            siblings.add(i);
+        }
+
+        int childTableLength = names.length - 1;
+        int nameOffset = HEADER_SIZE + names.length * RECORD_SIZE + childTableLength * 4;
+        ByteBuffer index = ByteBuffer.allocate(nameOffset);
+        index.put(MAGIC);
+        index.put(new byte[] { (byte) VERSION, 0, 0, 0 });
+        index.putInt(names.length);
+        index.putInt(childTableLength);
+        int firstChild = 0;
+        Set<String> listed = new HashSet<String>(paths);
+        listed.add("");
+        for (i = 0; i < names.length; i++) {
+            index.putInt(nameOffset);
+            boolean implied = !listed.contains(new String(names[i], "UTF-8"));
+            index.putInt(implied ? names[i].length | IMPLIED : names[i].length);
+            nameOffset += names[i].length;
+            boolean directory = i == 0 || names[i][names[i].length - 1] == '/';
+            List<Integer> entryChildren = children.get(i);
+            int childCount = entryChildren == null ? 0 : entryChildren.size();
+            index.putInt(directory ? firstChild : -1);
+            index.putInt(childCount);
+            firstChild += childCount;
+        }
+        for (i = 0; i < names.length; i++) {
+            List<Integer> entryChildren = children.get(i);
+            if (entryChildren == null) continue;
+            for (Integer child : entryChildren) {
+                index.putInt(child);
+            }
+        }
+        out.write(index.array());
+        for (byte[] name : names) {
+            out.write(name);
+        }
+    }
+}
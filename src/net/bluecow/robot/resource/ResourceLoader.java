@@ -39,6 +39,7 @@ package net.bluecow.robot.resource;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * ResourceLoader is the interface for locating and retrieving resources from a
@@ -82,4 +83,21 @@ public interface ResourceLoader {
      * @throws IOException If another I/O error occurs while retrieving the resource
      */
     public byte[] getResourceBytes(String resourceName) throws IOException;
+    
+    /**
+     * Retrieves the contents of the named resource from this resource loader's
+     * storage system as a read-only byte buffer.  The buffer's position is 0
+     * and its limit is the length of the resource.  Depending on the
+     * implementation, the buffer may be a view of a memory-mapped file, so
+     * this is the cheapest way to get at a resource's contents when they
+     * don't have to be modified.
+     * 
+     * @param resourceName the path (relative to this resource loader's base)
+     * of the requested resource.  Path elements must be separated by forward
+     * slash, regardless of the local native platform's custom.
+     * @return A read-only buffer which contains the requested resource's data.
+     * @throws FileNotFoundException If the named resource does not exist
+     * @throws IOException If another I/O error occurs while retrieving the resource
+     */
+    public ByteBuffer getResourceBuffer(String resourceName) throws IOException;
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.resource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A sorted trie of resource paths, used by {@link CompoundResourceManager} to
+ * answer listing requests without asking the resource managers it combines.
+ * Each node is one path element; directory elements end with a slash, so
+ * children are kept in the same order as their full paths, and a pre-order
+ * walk of the trie visits every path in sorted order.
+ * <p>
+ * Paths follow the usual resource manager conventions, except that a
+ * leading slash is ignored.  The root directory can be given as "" or "/".
+ * Adding a path implicitly adds its parent directories.  All methods are
+ * thread safe.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+class ResourcePathIndex {
+
+    private static class Node {
+        
+        /**
+         * The full path of this node.  Directory paths end with a slash;
+         * the root's path is the empty string.
+         */
+        final String path;
+        
+        /**
+         * The children of this node, keyed by their last path element
+         * (including the trailing slash for directories).  Null for
+         * regular resources.
+         */
+        final TreeMap<String, Node> children;
+        
+        Node(String path) {
+            this.path = path;
+            this.children = path.length() == 0 || path.endsWith("/") ? new TreeMap<String, Node>() : null;
+        }
+    }
+    
+    private final Node root = new Node("");
+    
+    /**
+     * The result of {@link #listAll()}, or null if the index has changed
+     * since it was last computed.
+     */
+    private List<String> allPaths;
+    
+    /**
+     * Creates an index that holds the given paths.
+     */
+    ResourcePathIndex(Collection<String> paths) {
+        for (String path : paths) {
+            add(path);
+        }
+    }
+    
+    private static String clean(String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+    
+    /**
+     * Adds the given path, and any of its parent directories that aren't
+     * in the index yet.
+     */
+    synchronized void add(String path) {
+        path = clean(path);
+        Node node = root;
+        int start = 0;
+        while (start < path.length()) {
+            int slash = path.indexOf('/', start);
+            int end = slash < 0 ? path.length() : slash + 1;
+            String element = path.substring(start, end);
+            if (node.children == null) {
+                // a regular resource can't have children; ignore bogus paths
+                return;
+            }
+            Node child = node.children.get(element);
+            if (child == null) {
+                child = new Node(path.substring(0, end));
+                node.children.put(element, child);
+                allPaths = null;
+            }
+            node = child;
+            start = end;
+        }
+    }
+    
+    /**
+     * Removes the given path.  If it is a directory, everything in it is
+     * removed too.  Does nothing if the path isn't in the index.
+     */
+    synchronized void remove(String path) {
+        path = clean(path);
+        Node parent = findParent(path);
+        if (parent != null && parent.children != null) {
+            String element = path.substring(parent.path.length());
+            if (parent.children.remove(element) != null ||
+                    (!element.endsWith("/") && parent.children.remove(element + "/") != null)) {
+                allPaths = null;
+            }
+        }
+    }
+    
+    /**
+     * Returns true if the given path is in the index.  The trailing slash is
+     * optional for directories.
+     */
+    synchronized boolean contains(String path) {
+        return find(clean(path)) != null;
+    }
+    
+    /**
+     * Returns the full paths of the direct children of the given directory,
+     * in sorted order, or null if there is no such path in the index.  The
+     * trailing slash on the directory name is optional.  Regular resources
+     * have no children.
+     */
+    synchronized List<String> list(String path) {
+        Node node = find(clean(path));
+        if (node == null) return null;
+        if (node.children == null) return Collections.emptyList();
+        List<String> children = new ArrayList<String>(node.children.size());
+        for (Node child : node.children.values()) {
+            children.add(child.path);
+        }
+        return children;
+    }
+    
+    /**
+     * Returns every path in the index (except the root) in sorted order.
+     * The returned list is shared and must not be modified.
+     */
+    synchronized List<String> listAll() {
+        if (allPaths == null) {
+            List<String> paths = new ArrayList<String>();
+            addDescendants(root, paths);
+            allPaths = Collections.unmodifiableList(paths);
+        }
+        return allPaths;
+    }
+    
+    private static void addDescendants(Node node, List<String> paths) {
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            Node child = entry.getValue();
+            paths.add(child.path);
+            if (child.children != null) {
+                addDescendants(child, paths);
+            }
+        }
+    }
+    
+    /**
+     * Finds the node for the given (cleaned) path, trying it as a directory
+     * if it doesn't have a trailing slash and isn't a regular resource.
+     */
+    private Node find(String path) {
+        if (path.length() == 0) return root;
+        Node parent = findParent(path);
+        if (parent == null || parent.children == null) return null;
+        String element = path.substring(parent.path.length());
+        Node node = parent.children.get(element);
+        if (node == null && !element.endsWith("/")) {
+            node = parent.children.get(element + "/");
+        }
+        return node;
+    }
+    
+    /**
+     * Finds the node for the directory that contains the given (cleaned,
+     * non-root) path, or null if that directory isn't in the index.
+     */
+    private Node findParent(String path) {
+        int end = path.endsWith("/") ? path.length() - 1 : path.length();
+        Node node = root;
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0 && slash < end; slash = path.indexOf('/', start)) {
+            if (node.children == null) return null;
+            node = node.children.get(path.substring(start, slash + 1));
+            if (node == null) return null;
+            start = slash + 1;
+        }
+        return node;
+    }
+}
@@ -36,19 +36,32 @@
  */
 package net.bluecow.robot.resource;
 
-import java.io.BufferedInputStream;
+import java.awt.image.BufferedImage;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 import net.bluecow.robot.RobotUtils;
 import net.bluecow.robot.resource.url.ResourceURLStreamHandler;
@@ -107,6 +120,27 @@ public class ResourceUtils {
             resourceURLStreamHandler.setResourceLoader(loader);
         }
     }
+
+    /**
+     * Discards the resource contents cached by the <tt>resource:</tt> URL
+     * handler.  Call this after changing resources that may have been read
+     * through resource URLs (for example, images in level descriptions).
+     */
+    public static void invalidateResourceURLCache() {
+        if (resourceURLStreamHandler != null) {
+            resourceURLStreamHandler.invalidateCache();
+        }
+    }
+
+    /**
+     * Discards the contents of the named resource cached by the
+     * <tt>resource:</tt> URL handler.
+     */
+    public static void invalidateResourceURLCache(String path) {
+        if (resourceURLStreamHandler != null) {
+            resourceURLStreamHandler.invalidateCache(path);
+        }
+    }
     /**
      * Packs all resources in the given resource loader into a JAR file.
      * 
@@ -116,23 +150,171 @@ public class ResourceUtils {
      *            The location to store the created JAR file
      */
     public static void createResourceJar(ListableResourceLoader rm, File location) throws IOException {
-        JarOutputStream jout = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(location)));
-        List<String> resources = rm.listAll();
-        debug("About to create resource JAR. Entries:\n" + RobotUtils.listOnSeparateLines(resources));
-        for (String path : resources) {
-            jout.putNextEntry(new JarEntry(path));
-            if (!path.endsWith("/")) {
-                InputStream in = new BufferedInputStream(rm.getResourceAsStream(path));
-                byte[] buf = new byte[4096];
-                int count;
-                while ((count = in.read(buf)) != -1) {
-                    jout.write(buf, 0, count);
+        createResourceJar(rm, location, false);
+    }
+
+    /**
+     * Packs all resources in the given resource loader into a JAR file,
+     * optionally storing resources with identical contents only once.
+     * <p>
+     * A deduplicated JAR has a {@link ContentIndex} which lists the content
+     * hash of every regular resource; the contents of each distinct hash are
+     * stored under the first path that has them.  {@link JarResourceManager}
+     * and {@link ZipFileResourceLoader} read such JARs transparently.
+     * <p>
+     * The resources are read and compressed on a pool of worker threads (one
+     * per processor), and written to the JAR in order as they become ready.
+     * Resources in formats that are already compressed, such as PNG, are
+     * stored without being deflated again.
+     * 
+     * @param rm
+     *            The resource loader whose contents should be jarred. It will
+     *            be read from several threads at once.
+     * @param location
+     *            The location to store the created JAR file
+     * @param deduplicate
+     *            True if resources with the same contents should only be
+     *            stored once
+     */
+    public static void createResourceJar(final ListableResourceLoader rm, File location, final boolean deduplicate) throws IOException {
+        // the resources may be coming from the file we're replacing (see JarResourceManager),
+        // so the old file has to stay intact until the new one is complete
+        File tempFile = File.createTempFile("robotmp_", ".jar", location.getAbsoluteFile().getParentFile());
+        boolean replacing = location.exists();
+        boolean done = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Resource JAR compressor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            ResourceJarWriter jout = new ResourceJarWriter(
+                    new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+            try {
+                List<String> resources = rm.listAll();
+                debug("About to create resource JAR. Entries:\n" + RobotUtils.listOnSeparateLines(resources));
+                ContentIndex index = deduplicate ? new ContentIndex() : null;
+                
+                // keep a few entries per thread in flight, so memory use stays bounded
+                // no matter how big the JAR is
+                int window = threads * 4;
+                LinkedList<Future<ResourceJarWriter.Entry>> pending =
+                    new LinkedList<Future<ResourceJarWriter.Entry>>();
+                Iterator<String> it = resources.iterator();
+                while (it.hasNext() || !pending.isEmpty()) {
+                    while (it.hasNext() && pending.size() < window) {
+                        final String path = it.next();
+                        if (path.equals(ContentIndex.PATH)) continue;
+                        pending.add(workers.submit(new Callable<ResourceJarWriter.Entry>() {
+                            public ResourceJarWriter.Entry call() throws IOException {
+                                if (path.endsWith("/")) {
+                                    return ResourceJarWriter.directory(path);
+                                }
+                                return ResourceJarWriter.prepare(path, rm.getResourceBytes(path), deduplicate);
+                            }
+                        }));
+                    }
+                    if (pending.isEmpty()) break;
+                    ResourceJarWriter.Entry entry = getPreparedEntry(pending.removeFirst());
+                    if (index != null && entry.getContentHash() != null &&
+                            !index.add(entry.getName(), entry.getContentHash())) {
+                        debug("Not storing "+entry.getName()+" again (same contents as "+
+                                index.getStoredPath(entry.getName())+")");
+                        continue;
+                    }
+                    jout.write(entry);
                 }
-                in.close();
+                if (index != null) {
+                    debug("Stored "+index.getBlobCount()+" distinct contents for "+index.getPaths().size()+" resources");
+                    ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+                    index.write(indexBytes);
+                    jout.write(ResourceJarWriter.prepare(ContentIndex.PATH, indexBytes.toByteArray(), false));
+                }
+            } finally {
+                jout.close();
+            }
+            if (rm instanceof JarResourceManager && ((JarResourceManager) rm).isReadingFrom(location)) {
+                ((JarResourceManager) rm).replaceJar(tempFile);
+            } else {
+                replaceFile(tempFile, location);
             }
+            done = true;
+        } finally {
+            workers.shutdownNow();
+            
+            // once the old JAR is gone, the new one is the only copy left
+            boolean lostOriginal = replacing && !location.exists();
+            if (!done && !lostOriginal) tempFile.delete();
         }
-        jout.flush();
-        jout.close();
+    }
+
+    /**
+     * Moves the given new file into the place of the given target file.
+     * Some platforms won't rename a file over an existing one, so if the
+     * first attempt fails, the target is deleted and the rename tried again.
+     * If that fails too, the new file is left where it is, because it is
+     * then the only copy of the target's contents.
+     * 
+     * @throws IOException if the target couldn't be replaced. The message
+     * says where the new file was kept if the target had already been deleted.
+     */
+    static void replaceFile(File newFile, File target) throws IOException {
+        if (newFile.renameTo(target)) return;
+        if (!target.exists()) {
+            throw new IOException("Couldn't move "+newFile.getAbsolutePath()+" to "+target.getAbsolutePath());
+        }
+        if (!target.delete()) {
+            throw new IOException("Couldn't replace "+target.getAbsolutePath()+
+                    " (it could not be deleted)");
+        }
+        if (!newFile.renameTo(target)) {
+            throw new IOException("Couldn't move "+newFile.getAbsolutePath()+" to "+
+                    target.getAbsolutePath()+" after deleting the old file. The new "+
+                    "file has been kept at "+newFile.getAbsolutePath()+".");
+        }
+    }
+
+    /**
+     * Waits for a JAR entry to be prepared by one of the worker threads in
+     * {@link #createResourceJar(ListableResourceLoader, File, boolean)}, and
+     * rethrows whatever went wrong if it couldn't be.
+     */
+    private static ResourceJarWriter.Entry getPreparedEntry(Future<ResourceJarWriter.Entry> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while creating resource JAR");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Returns the content hash of the given resource contents: the SHA-1
+     * digest of the bytes, as 40 lowercase hexadecimal digits.
+     */
+    public static String contentHash(byte[] data) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException("SHA-1 is always supported", ex);
+        }
+        byte[] digest = md.digest(data);
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
     }
 
     /**
@@ -160,7 +342,7 @@ public class ResourceUtils {
      *             streams.
      */
     public static long copy(InputStream in, OutputStream out) throws IOException {
-        byte[] buf = new byte[4096];
+        byte[] buf = new byte[65536];
         long total = 0;
         int i;
         while ( (i = in.read(buf)) >= 0) {
@@ -170,6 +352,63 @@ public class ResourceUtils {
         return total;
     }
 
+    /**
+     * Reads everything that's left in the given input stream into a byte
+     * array, using bulk reads.  The stream is not closed.
+     * 
+     * @param in
+     *            The input stream to read from. It will be positioned at its
+     *            end-of-file if this method returns normally.
+     * @param expectedLength
+     *            The number of bytes the stream is expected to deliver, or -1
+     *            if this is not known. If the guess is right, the contents
+     *            are read straight into the returned array without copying.
+     * @return The bytes that were read.
+     * @throws IOException
+     *             If there is a problem reading the stream.
+     */
+    public static byte[] readAllBytes(InputStream in, int expectedLength) throws IOException {
+        byte[] buf = new byte[expectedLength >= 0 ? expectedLength : 8192];
+        int total = 0;
+        for (;;) {
+            if (total == buf.length) {
+                int next = in.read();
+                if (next < 0) break;
+                byte[] bigger = new byte[Math.max(buf.length * 2, 8192)];
+                System.arraycopy(buf, 0, bigger, 0, total);
+                buf = bigger;
+                buf[total++] = (byte) next;
+            }
+            int n = in.read(buf, total, buf.length - total);
+            if (n < 0) break;
+            total += n;
+        }
+        if (total == buf.length) return buf;
+        byte[] result = new byte[total];
+        System.arraycopy(buf, 0, result, 0, total);
+        return result;
+    }
+    
+    /**
+     * Decodes the named image resource.  The resource's contents are read
+     * through {@link ResourceLoader#getResourceBuffer(String)}, so they are
+     * not copied on their way to the image decoder.  ImageIO's default
+     * stream cache would copy them to a temporary file, so they are cached
+     * in memory instead.
+     * 
+     * @throws IOException
+     *             If the resource can't be read, or is not in an image format
+     *             that ImageIO understands.
+     */
+    public static BufferedImage loadImage(ResourceLoader loader, String path) throws IOException {
+        BufferedImage image = ImageIO.read(
+                new MemoryCacheImageInputStream(new ByteBufferInputStream(loader.getResourceBuffer(path))));
+        if (image == null) {
+            throw new IOException("Resource '"+path+"' is not in a supported image format");
+        }
+        return image;
+    }
+
     /**
      * Copies all bytes that can be read from the given input stream into the
      * given file.
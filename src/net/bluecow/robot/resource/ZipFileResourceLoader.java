@@ -44,21 +44,62 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
-public class ZipFileResourceLoader extends AbstractResourceLoader {
+public class ZipFileResourceLoader extends AbstractResourceLoader implements ContentAddressable {
 
     private ZipFile zipFile;
     
+    /**
+     * The content index of the zip file, or null if it isn't a
+     * content-addressed pack.
+     */
+    private final ContentIndex contentIndex;
+    
     public ZipFileResourceLoader(File file) throws ZipException, IOException {
         zipFile = new ZipFile(file);
+        contentIndex = ContentIndex.read(zipFile);
     }
     
     public InputStream getResourceAsStream(String resourceName) throws IOException {
+        return zipFile.getInputStream(getEntry(resourceName));
+    }
+
+    /**
+     * Reads the whole entry in one go, into an array sized from the entry's
+     * recorded length.
+     */
+    @Override
+    public byte[] getResourceBytes(String resourceName) throws IOException {
+        ZipEntry resource = getEntry(resourceName);
+        InputStream in = zipFile.getInputStream(resource);
+        try {
+            return ResourceUtils.readAllBytes(in, (int) resource.getSize());
+        } finally {
+            in.close();
+        }
+    }
+
+    public String getContentHash(String resourceName) {
+        return contentIndex == null ? null : contentIndex.getHash(resourceName);
+    }
+    
+    /**
+     * Returns the zip entry that holds the contents of the named resource.
+     * In a content-addressed pack, this may be another resource's entry.
+     * 
+     * @throws FileNotFoundException if there is no such resource
+     */
+    private ZipEntry getEntry(String resourceName) throws FileNotFoundException {
         ZipEntry resource = zipFile.getEntry(resourceName);
+        if (resource == null && contentIndex != null) {
+            String storedPath = contentIndex.getStoredPath(resourceName);
+            if (storedPath != null) {
+                resource = zipFile.getEntry(storedPath);
+            }
+        }
         if (resource == null) {
             throw new FileNotFoundException(
                     "resource '"+resourceName+"' not found in zip file "+zipFile.getName());
         }
-        return zipFile.getInputStream(resource);
+        return resource;
     }
-
 }
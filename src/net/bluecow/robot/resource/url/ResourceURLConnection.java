@@ -34,22 +34,44 @@
 
 package net.bluecow.robot.resource.url;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
 
-import net.bluecow.robot.resource.ResourceLoader;
-
+/**
+ * A connection to a resource named by a <tt>resource:</tt> URL.  The
+ * resource's contents are read in one go when the connection is made (or
+ * come from the stream handler's cache), so its length is always known.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
 public class ResourceURLConnection extends URLConnection {
     
+    /**
+     * Content types of the game's own file formats, which the JDK doesn't
+     * know about.  Keyed by lower case file name extension.
+     */
+    private static final Map<String, String> contentTypes = new HashMap<String, String>();
+    static {
+        contentTypes.put("rsf", "text/xml");
+        contentTypes.put("map", "text/plain");
+        contentTypes.put("xm", "audio/x-xm");
+        contentTypes.put("s3m", "audio/x-s3m");
+        contentTypes.put("mod", "audio/x-mod");
+    }
+    
     private String resourceName;
-    private InputStream in;
-    private ResourceLoader resourceLoader;
+    private byte[] data;
+    private final ResourceURLStreamHandler handler;
     
-    protected ResourceURLConnection(URL url, ResourceLoader resourceLoader) {
+    protected ResourceURLConnection(URL url, ResourceURLStreamHandler handler) {
         super(url);
-        this.resourceLoader = resourceLoader;
+        this.handler = handler;
         resourceName = url.getPath();
         if (resourceName.startsWith("/")) {
             resourceName = resourceName.substring(1);
@@ -59,23 +81,50 @@ public class ResourceURLConnection extends URLConnection {
     @Override
     public void connect() throws IOException {
         if (connected) return;
-        in = resourceLoader.getResourceAsStream(resourceName);
-        if (in == null) {
-            throw new IOException("Resource not found: " + resourceName);
-        }
+        data = handler.getResourceBytes(resourceName);
         connected = true;
     }
     
     @Override
     public InputStream getInputStream() throws IOException {
         connect();
-        return in;
+        return new ByteArrayInputStream(data);
     }
 
+    /**
+     * Returns the length of the resource, or -1 if it can't be read.
+     */
+    @Override
+    public int getContentLength() {
+        try {
+            connect();
+        } catch (IOException ex) {
+            return -1;
+        }
+        return data.length;
+    }
+
+    /**
+     * Guesses the resource's content type from its file name extension.
+     * Resources of unknown type are <tt>application/octet-stream</tt>.
+     */
     @Override
     public String getContentType() {
-        // XXX ResourceUtils should be able to guess content type for us
-        //     or better yet, the resource loader would be able to say
-        return "application/octet-stream";
+        return guessContentType(resourceName);
+    }
+    
+    /**
+     * Returns the content type of the named resource, based on its file
+     * name extension.
+     */
+    public static String guessContentType(String resourceName) {
+        String type = guessContentTypeFromName(resourceName);
+        if (type == null) {
+            int dot = resourceName.lastIndexOf('.');
+            if (dot >= 0) {
+                type = contentTypes.get(resourceName.substring(dot + 1).toLowerCase());
+            }
+        }
+        return type == null ? "application/octet-stream" : type;
     }
 }
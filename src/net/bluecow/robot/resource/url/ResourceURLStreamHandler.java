@@ -38,16 +38,63 @@ import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import net.bluecow.robot.resource.ResourceLoader;
 
+/**
+ * The URL stream handler for the <tt>resource:</tt> protocol.  The contents
+ * of resources read through it are kept in memory (up to
+ * {@link #DEFAULT_CACHE_BUDGET} bytes, least recently used first out), so
+ * that things which keep reopening the same URLs, such as the images in
+ * level description HTML, don't have to read them from the resource loader
+ * every time.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
 public class ResourceURLStreamHandler extends URLStreamHandler {
 
+    /**
+     * The default maximum total size of the cached resource contents.
+     */
+    public static final int DEFAULT_CACHE_BUDGET = 4 * 1024 * 1024;
+    
+    /**
+     * Resources bigger than this fraction of the cache budget are not cached,
+     * because they would push everything else out.
+     */
+    private static final int MAX_ENTRY_FRACTION = 4;
+    
     /**
      * The resource loader that URL connections produced by this stream
      * handler will use.
      */
     private ResourceLoader resourceLoader;
+    
+    /**
+     * The contents of recently read resources, in access order.
+     */
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    
+    /**
+     * The total size of the byte arrays in {@link #cache}.
+     */
+    private int cacheSize;
+    
+    /**
+     * The maximum value of {@link #cacheSize}.
+     */
+    private int cacheBudget = DEFAULT_CACHE_BUDGET;
+    
+    /**
+     * Bumped by every invalidation (including a change of resource loader),
+     * so a read that was in progress while the cache was invalidated can
+     * tell that its contents may be stale.
+     */
+    private long generation;
 
     /**
      * Creates a stream handler which uses the given resource loader initially.
@@ -64,15 +111,87 @@ public class ResourceURLStreamHandler extends URLStreamHandler {
      */
     @Override
     protected URLConnection openConnection(URL u) throws IOException {
-        return new ResourceURLConnection(u, resourceLoader);
+        return new ResourceURLConnection(u, this);
     }
 
-    public ResourceLoader getResourceLoader() {
+    public synchronized ResourceLoader getResourceLoader() {
         return resourceLoader;
     }
 
-    public void setResourceLoader(ResourceLoader resourceLoader) {
+    /**
+     * Switches to a different resource loader for future requests.  The
+     * cached resource contents are discarded.
+     */
+    public synchronized void setResourceLoader(ResourceLoader resourceLoader) {
         this.resourceLoader = resourceLoader;
+        invalidateCache();
+    }
+    
+    /**
+     * Discards all the cached resource contents. Call this after changing
+     * resources that may have been read through <tt>resource:</tt> URLs.
+     */
+    public synchronized void invalidateCache() {
+        generation++;
+        cache.clear();
+        cacheSize = 0;
+    }
+    
+    /**
+     * Discards the cached contents of the named resource, if there are any.
+     */
+    public synchronized void invalidateCache(String resourceName) {
+        generation++;
+        byte[] old = cache.remove(resourceName);
+        if (old != null) cacheSize -= old.length;
+    }
+    
+    /**
+     * Sets the maximum total size of the cached resource contents, in bytes.
+     * 0 turns the cache off.
+     */
+    public synchronized void setCacheBudget(int bytes) {
+        cacheBudget = bytes;
+        trim();
+    }
+    
+    /**
+     * Returns the contents of the named resource, reading them from the
+     * current resource loader if they aren't cached.  The returned array is
+     * shared, and must not be modified.
+     */
+    byte[] getResourceBytes(String resourceName) throws IOException {
+        ResourceLoader loader;
+        long readGeneration;
+        synchronized (this) {
+            byte[] data = cache.get(resourceName);
+            if (data != null) return data;
+            loader = resourceLoader;
+            readGeneration = generation;
+        }
+        byte[] data = loader.getResourceBytes(resourceName);
+        synchronized (this) {
+            // don't cache contents that may have changed, or come from a
+            // loader that has been replaced, while they were being read
+            if (readGeneration == generation && data.length <= cacheBudget / MAX_ENTRY_FRACTION) {
+                byte[] old = cache.put(resourceName, data);
+                if (old != null) cacheSize -= old.length;
+                cacheSize += data.length;
+                trim();
+            }
+        }
+        return data;
+    }
+    
+    /**
+     * Removes the least recently used entries until the cache fits in its budget.
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, byte[]>> it = cache.entrySet().iterator();
+        while (cacheSize > cacheBudget && it.hasNext()) {
+            cacheSize -= it.next().getValue().length;
+            it.remove();
+        }
     }
 
 }
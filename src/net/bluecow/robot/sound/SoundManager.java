@@ -36,7 +36,9 @@
  */
 package net.bluecow.robot.sound;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -83,6 +85,13 @@ public class SoundManager {
      */
     private final ResourceLoader resourceLoader;
     
+    /**
+     * When false, this sound manager never touches the audio system: new
+     * entries are only checked for existence and become {@link SilentEntry}
+     * instances.
+     */
+    private final boolean audioEnabled;
+    
     /**
      * Tracks whether this sound manager has been closed yet.  The best
      * way to check this variable at the beginning of a method is by
@@ -98,7 +107,19 @@ public class SoundManager {
         new ArrayList<SoundManagerEntryEventListener>();
     
     public SoundManager(ResourceLoader resourceLoader) {
+        this(resourceLoader, true);
+    }
+    
+    /**
+     * Creates a sound manager which may or may not use the audio system.
+     * 
+     * @param resourceLoader The resource loader to load entries from
+     * @param audioEnabled If false, no audio lines will be opened; every entry
+     * added to this sound manager will be a {@link SilentEntry}.
+     */
+    public SoundManager(ResourceLoader resourceLoader, boolean audioEnabled) {
         this.resourceLoader = resourceLoader;
+        this.audioEnabled = audioEnabled;
     }
     
     /**
@@ -120,7 +141,18 @@ public class SoundManager {
     public SoundManagerEntry addEntry(String name, EntryType type, String path) {
         try {
             SoundManagerEntry retval;
-            if (type == EntryType.CLIP) {
+            if (!audioEnabled) {
+                InputStream in = resourceLoader.getResourceAsStream(path);
+                try {
+                    if (type == EntryType.CLIP) {
+                        // reads the header only, so unsupported formats are still caught
+                        AudioSystem.getAudioFileFormat(new BufferedInputStream(in));
+                    }
+                } finally {
+                    in.close();
+                }
+                retval = new SilentEntry(name, type, path);
+            } else if (type == EntryType.CLIP) {
                 Line.Info linfo = new Line.Info(Clip.class);
                 Line line;
                 line = AudioSystem.getLine(linfo);
@@ -168,6 +200,32 @@ public class SoundManager {
         }
         return removed;
     }
+    
+    /**
+     * Replaces the entry identified by the given entryId with a new one
+     * loaded from the same path, so that changes to the sound's resource
+     * take effect.  Music endings are carried over to the new entry.
+     * 
+     * @param entryId
+     *            The ID of the entry to reload.
+     * @return The new entry, or null if there was no entry with the given ID.
+     * @throws RuntimeException
+     *             If the sound can't be loaded (see
+     *             {@link #addEntry(String, EntryType, String)}). In that case,
+     *             the old entry will have been removed.
+     */
+    public SoundManagerEntry reloadEntry(String entryId) {
+        SoundManagerEntry old = removeEntry(entryId);
+        if (old == null) return null;
+        SoundManagerEntry entry = addEntry(entryId, old.getType(), old.getPath());
+        if (old instanceof ModMusic && entry instanceof ModMusic) {
+            for (ModMusic.SongPosition sp : ((ModMusic) old).getEndings()) {
+                ((ModMusic) entry).addEnding(sp.getName(), sp.getSequenceIndex(), sp.getOffset(), sp.getDuration());
+            }
+        }
+        return entry;
+    }
+    
     /**
      * Closes all entries in this sound manager. Once the sound manager
      * has been closed, it can no longer be used.
@@ -41,6 +41,8 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -135,13 +137,34 @@ public abstract class AbstractSprite implements Sprite {
      * before this method returns.
      */
     public void paint(Graphics2D g2, int x, int y) {
+        paintImage(g2, x, y, getImage());
+    }
+
+    /**
+     * Paints the given image the way {@link #paint(Graphics2D, int, int)}
+     * paints this sprite's current image.  This is for painting a frame of
+     * this sprite that was saved earlier (see {@link #getImage()}), while the
+     * sprite itself may have moved on to a later frame.
+     */
+    public void paintImage(Graphics2D g2, int x, int y, Image image) {
         AffineTransform backupXform = g2.getTransform();
         try {
             double scale = getScale();
             g2.translate(x, y);
             AffineTransform drawingTransform = AffineTransform.getScaleInstance(scale, scale);
             drawingTransform.concatenate(transform);
-            g2.drawImage(getImage(), drawingTransform, null);
+            SpriteAtlas.Region region = SpriteAtlas.getRegion(image);
+            if (region != null) {
+                AffineTransform spriteXform = g2.getTransform();
+                g2.transform(drawingTransform);
+                g2.drawImage(region.page,
+                        0, 0, region.width, region.height,
+                        region.x, region.y, region.x + region.width, region.y + region.height,
+                        null);
+                g2.setTransform(spriteXform);
+            } else {
+                g2.drawImage(image, drawingTransform, null);
+            }
             if (debugOn && getCollisionBox() != null) {
                 Color backupColor = g2.getColor();
                 g2.setColor(Color.RED);
@@ -160,6 +183,15 @@ public abstract class AbstractSprite implements Sprite {
      * the AbstractSprite's generic implementation of paint().
      */
     public abstract Image getImage();
+
+    /**
+     * Returns every image this sprite can show.  Used for packing sprites
+     * into the {@link SpriteAtlas}.  This implementation returns the current
+     * image; sprites with more than one image must override it.
+     */
+    Collection<Image> getImages() {
+        return Collections.singleton(getImage());
+    }
     
     
     public Rectangle getCollisionBox() {
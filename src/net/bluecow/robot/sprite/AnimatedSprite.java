@@ -39,29 +39,77 @@ package net.bluecow.robot.sprite;
 import java.awt.Dimension;
 import java.awt.Image;
 import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import javax.swing.ImageIcon;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
 import net.bluecow.robot.FileFormatException;
 import net.bluecow.robot.resource.ResourceLoader;
+import net.bluecow.robot.resource.ResourceUtils;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+/**
+ * A sprite that plays back sequences of frames described by an RSF file.
+ * The parsed RSF file and its decoded frames are shared (through the
+ * sprite manager's cache) by all sprites made from the same file; each
+ * sprite only keeps track of its own position in the animation.
+ */
 public class AnimatedSprite extends AbstractSprite {
 
+    /**
+     * Everything parsed out of an RSF file.  Once parsing is finished,
+     * instances are never modified, so they can be shared between sprites.
+     */
+    private static class Animation {
+        
+        /**
+         * Maps frame id's to their loaded images.  Only used while parsing.
+         */
+        final Map<String, BufferedImage> frames = new HashMap<String, BufferedImage>();
+        
+        /**
+         * All sequences that were defined in the RSF file.
+         */
+        final Map<String, List<Image>> sequences = new LinkedHashMap<String, List<Image>>();
+        
+        /**
+         * The size of the biggest frame in each dimension.
+         */
+        final Dimension size = new Dimension(0,0);
+        
+        /**
+         * The collision box given in the RSF file, or null if there wasn't one.
+         */
+        Rectangle collisionBox;
+        
+        /**
+         * The last sequence that was defined in the RSF file.
+         */
+        String defaultSequence;
+        
+        /**
+         * The approximate amount of memory used by the frame images.
+         */
+        long memorySize;
+    }
+
     /**
      * Receives the contents of the RSF file (which is XML) as the SAX parser
      * parses it.
@@ -72,6 +120,21 @@ public class AnimatedSprite extends AbstractSprite {
          * Object from the parser that tracks parse position.
          */
         private Locator loc;
+        
+        /**
+         * The "base" resource path, to which all URI's in the RSF file are relative.
+         */
+        private final String basePath;
+        
+        /**
+         * The animation being built from the RSF file.
+         */
+        private final Animation anim;
+        
+        RsfSaxHandler(String basePath, Animation anim) {
+            this.basePath = basePath;
+            this.anim = anim;
+        }
 
         @Override
         public void startElement(String uri, String localName,
@@ -82,10 +145,11 @@ public class AnimatedSprite extends AbstractSprite {
 //                    System.out.println("RSF version "+attributes.getValue("version"));
                 } else if (qName.equals("frame")) {
                     String imagePath = basePath + attributes.getValue("href");
-                    ImageIcon icon = new ImageIcon(getResourceLoader().getResourceBytes(imagePath));
-                    size.width = Math.max(size.width, icon.getIconWidth());
-                    size.height = Math.max(size.height, icon.getIconHeight());
-                    frames.put(attributes.getValue("id"), icon);
+                    BufferedImage image = ResourceUtils.loadImage(getResourceLoader(), imagePath);
+                    anim.size.width = Math.max(anim.size.width, image.getWidth());
+                    anim.size.height = Math.max(anim.size.height, image.getHeight());
+                    anim.frames.put(attributes.getValue("id"), image);
+                    anim.memorySize += SpriteManager.imageSize(image);
                 } else if (qName.equals("collision-box")) {
                     Integer x = null;
                     Integer y = null;
@@ -112,12 +176,12 @@ public class AnimatedSprite extends AbstractSprite {
                     checkMandatory(qName, "height", height);
                     
                     Rectangle collisionBox = new Rectangle(x, y, width, height);
-                    setCollisionBox(collisionBox);
+                    anim.collisionBox = collisionBox;
                     
                 } else if (qName.equals("sequence")) {
                     // the ID might be null, which is fine.
-                    curSeqName = attributes.getValue("id");
-                    sequences.put(curSeqName, new ArrayList<ImageIcon>());
+                    anim.defaultSequence = attributes.getValue("id");
+                    anim.sequences.put(anim.defaultSequence, new ArrayList<Image>());
                 } else if (qName.equals("step")) {
                     int count = 1;
                     String countStr = attributes.getValue("count");
@@ -125,7 +189,7 @@ public class AnimatedSprite extends AbstractSprite {
                         count = Integer.parseInt(countStr);
                     }
                     for (int i = 0; i < count; i++) {
-                        sequences.get(curSeqName).add(frames.get(attributes.getValue("frame")));
+                        anim.sequences.get(anim.defaultSequence).add(anim.frames.get(attributes.getValue("frame")));
                     }
                 } else {
                     throw new SAXException("Unknown element \""+qName+"\" in RSF file");
@@ -160,21 +224,9 @@ public class AnimatedSprite extends AbstractSprite {
     }
 
     /**
-     * Maps frame id's to their loaded images.
-     */
-    private Map<String, ImageIcon> frames = new HashMap<String, ImageIcon>();
-    
-    /**
-     * The "base" resource path, to which all URI's in the RSF file are relative.
-     */
-    private String basePath;
-    
-    private Dimension size = new Dimension(0,0);
-    
-    /**
-     * All sequences that were defined in the RSF file.
+     * The animation data this sprite plays back.  Shared with other sprites.
      */
-    private Map<String, List<ImageIcon>> sequences = new LinkedHashMap<String, List<ImageIcon>>();
+    private final Animation anim;
     
     /**
      * The name of the current sequence being played back. The default sequence after
@@ -210,33 +262,61 @@ public class AnimatedSprite extends AbstractSprite {
                           Map<String, String> attribs)
     throws ParserConfigurationException, SAXException, IOException {
         super(resourceLoader, attribs);
-        if (rsfPath.lastIndexOf('/') >= 0) {
-            basePath = rsfPath.substring(0, rsfPath.lastIndexOf('/') + 1);
+        Object cached = SpriteManager.cache.get(resourceLoader, rsfPath);
+        if (cached instanceof Animation) {
+            anim = (Animation) cached;
         } else {
-            basePath = "/";
+            String basePath;
+            if (rsfPath.lastIndexOf('/') >= 0) {
+                basePath = rsfPath.substring(0, rsfPath.lastIndexOf('/') + 1);
+            } else {
+                basePath = "/";
+            }
+            anim = new Animation();
+            SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+            // turn off validation parser.setProperty()
+            parser.parse(resourceLoader.getResourceAsStream(rsfPath), new RsfSaxHandler(basePath, anim));
+            anim.frames.clear();
+            for (Map.Entry<String, List<Image>> entry : anim.sequences.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            SpriteManager.cache.put(resourceLoader, rsfPath, anim, anim.memorySize);
+        }
+        curSeqName = anim.defaultSequence;
+        if (anim.collisionBox != null) {
+            setCollisionBox(new Rectangle(anim.collisionBox));
         }
-        SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
-        // turn off validation parser.setProperty()
-        parser.parse(resourceLoader.getResourceAsStream(rsfPath), new RsfSaxHandler());
     }
     
     @Override
     public void nextFrame() {
         curSeqNum++;
-        if (curSeqNum >= sequences.get(curSeqName).size()) curSeqNum = 0;
+        if (curSeqNum >= anim.sequences.get(curSeqName).size()) curSeqNum = 0;
     }
 
     @Override
     public Image getImage() {
-        return sequences.get(curSeqName).get(curSeqNum).getImage();
+        return anim.sequences.get(curSeqName).get(curSeqNum);
+    }
+    
+    /**
+     * Returns the frames of all this sprite's sequences.
+     */
+    @Override
+    Collection<Image> getImages() {
+        Set<Image> images = new LinkedHashSet<Image>();
+        for (List<Image> sequence : anim.sequences.values()) {
+            images.addAll(sequence);
+        }
+        return images;
     }
     
     public int getWidth() {
-        return (int) (size.width * getScale());
+        return (int) (anim.size.width * getScale());
     }
 
     public int getHeight() {
-        return (int) (size.height * getScale());
+        return (int) (anim.size.height * getScale());
     }
     
     /**
@@ -253,7 +333,7 @@ public class AnimatedSprite extends AbstractSprite {
         if (seqName == curSeqName || (seqName != null && seqName.equals(curSeqName))) {
             return;
         }
-        if (sequences.containsKey(seqName)) {
+        if (anim.sequences.containsKey(seqName)) {
             this.curSeqName = seqName;
             curSeqNum = 0;
         } else {
@@ -266,19 +346,4 @@ public class AnimatedSprite extends AbstractSprite {
     public String getCurrentSequence() {
         return curSeqName;
     }
-    
-    /**
-     * Enhances the basic clone functionality to make sure the new copy's animation sequences
-     * are truly independant of the ones in this object.
-     */
-    @Override
-    public Sprite clone() {
-        AnimatedSprite copy = (AnimatedSprite) super.clone();
-        
-        for (Map.Entry<String, List<ImageIcon>> entry : copy.sequences.entrySet()) {
-            entry.setValue(new ArrayList<ImageIcon>(entry.getValue()));
-        }
-        
-        return copy;
-    }
 }
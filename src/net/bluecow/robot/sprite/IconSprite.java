@@ -40,30 +40,33 @@ import java.awt.Image;
 import java.io.IOException;
 import java.util.Map;
 
-import javax.swing.ImageIcon;
-
 import net.bluecow.robot.resource.ResourceLoader;
 
+/**
+ * A sprite that shows a single image.  The decoded image is shared (through
+ * the sprite manager's cache) with all other sprites made from the same
+ * resource.
+ */
 public class IconSprite extends AbstractSprite {
-    private ImageIcon icon;
+    private final Image image;
     
     public IconSprite(
             ResourceLoader resourceLoader, String imagePath,
             Map<String, String> attribs) throws IOException {
         super(resourceLoader, attribs);
-        icon = new ImageIcon(resourceLoader.getResourceBytes(imagePath));
+        image = SpriteManager.loadImage(resourceLoader, imagePath);
     }
     
     @Override
     public Image getImage() {
-        return icon.getImage();
+        return image;
     }
 
     public int getWidth() {
-        return (int) (icon.getIconWidth() * getScale());
+        return (int) (image.getWidth(null) * getScale());
     }
     
     public int getHeight() {
-        return (int) (icon.getIconHeight() * getScale());
+        return (int) (image.getHeight(null) * getScale());
     }
 }
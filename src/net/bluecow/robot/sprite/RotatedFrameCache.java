@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.sprite;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The RotatedFrameCache holds copies of sprite images that have already been
+ * scaled and rotated to one of the eight compass headings, so a sprite that
+ * always faces one of those directions (such as a robot) can be painted with
+ * a plain, untransformed drawImage() instead of a transformed one.
+ * <p>
+ * Frames are rendered the first time they are asked for, and are kept for
+ * as long as the image they were made from is in use: the cache is keyed by
+ * the sprite's current image (so every frame of an animated sprite gets its
+ * own entries), then by scale and heading.  All methods are thread safe.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public final class RotatedFrameCache {
+
+    /**
+     * Controls the debugging features of this class.
+     */
+    private static final boolean debugOn = false;
+
+    /**
+     * Prints the given message to System.out if debugOn is true.
+     */
+    private static void debug(String msg) {
+        if (debugOn) System.out.println(msg);
+    }
+
+    /**
+     * The number of headings frames are cached for: north, northeast, east,
+     * and so on around the compass.
+     */
+    public static final int HEADINGS = 8;
+
+    /**
+     * How far (in radians) a heading can be from one of the eight compass
+     * headings and still be treated as that heading.
+     */
+    private static final double HEADING_TOLERANCE = 1e-6;
+
+    /**
+     * The rendered frames.  For each source image and scale there is an
+     * array of {@link #HEADINGS} frames, some of which may not have been
+     * rendered yet.
+     */
+    private static final Map<Image, Map<Double, BufferedImage[]>> frames =
+        new WeakHashMap<Image, Map<Double, BufferedImage[]>>();
+
+    private RotatedFrameCache() {
+        // static methods only
+    }
+
+    /**
+     * Returns which of the eight compass headings the given angle is, where
+     * 0 is north and the angles increase clockwise in steps of pi/4.  Returns
+     * -1 if the angle isn't one of them.
+     */
+    public static int headingIndex(double theta) {
+        double steps = theta / (Math.PI / 4.0);
+        long nearest = Math.round(steps);
+        if (Math.abs(steps - nearest) * (Math.PI / 4.0) > HEADING_TOLERANCE) {
+            return -1;
+        }
+        return (int) (((nearest % HEADINGS) + HEADINGS) % HEADINGS);
+    }
+
+    /**
+     * Returns the given sprite's current image, scaled by its current scale
+     * and rotated clockwise by the given angle around its centre.  The centre
+     * of the returned image is the centre of the sprite.
+     * <p>
+     * Returns null if the frame can't be cached, in which case the caller
+     * has to paint the sprite with a transform as usual. This happens if the
+     * angle isn't one of the eight compass headings, the sprite has a
+     * transform of its own, or the sprite isn't an {@link AbstractSprite}.
+     *
+     * @param gc The graphics configuration the frame will be painted on.
+     * Frames are created as compatible images for it.  If null, the frames
+     * will be ordinary ARGB buffered images.
+     */
+    public static Image getFrame(Sprite sprite, double theta, GraphicsConfiguration gc) {
+        if (!(sprite instanceof AbstractSprite)) return null;
+        return getFrame(sprite, ((AbstractSprite) sprite).getImage(), theta, gc);
+    }
+
+    /**
+     * Returns the given image (a frame of the given sprite, which may not be
+     * its current one) scaled and rotated the same way as
+     * {@link #getFrame(Sprite, double, GraphicsConfiguration)} does.  Returns
+     * null in the same cases, or if the image is null.
+     */
+    public static Image getFrame(Sprite sprite, Image image, double theta, GraphicsConfiguration gc) {
+        if (!(sprite instanceof AbstractSprite)) return null;
+        if (sprite.getTransform() != null && !sprite.getTransform().isIdentity()) return null;
+        int heading = headingIndex(theta);
+        if (heading < 0) return null;
+
+        if (image == null) return null;
+        Double scale = sprite.getScale();
+        synchronized (frames) {
+            Map<Double, BufferedImage[]> scales = frames.get(image);
+            if (scales == null) {
+                scales = new HashMap<Double, BufferedImage[]>();
+                frames.put(image, scales);
+            }
+            BufferedImage[] headings = scales.get(scale);
+            if (headings == null) {
+                headings = new BufferedImage[HEADINGS];
+                scales.put(scale, headings);
+            }
+            if (headings[heading] == null) {
+                headings[heading] = render(image, scale, heading * Math.PI / 4.0, gc);
+            }
+            return headings[heading];
+        }
+    }
+
+    /**
+     * Renders the given image scaled and rotated by the given amounts into a
+     * new image that is just big enough to hold it.
+     */
+    private static BufferedImage render(Image image, double scale, double theta, GraphicsConfiguration gc) {
+        double width = image.getWidth(null) * scale;
+        double height = image.getHeight(null) * scale;
+        AffineTransform rotation = exactRotation(theta);
+        Rectangle2D rotated = rotation.createTransformedShape(
+                new Rectangle2D.Double(-width / 2.0, -height / 2.0, width, height)).getBounds2D();
+        int frameWidth = Math.max(1, (int) Math.ceil(rotated.getWidth() - HEADING_TOLERANCE));
+        int frameHeight = Math.max(1, (int) Math.ceil(rotated.getHeight() - HEADING_TOLERANCE));
+        debug("Rendering "+frameWidth+"x"+frameHeight+" frame at scale "+scale+", heading "+theta);
+
+        BufferedImage frame;
+        if (gc != null) {
+            frame = gc.createCompatibleImage(frameWidth, frameHeight, Transparency.TRANSLUCENT);
+        } else {
+            frame = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_INT_ARGB);
+        }
+        Graphics2D g2 = frame.createGraphics();
+        try {
+            // this only happens once per frame, so it's worth doing properly
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2.translate(frameWidth / 2.0, frameHeight / 2.0);
+            g2.transform(rotation);
+            g2.translate(-width / 2.0, -height / 2.0);
+            g2.scale(scale, scale);
+            g2.drawImage(image, 0, 0, null);
+        } finally {
+            g2.dispose();
+        }
+        return frame;
+    }
+
+    /**
+     * Returns a transform that rotates by the given angle, with the sine and
+     * cosine rounded to exactly 0 or 1 where they are within rounding error
+     * of those values.  A quarter turn made with the plain rotation transform
+     * samples some source pixels from their neighbours.
+     */
+    private static AffineTransform exactRotation(double theta) {
+        double cos = snap(Math.cos(theta));
+        double sin = snap(Math.sin(theta));
+        return new AffineTransform(cos, sin, -sin, cos, 0.0, 0.0);
+    }
+
+    private static double snap(double v) {
+        if (Math.abs(v) < HEADING_TOLERANCE) return 0.0;
+        if (Math.abs(v - 1.0) < HEADING_TOLERANCE) return 1.0;
+        if (Math.abs(v + 1.0) < HEADING_TOLERANCE) return -1.0;
+        return v;
+    }
+
+    /**
+     * Discards all the cached frames.
+     */
+    public static void clear() {
+        synchronized (frames) {
+            frames.clear();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.sprite;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The SpriteAtlas copies many small sprite images onto a few large "page"
+ * images, so that Java2D's accelerated pipelines can keep them in a handful
+ * of textures instead of one texture per tile and animation frame.  Once an
+ * image has been packed, {@link AbstractSprite#paint(Graphics2D, int, int)}
+ * draws the image's region of its page instead of the image itself.  The
+ * original images are not modified, and are still used by anything that
+ * asks a sprite for its image directly.
+ * <p>
+ * Images are packed onto shelves (rows of images of similar height) on
+ * pages of {@link #PAGE_SIZE} pixels square, tallest first, with a small
+ * transparent gutter between them so scaled drawing doesn't pick up pixels
+ * from a neighbouring image.  Images packed later (for instance, those of
+ * the next level) fill the space left on the last page before a new page
+ * is started.  Images too big to share a page usefully are left alone.  The atlas keeps a weak reference to each image it has
+ * packed, so packing doesn't keep images alive that are no longer in use.
+ * All methods are thread safe.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public final class SpriteAtlas {
+
+    /**
+     * Controls the debugging features of this class.
+     */
+    private static final boolean debugOn = false;
+
+    /**
+     * Prints the given message to System.out if debugOn is true.
+     */
+    private static void debug(String msg) {
+        if (debugOn) System.out.println(msg);
+    }
+
+    /**
+     * The width and maximum height of an atlas page.
+     */
+    public static final int PAGE_SIZE = 1024;
+
+    /**
+     * Images bigger than this in either dimension are not packed.
+     */
+    private static final int MAX_IMAGE_SIZE = PAGE_SIZE / 4;
+
+    /**
+     * The number of transparent pixels left between images on a page.
+     */
+    private static final int GUTTER = 2;
+
+    /**
+     * Where a packed image's pixels are.  Instances are immutable.
+     */
+    static class Region {
+        final BufferedImage page;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+
+        Region(BufferedImage page, int x, int y, int width, int height) {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * The region of every image packed so far.
+     */
+    private static final Map<Image, Region> regions = new WeakHashMap<Image, Region>();
+
+    /**
+     * Held while images are being placed, so two threads can't put images in
+     * the same spot.  Guards {@link #page} and the shelf position.
+     */
+    private static final Object packLock = new Object();
+
+    /**
+     * The page new images are being added to, or null if there isn't one yet.
+     */
+    private static BufferedImage page;
+
+    /**
+     * The top of the current shelf of {@link #page}.
+     */
+    private static int shelfY;
+
+    /**
+     * The height of the tallest image on the current shelf so far.
+     */
+    private static int shelfHeight;
+
+    /**
+     * Where the next image on the current shelf goes.
+     */
+    private static int shelfX;
+
+    private SpriteAtlas() {
+        // static methods only
+    }
+
+    /**
+     * Returns the atlas region holding a copy of the given image, or null
+     * if the image hasn't been packed.
+     */
+    static Region getRegion(Image image) {
+        synchronized (regions) {
+            return regions.get(image);
+        }
+    }
+
+    /**
+     * Packs every image that the given sprites can show (all the frames of
+     * animated sprites).  Sprites that aren't {@link AbstractSprite}s are
+     * skipped.
+     *
+     * @return The number of images that were packed
+     */
+    public static int packSprites(Collection<? extends Sprite> sprites) {
+        Set<Image> images = new LinkedHashSet<Image>();
+        for (Sprite sprite : sprites) {
+            if (sprite instanceof AbstractSprite) {
+                images.addAll(((AbstractSprite) sprite).getImages());
+            }
+        }
+        return pack(images);
+    }
+
+    /**
+     * Packs the given images into the atlas.  They go into the space left on
+     * the most recent page first, and onto new pages once it is full.
+     * Images that have been packed already, that are too big, or that aren't
+     * BufferedImages are skipped.
+     *
+     * @return The number of images that were packed
+     */
+    public static int pack(Collection<? extends Image> images) {
+        synchronized (packLock) {
+            Set<BufferedImage> unpacked = new LinkedHashSet<BufferedImage>();
+            synchronized (regions) {
+                for (Image image : images) {
+                    if (image instanceof BufferedImage && !regions.containsKey(image)) {
+                        BufferedImage bi = (BufferedImage) image;
+                        if (bi.getWidth() <= MAX_IMAGE_SIZE && bi.getHeight() <= MAX_IMAGE_SIZE) {
+                            unpacked.add(bi);
+                        }
+                    }
+                }
+            }
+            List<BufferedImage> toPack = new ArrayList<BufferedImage>(unpacked);
+            if (toPack.isEmpty()) return 0;
+
+            // tallest first gives the shelves the least wasted space
+            Collections.sort(toPack, new Comparator<BufferedImage>() {
+                public int compare(BufferedImage a, BufferedImage b) {
+                    return b.getHeight() - a.getHeight();
+                }
+            });
+
+            List<Region> newRegions = new ArrayList<Region>(toPack.size());
+            Graphics2D g = null;
+            int newPages = 0;
+            try {
+                for (BufferedImage image : toPack) {
+                    if (shelfX + image.getWidth() > PAGE_SIZE) {
+                        // next shelf
+                        shelfY += shelfHeight + GUTTER;
+                        shelfHeight = 0;
+                        shelfX = 0;
+                    }
+                    if (page == null || shelfY + image.getHeight() > PAGE_SIZE) {
+                        // next page
+                        if (g != null) g.dispose();
+                        page = createPage();
+                        newPages++;
+                        shelfY = 0;
+                        shelfHeight = 0;
+                        shelfX = 0;
+                        g = null;
+                    }
+                    if (g == null) {
+                        g = page.createGraphics();
+                    }
+                    g.drawImage(image, shelfX, shelfY, null);
+                    newRegions.add(new Region(page, shelfX, shelfY, image.getWidth(), image.getHeight()));
+                    shelfX += image.getWidth() + GUTTER;
+                    shelfHeight = Math.max(shelfHeight, image.getHeight());
+                }
+            } finally {
+                if (g != null) g.dispose();
+            }
+
+            synchronized (regions) {
+                for (int i = 0; i < toPack.size(); i++) {
+                    regions.put(toPack.get(i), newRegions.get(i));
+                }
+            }
+            debug("Packed "+toPack.size()+" images, using "+newPages+" new atlas pages");
+            return toPack.size();
+        }
+    }
+
+    /**
+     * Creates an empty atlas page.
+     */
+    private static BufferedImage createPage() {
+        if (!GraphicsEnvironment.isHeadless()) {
+            GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+            return gc.createCompatibleImage(PAGE_SIZE, PAGE_SIZE, Transparency.TRANSLUCENT);
+        } else {
+            return new BufferedImage(PAGE_SIZE, PAGE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        }
+    }
+
+    /**
+     * Forgets all the packed images, so sprites go back to drawing their
+     * own images.
+     */
+    public static void clear() {
+        synchronized (packLock) {
+            synchronized (regions) {
+                regions.clear();
+            }
+            page = null;
+        }
+    }
+}
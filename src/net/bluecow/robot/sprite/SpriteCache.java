@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.sprite;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.bluecow.robot.resource.ResourceLoader;
+
+/**
+ * Holds decoded sprite data (images and parsed animations) so that every
+ * sprite made from the same resource shares one copy of it.  Entries are
+ * keyed by resource loader identity and resource path; the loader is only
+ * weakly referenced, so caching a sprite doesn't keep its level pack open.
+ * Entries can also be keyed by content hash alone (pass a null loader), in
+ * which case they are shared by every loader that has a resource with those
+ * contents, and are never invalidated.
+ * <p>
+ * Entries are kept in least-recently-used order.  When the total size of
+ * the entries exceeds the cache's budget, the least recently used ones are
+ * demoted to soft references, so they are only really discarded if the
+ * garbage collector needs the memory.  All methods are thread safe.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+final class SpriteCache {
+
+    /**
+     * Controls the debugging features of this class.
+     */
+    private static final boolean debugOn = false;
+    
+    /**
+     * Prints the given message to System.out if debugOn is true.
+     */
+    private static void debug(String msg) {
+        if (debugOn) System.out.println(msg);
+    }
+    
+    private static class Key {
+        
+        /**
+         * The loader the resource came from, or null if {@link #path} is a
+         * content hash.
+         */
+        private final LoaderRef loader;
+        private final int loaderHash;
+        private final String path;
+        
+        /**
+         * Creates a key for looking up an entry.
+         */
+        Key(ResourceLoader loader, String path) {
+            this(loader, path, null);
+        }
+        
+        /**
+         * Creates a key for storing an entry.  The key will be put on the given
+         * queue once its loader has been garbage collected.
+         */
+        Key(ResourceLoader loader, String path, ReferenceQueue<ResourceLoader> queue) {
+            this.loader = loader == null ? null : new LoaderRef(loader, this, queue);
+            this.loaderHash = System.identityHashCode(loader);
+            this.path = path;
+        }
+        
+        boolean isFrom(ResourceLoader l) {
+            return loader != null && loader.get() == l;
+        }
+        
+        /**
+         * Returns true if this key's data may be derived from the resource
+         * at the given path, which is in the given directory.
+         */
+        boolean isAffectedBy(String changedPath, String changedDir) {
+            return path.equals(changedPath) ||
+                (path.endsWith(".rsf") && path.startsWith(changedDir) &&
+                        path.indexOf('/', changedDir.length()) < 0);
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            // a key whose loader is gone is still equal to itself, so it can be removed
+            if (obj == this) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            if (loader == null || other.loader == null) {
+                return loader == other.loader && path.equals(other.path);
+            }
+            ResourceLoader l = loader.get();
+            return l != null && l == other.loader.get() && path.equals(other.path);
+        }
+        
+        @Override
+        public int hashCode() {
+            return loaderHash * 31 + path.hashCode();
+        }
+    }
+    
+    /**
+     * A weak reference to a key's resource loader.  It remembers its key so
+     * the key's entries can be removed once the loader has been collected.
+     */
+    private static class LoaderRef extends WeakReference<ResourceLoader> {
+        final Key key;
+        
+        LoaderRef(ResourceLoader loader, Key key, ReferenceQueue<ResourceLoader> queue) {
+            super(loader, queue);
+            this.key = key;
+        }
+    }
+    
+    private static class Entry {
+        final Object data;
+        final long size;
+        
+        Entry(Object data, long size) {
+            this.data = data;
+            this.size = size;
+        }
+    }
+    
+    /**
+     * A soft reference to an entry that has been pushed out of the LRU list.
+     * It remembers its key so it can be removed once it has been cleared.
+     */
+    private static class SoftEntry extends SoftReference<Entry> {
+        final Key key;
+        
+        SoftEntry(Key key, Entry entry, ReferenceQueue<Entry> queue) {
+            super(entry, queue);
+            this.key = key;
+        }
+    }
+    
+    /**
+     * The strongly-held entries, in access order.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+    
+    /**
+     * Entries that were evicted from {@link #entries} but may not have been
+     * garbage collected yet.
+     */
+    private final Map<Key, SoftEntry> evicted = new HashMap<Key, SoftEntry>();
+    
+    private final ReferenceQueue<Entry> clearedEntries = new ReferenceQueue<Entry>();
+    
+    private final ReferenceQueue<ResourceLoader> clearedLoaders = new ReferenceQueue<ResourceLoader>();
+    
+    /**
+     * The total size of {@link #entries}.
+     */
+    private long size;
+    
+    /**
+     * The maximum total size of strongly-held entries.
+     */
+    private long budget;
+    
+    SpriteCache(long budget) {
+        this.budget = budget;
+    }
+    
+    /**
+     * Returns the data cached for the given resource, or null if there is none.
+     * If the loader is null, the path is a content hash.
+     */
+    synchronized Object get(ResourceLoader loader, String path) {
+        purgeCleared();
+        Key key = new Key(loader, path);
+        Entry e = entries.get(key);
+        if (e == null) {
+            SoftEntry se = evicted.remove(key);
+            if (se != null && (e = se.get()) != null) {
+                debug("Reviving evicted entry "+path);
+                entries.put(se.key, e);
+                size += e.size;
+                trim();
+            }
+        }
+        return e == null ? null : e.data;
+    }
+    
+    /**
+     * Adds data to the cache, replacing any data already cached for the
+     * given resource.
+     * 
+     * @param size The approximate number of bytes of memory the data uses
+     */
+    synchronized void put(ResourceLoader loader, String path, Object data, long size) {
+        purgeCleared();
+        Key key = new Key(loader, path, clearedLoaders);
+        evicted.remove(key);
+        Entry old = entries.put(key, new Entry(data, size));
+        if (old != null) this.size -= old.size;
+        this.size += size;
+        trim();
+    }
+    
+    /**
+     * Forgets all the data cached for resources from the given loader.
+     */
+    synchronized void invalidate(ResourceLoader loader) {
+        for (Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Key, Entry> e = it.next();
+            if (e.getKey().isFrom(loader)) {
+                size -= e.getValue().size;
+                it.remove();
+            }
+        }
+        for (Iterator<Key> it = evicted.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().isFrom(loader)) it.remove();
+        }
+    }
+    
+    /**
+     * Forgets the data cached for the given resource from the given loader.
+     * Animations defined in the same directory are forgotten as well, since
+     * their frames are normally loaded from there.
+     */
+    synchronized void invalidate(ResourceLoader loader, String path) {
+        String dir = path.substring(0, path.lastIndexOf('/') + 1);
+        for (Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Key, Entry> e = it.next();
+            if (e.getKey().isFrom(loader) && e.getKey().isAffectedBy(path, dir)) {
+                size -= e.getValue().size;
+                it.remove();
+            }
+        }
+        for (Iterator<Key> it = evicted.keySet().iterator(); it.hasNext(); ) {
+            Key k = it.next();
+            if (k.isFrom(loader) && k.isAffectedBy(path, dir)) it.remove();
+        }
+    }
+    
+    /**
+     * Forgets everything.
+     */
+    synchronized void clear() {
+        entries.clear();
+        evicted.clear();
+        size = 0;
+    }
+    
+    synchronized void setBudget(long budget) {
+        this.budget = budget;
+        trim();
+    }
+    
+    synchronized long getSize() {
+        return size;
+    }
+    
+    /**
+     * Demotes least recently used entries to soft references until the
+     * strongly-held entries fit in the budget.  The most recently used
+     * entry is always kept, even if it is bigger than the budget.
+     */
+    private void trim() {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (size > budget && entries.size() > 1) {
+            Map.Entry<Key, Entry> e = it.next();
+            debug("Evicting "+e.getKey().path);
+            evicted.put(e.getKey(), new SoftEntry(e.getKey(), e.getValue(), clearedEntries));
+            size -= e.getValue().size;
+            it.remove();
+        }
+    }
+    
+    /**
+     * Removes the keys of evicted entries that the garbage collector has
+     * cleared, and of entries whose resource loader has been collected.
+     */
+    private void purgeCleared() {
+        SoftEntry se;
+        while ((se = (SoftEntry) clearedEntries.poll()) != null) {
+            if (evicted.get(se.key) == se) evicted.remove(se.key);
+        }
+        LoaderRef lr;
+        while ((lr = (LoaderRef) clearedLoaders.poll()) != null) {
+            Entry e = entries.remove(lr.key);
+            if (e != null) size -= e.size;
+            evicted.remove(lr.key);
+        }
+    }
+}
@@ -36,6 +36,7 @@
  */
 package net.bluecow.robot.sprite;
 
+import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.HashMap;
@@ -43,12 +44,24 @@ import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 
+import net.bluecow.robot.resource.ContentAddressable;
 import net.bluecow.robot.resource.ResourceLoader;
+import net.bluecow.robot.resource.ResourceUtils;
 
 import org.xml.sax.SAXException;
 
 public class SpriteManager {
     
+    /**
+     * The default value for the cache budget.  See {@link #setCacheBudget(long)}.
+     */
+    public static final long DEFAULT_CACHE_BUDGET = 64L * 1024L * 1024L;
+    
+    /**
+     * The decoded images and animations shared by all sprites in this process.
+     */
+    static final SpriteCache cache = new SpriteCache(DEFAULT_CACHE_BUDGET);
+    
     /**
      * This class is not designed for instantiation.
      */
@@ -99,6 +112,98 @@ public class SpriteManager {
         }
     }
 
+    /**
+     * Returns the decoded image at the given path, loading it if it is not
+     * already in the sprite cache.  The returned image is shared, and must
+     * not be modified.
+     * <p>
+     * If the resource loader knows the content hash of the image (see
+     * {@link ContentAddressable}), the image is cached under its hash, so
+     * identical images at different paths or in different level packs are
+     * only decoded and kept in memory once.
+     */
+    public static BufferedImage loadImage(ResourceLoader resourceLoader, String path) throws IOException {
+        ResourceLoader keyLoader = resourceLoader;
+        String key = path;
+        if (resourceLoader instanceof ContentAddressable) {
+            String hash = ((ContentAddressable) resourceLoader).getContentHash(path);
+            if (hash != null) {
+                keyLoader = null;
+                key = hash;
+            }
+        }
+        Object cached = cache.get(keyLoader, key);
+        if (cached instanceof BufferedImage) {
+            return (BufferedImage) cached;
+        }
+        BufferedImage image = ResourceUtils.loadImage(resourceLoader, path);
+        cache.put(keyLoader, key, image, imageSize(image));
+        return image;
+    }
+    
+    /**
+     * Returns the approximate number of bytes of memory the given image uses.
+     */
+    static long imageSize(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4L;
+    }
+    
+    /**
+     * Sets the approximate amount of memory (in bytes) that decoded sprite
+     * images are allowed to occupy.  Once the budget is exceeded, the least
+     * recently used images are only kept as long as there is no other demand
+     * for memory.  The default is {@link #DEFAULT_CACHE_BUDGET}.
+     */
+    public static void setCacheBudget(long bytes) {
+        cache.setBudget(bytes);
+    }
+    
+    /**
+     * Discards all cached sprite data that came from the given resource
+     * loader.  Call this after changing resources that sprites may have been
+     * loaded from; sprites loaded afterward will see the new contents.
+     * <p>
+     * The {@link SpriteAtlas} and the {@link RotatedFrameCache} don't know
+     * which loader their images came from, so they are cleared completely;
+     * otherwise their copies of the old images would never be reclaimed.
+     */
+    public static void invalidateCache(ResourceLoader resourceLoader) {
+        cache.invalidate(resourceLoader);
+        clearDerivedImages();
+    }
+    
+    /**
+     * Discards the cached sprite data that was loaded from the given resource
+     * (and any animations that may use it as a frame).  Sprites loaded
+     * afterward will see the resource's new contents.  The sprite atlas
+     * and rotated frames are cleared completely, as with
+     * {@link #invalidateCache(ResourceLoader)}.
+     */
+    public static void invalidateCache(ResourceLoader resourceLoader, String path) {
+        cache.invalidate(resourceLoader, path);
+        clearDerivedImages();
+    }
+    
+    /**
+     * Discards all cached sprite data, including the sprite atlas and
+     * rotated frames.
+     */
+    public static void clearCache() {
+        cache.clear();
+        clearDerivedImages();
+    }
+    
+    /**
+     * Discards the copies of sprite images made by the {@link SpriteAtlas}
+     * and the {@link RotatedFrameCache}.  Sprites draw their own images until
+     * they are packed again, and rotated frames are rendered again as they
+     * are needed.
+     */
+    private static void clearDerivedImages() {
+        SpriteAtlas.clear();
+        RotatedFrameCache.clear();
+    }
+
     /**
      * Equivalent to calling {@link #load(Map)} with the <tt>attribs</tt> map
      * containing one entry mapping "href" to the value of the <tt>href</tt>
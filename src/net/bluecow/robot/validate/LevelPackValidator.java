@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.validate;
+
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.bluecow.robot.FileFormatException;
+import net.bluecow.robot.GameConfig;
+import net.bluecow.robot.LevelConfig;
+import net.bluecow.robot.LevelStore;
+import net.bluecow.robot.Robot;
+import net.bluecow.robot.Square;
+import net.bluecow.robot.GameConfig.GateConfig;
+import net.bluecow.robot.gate.Gate;
+import net.bluecow.robot.resource.CompoundResourceLoader;
+import net.bluecow.robot.resource.DirectoryResourceManager;
+import net.bluecow.robot.resource.PrefixResourceLoader;
+import net.bluecow.robot.resource.ResourceLoader;
+import net.bluecow.robot.resource.SystemResourceLoader;
+import net.bluecow.robot.resource.ZipFileResourceLoader;
+import bsh.Parser;
+import bsh.TokenMgrError;
+
+/**
+ * Checks level packs for mistakes that the level loader either doesn't
+ * notice or only mentions in passing. Packs are loaded with audio disabled,
+ * so the validator can run on machines without sound hardware.
+ * <p>
+ * Every pack is loaded by its own task, and once a pack has loaded, each of
+ * its levels is checked by a separate task, so a big batch of packs keeps all
+ * the worker threads busy. The checks are:
+ * <ul>
+ *  <li>Everything the loader reports: missing sounds and graphics, gate
+ *      allowances for undeclared gate types, maps that don't match the
+ *      declared level size, undeclared square types
+ *  <li>Robots that start on (or off) the map on an unoccupiable square
+ *  <li>Switches that no robot can reach by walking over occupiable squares
+ *  <li>Gate allowances for gate types the pack doesn't declare
+ *  <li>March music that doesn't refer to a declared sound
+ *  <li>Switch scripts that don't parse
+ * </ul>
+ * 
+ * @author fuerth
+ * @version $Id$
+ */
+public class LevelPackValidator {
+
+    /**
+     * Controls the debugging features of this class.
+     */
+    private static final boolean debugOn = false;
+    
+    private final ExecutorService executor;
+    
+    /**
+     * Creates a validator that uses the given number of worker threads.
+     */
+    public LevelPackValidator(int threads) {
+        executor = Executors.newFixedThreadPool(threads);
+    }
+    
+    /**
+     * Validates all the given level packs, and returns the problems found
+     * ordered by pack, then by level.  Each pack can be a directory or a
+     * jar or zip file.
+     */
+    public List<ValidationProblem> validate(List<File> packs) throws InterruptedException {
+        List<Future<List<Future<List<ValidationProblem>>>>> packResults =
+            new ArrayList<Future<List<Future<List<ValidationProblem>>>>>();
+        for (final File pack : packs) {
+            packResults.add(executor.submit(new Callable<List<Future<List<ValidationProblem>>>>() {
+                public List<Future<List<ValidationProblem>>> call() throws Exception {
+                    return loadAndSubmit(pack);
+                }
+            }));
+        }
+        
+        List<ValidationProblem> problems = new ArrayList<ValidationProblem>();
+        for (Future<List<Future<List<ValidationProblem>>>> packResult : packResults) {
+            for (Future<List<ValidationProblem>> levelResult : getResult(packResult)) {
+                problems.addAll(getResult(levelResult));
+            }
+        }
+        return problems;
+    }
+    
+    /**
+     * Shuts down the worker threads.  This validator can't be used after it
+     * has been closed.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+    
+    private static <T> T getResult(Future<T> f) throws InterruptedException {
+        try {
+            return f.get();
+        } catch (ExecutionException ex) {
+            // the tasks catch everything they expect, so this is a bug
+            throw new RuntimeException("Validation task failed", ex.getCause());
+        }
+    }
+    
+    /**
+     * Loads the given pack and submits one validation task per level.  The
+     * first task in the returned list reports pack-wide problems.
+     */
+    private List<Future<List<ValidationProblem>>> loadAndSubmit(File pack) {
+        final String packName = pack.getPath();
+        final List<ValidationProblem> packProblems = new ArrayList<ValidationProblem>();
+        List<Future<List<ValidationProblem>>> results = new ArrayList<Future<List<ValidationProblem>>>();
+        
+        GameConfig config = null;
+        try {
+            List<FileFormatException> warnings = new ArrayList<FileFormatException>();
+            config = loadPack(pack, warnings);
+            for (FileFormatException ffe : warnings) {
+                packProblems.add(new ValidationProblem(
+                        ValidationProblem.Severity.WARNING, packName, null, describe(ffe)));
+            }
+        } catch (FileFormatException ex) {
+            packProblems.add(new ValidationProblem(
+                    ValidationProblem.Severity.ERROR, packName, null, describe(ex)));
+        } catch (Exception ex) {
+            if (debugOn) ex.printStackTrace();
+            packProblems.add(new ValidationProblem(
+                    ValidationProblem.Severity.ERROR, packName, null, "Couldn't load pack: "+describe(ex)));
+        }
+        
+        results.add(executor.submit(new Callable<List<ValidationProblem>>() {
+            public List<ValidationProblem> call() {
+                return packProblems;
+            }
+        }));
+        
+        if (config != null) {
+            final GameConfig fconfig = config;
+            for (final LevelConfig level : config.getLevels()) {
+                results.add(executor.submit(new Callable<List<ValidationProblem>>() {
+                    public List<ValidationProblem> call() {
+                        return validateLevel(packName, fconfig, level);
+                    }
+                }));
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Loads the given level pack with audio disabled, backed by the builtin
+     * resources the same way the game does.
+     * 
+     * @param pack A level pack directory or jar file
+     * @param warnings Non-fatal problems are appended to this list
+     */
+    static GameConfig loadPack(File pack, List<FileFormatException> warnings) throws IOException {
+        ResourceLoader packLoader;
+        if (pack.isDirectory()) {
+            DirectoryResourceManager drm = new DirectoryResourceManager(pack);
+            drm.setMemoryMapping(true);
+            packLoader = drm;
+        } else {
+            packLoader = new ZipFileResourceLoader(pack);
+        }
+        ResourceLoader builtinResourceLoader =
+            new PrefixResourceLoader(new SystemResourceLoader(), "builtin/");
+        return LevelStore.loadLevels(
+                new CompoundResourceLoader(packLoader, builtinResourceLoader),
+                LevelStore.DEFAULT_MAP_RESOURCE_PATH, false, warnings);
+    }
+    
+    private static String describe(Throwable ex) {
+        StringBuilder sb = new StringBuilder(String.valueOf(ex.getMessage()));
+        if (ex instanceof FileFormatException) {
+            FileFormatException ffe = (FileFormatException) ex;
+            sb.append(" (line ").append(ffe.getLineNum()).append(")");
+        }
+        while (ex.getCause() != null && ex.getCause() != ex) {
+            String outerMessage = ex.getMessage();
+            ex = ex.getCause();
+            if (ex.getMessage() != null && (outerMessage == null || outerMessage.indexOf(ex.getMessage()) < 0)) {
+                sb.append(": ").append(ex.getMessage());
+            }
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Runs all the per-level checks on the given level. This method doesn't
+     * modify the level, so levels of the same pack can be validated
+     * concurrently.
+     */
+    public static List<ValidationProblem> validateLevel(String packName, GameConfig config, LevelConfig level) {
+        List<ValidationProblem> problems = new ArrayList<ValidationProblem>();
+        String levelName = level.getName();
+        
+        if (level.getMarchMusicId() != null &&
+                config.getSoundManager().getEntry(level.getMarchMusicId()) == null) {
+            problems.add(new ValidationProblem(ValidationProblem.Severity.ERROR, packName, levelName,
+                    "March music \""+level.getMarchMusicId()+"\" is not a declared sound"));
+        }
+
+        Set<Class<? extends Gate>> declaredGates = new HashSet<Class<? extends Gate>>();
+        for (GateConfig gc : config.getGateTypes()) {
+            declaredGates.add(gc.getGateClass());
+        }
+        
+        List<Point> starts = new ArrayList<Point>();
+        for (Robot robot : level.getRobots()) {
+            Point p = new Point((int) robot.getStartPosition().x, (int) robot.getStartPosition().y);
+            if (!onMap(level, p)) {
+                problems.add(new ValidationProblem(ValidationProblem.Severity.ERROR, packName, levelName,
+                        "Robot \""+robot.getId()+"\" starts off the map at ("+p.x+","+p.y+")"));
+                continue;
+            }
+            Square start = level.getSquare(p.x, p.y);
+            if (start == null || !start.isOccupiable()) {
+                problems.add(new ValidationProblem(ValidationProblem.Severity.ERROR, packName, levelName,
+                        "Robot \""+robot.getId()+"\" starts on an unoccupiable square at ("+p.x+","+p.y+")"));
+            } else {
+                starts.add(p);
+            }
+            
+            for (Class<? extends Gate> gateClass : robot.getCircuit().getGateAllowances().keySet()) {
+                if (!declaredGates.contains(gateClass)) {
+                    problems.add(new ValidationProblem(ValidationProblem.Severity.ERROR, packName, levelName,
+                            "Robot \""+robot.getId()+"\" is allowed gate type "+gateClass.getName()+
+                            ", which the pack doesn't declare"));
+                }
+            }
+        }
+        
+        boolean[][] reachable = floodFill(level, starts);
+        for (LevelConfig.Switch sw : level.getSwitches()) {
+            Point p = sw.getPosition();
+            if (!onMap(level, p) || !reachable[p.x][p.y]) {
+                boolean goal = SolvabilityAnalyser.isGoalSwitch(sw);
+                problems.add(new ValidationProblem(
+                        goal ? ValidationProblem.Severity.ERROR : ValidationProblem.Severity.WARNING,
+                        packName, levelName,
+                        (goal ? "Goal switch \"" : "Switch \"")+sw.getId()+"\" at ("+p.x+","+p.y+
+                        ") can't be reached by any robot"));
+            }
+            
+            String error = checkScript(sw.getOnEnter());
+            if (error != null) {
+                problems.add(new ValidationProblem(ValidationProblem.Severity.ERROR, packName, levelName,
+                        "On-enter script of switch \""+sw.getId()+"\" doesn't parse: "+error));
+            }
+        }
+        
+        return problems;
+    }
+    
+    private static boolean onMap(LevelConfig level, Point p) {
+        return p.x >= 0 && p.y >= 0 && p.x < level.getWidth() && p.y < level.getHeight();
+    }
+    
+    /**
+     * Marks every square that can be walked to from any of the given starting
+     * squares, moving horizontally and vertically over occupiable squares.
+     */
+    private static boolean[][] floodFill(LevelConfig level, Collection<Point> starts) {
+        boolean[][] visited = new boolean[level.getWidth()][level.getHeight()];
+        LinkedList<Point> queue = new LinkedList<Point>();
+        for (Point p : starts) {
+            visited[p.x][p.y] = true;
+            queue.add(p);
+        }
+        while (!queue.isEmpty()) {
+            Point p = queue.removeFirst();
+            Point[] neighbours = {
+                    new Point(p.x - 1, p.y), new Point(p.x + 1, p.y),
+                    new Point(p.x, p.y - 1), new Point(p.x, p.y + 1) };
+            for (Point n : neighbours) {
+                if (!onMap(level, n) || visited[n.x][n.y]) continue;
+                Square s = level.getSquare(n.x, n.y);
+                if (s != null && s.isOccupiable()) {
+                    visited[n.x][n.y] = true;
+                    queue.add(n);
+                }
+            }
+        }
+        return visited;
+    }
+    
+    /**
+     * Parses the given BeanShell script without running it.
+     * 
+     * @return null if the script is null or parses, otherwise a description
+     * of the syntax error
+     */
+    private static String checkScript(String script) {
+        if (script == null) return null;
+        try {
+            Parser parser = new Parser(new StringReader(script + "\n;"));
+            while (!parser.Line()) {
+                parser.popNode();
+            }
+            return null;
+        } catch (bsh.ParseException ex) {
+            return ex.getMessage();
+        } catch (TokenMgrError ex) {
+            return ex.getMessage();
+        }
+    }
+    
+    /**
+     * Validates the level packs named on the command line and prints the
+     * problems found.  Exits with status 1 if any errors were found.
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: LevelPackValidator pack [pack ...]");
+            System.err.println("  where each pack is a level pack directory or jar file");
+            System.exit(2);
+        }
+        List<File> packs = new ArrayList<File>();
+        for (String arg : args) {
+            packs.add(new File(arg));
+        }
+        
+        LevelPackValidator validator = new LevelPackValidator(Runtime.getRuntime().availableProcessors());
+        List<ValidationProblem> problems;
+        try {
+            problems = validator.validate(packs);
+        } finally {
+            validator.close();
+        }
+        
+        int errors = 0;
+        for (ValidationProblem p : problems) {
+            System.out.println(p);
+            if (p.getSeverity() == ValidationProblem.Severity.ERROR) errors++;
+        }
+        System.out.println(packs.size()+" pack(s) checked: "+errors+" error(s), "+
+                (problems.size() - errors)+" warning(s)");
+        System.exit(errors > 0 ? 1 : 0);
+    }
+}
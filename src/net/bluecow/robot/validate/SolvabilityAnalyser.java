@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.validate;
+
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.bluecow.robot.FileFormatException;
+import net.bluecow.robot.GameConfig;
+import net.bluecow.robot.LevelConfig;
+import net.bluecow.robot.Robot;
+import net.bluecow.robot.Square;
+
+/**
+ * Works out whether a robot can reach a goal switch at all, and if so, the
+ * smallest number of game loop steps it could possibly take.
+ * <p>
+ * The analyser assumes the robot's circuit can produce any combination of
+ * movement inputs on every step, so the reachable positions are a superset
+ * of what any real circuit could achieve: "unreachable" is a definite
+ * answer, and the minimum step count is a lower bound on what the best
+ * circuit will need.  Movement follows the game's own rules (see
+ * {@link Robot#move(LevelConfig, Point2D.Float, float, int)}), and since
+ * those rules only depend on the robot's position, a state is just a
+ * position on the robot's step grid.
+ * <p>
+ * States are explored breadth-first, one step at a time, with the frontier
+ * split between worker threads.  Visited states are kept in a bitset with
+ * one bit per step grid position, so a 1000x1000 level with a step size of
+ * 0.1 needs about 12MB.
+ * 
+ * @author fuerth
+ * @version $Id$
+ */
+public class SolvabilityAnalyser {
+
+    /**
+     * Controls the debugging features of this class.
+     */
+    private static final boolean debugOn = false;
+    
+    /**
+     * Frontiers smaller than this are expanded on the calling thread.
+     */
+    private static final int MIN_PARALLEL_FRONTIER = 4096;
+    
+    /**
+     * The outcome of analysing one robot.  Instances are immutable.
+     */
+    public static class Result {
+        private final Robot robot;
+        private final int minSteps;
+        private final int statesExplored;
+        
+        Result(Robot robot, int minSteps, int statesExplored) {
+            this.robot = robot;
+            this.minSteps = minSteps;
+            this.statesExplored = statesExplored;
+        }
+        
+        /**
+         * Returns the robot that was analysed.
+         */
+        public Robot getRobot() {
+            return robot;
+        }
+        
+        public boolean isGoalReachable() {
+            return minSteps >= 0;
+        }
+        
+        /**
+         * Returns the minimum number of steps the robot needs to enter a
+         * goal switch, or -1 if it can't reach one.
+         */
+        public int getMinSteps() {
+            return minSteps;
+        }
+        
+        /**
+         * Returns the number of distinct positions that were visited.
+         */
+        public int getStatesExplored() {
+            return statesExplored;
+        }
+        
+        @Override
+        public String toString() {
+            return "Robot \""+robot.getId()+"\": "+
+                (isGoalReachable() ? "goal reachable in "+minSteps+" steps" : "goal unreachable")+
+                " ("+statesExplored+" positions explored)";
+        }
+    }
+    
+    /**
+     * A fixed-size set of bits that can be set from many threads at once.
+     */
+    private static class ConcurrentBitSet {
+        private final AtomicLongArray words;
+        
+        ConcurrentBitSet(int size) {
+            words = new AtomicLongArray((size + 63) >>> 6);
+        }
+        
+        /**
+         * Sets the given bit.
+         * 
+         * @return true if this call set the bit; false if it was already set
+         */
+        boolean testAndSet(int bit) {
+            int i = bit >>> 6;
+            long mask = 1L << (bit & 63);
+            for (;;) {
+                long old = words.get(i);
+                if ((old & mask) != 0) return false;
+                if (words.compareAndSet(i, old, old | mask)) return true;
+            }
+        }
+    }
+    
+    /**
+     * A growable list of ints, so frontiers don't have to be boxed.
+     */
+    private static class IntList {
+        int[] values = new int[64];
+        int size;
+        
+        void add(int v) {
+            if (size == values.length) {
+                int[] bigger = new int[size * 2];
+                System.arraycopy(values, 0, bigger, 0, size);
+                values = bigger;
+            }
+            values[size++] = v;
+        }
+    }
+    
+    private final ExecutorService executor;
+    private final int threads;
+    
+    /**
+     * Creates an analyser that uses the given number of worker threads.
+     */
+    public SolvabilityAnalyser(int threads) {
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+    
+    /**
+     * Shuts down the worker threads.  This analyser can't be used after it
+     * has been closed.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+    
+    /**
+     * Returns true if the given switch ends the level for the robot that
+     * enters it.  Goals are ordinary switches whose on-enter script marks
+     * the robot's goal as reached.
+     */
+    static boolean isGoalSwitch(LevelConfig.Switch sw) {
+        return sw.getOnEnter() != null && sw.getOnEnter().indexOf("setGoalReached") >= 0;
+    }
+    
+    /**
+     * Analyses every robot in the given level.
+     */
+    public List<Result> analyse(LevelConfig level) throws InterruptedException {
+        List<Result> results = new ArrayList<Result>();
+        for (Robot robot : level.getRobots()) {
+            results.add(analyse(robot));
+        }
+        return results;
+    }
+    
+    /**
+     * Analyses the given robot, starting from its start position in its level.
+     * 
+     * @throws IllegalArgumentException if the level is too big to analyse
+     * with the robot's step size
+     */
+    public Result analyse(Robot robot) throws InterruptedException {
+        return new Search(robot).run();
+    }
+    
+    /**
+     * The state of one analysis.  Positions on the step grid are numbered
+     * <tt>gx * gridHeight + gy</tt>, where grid position (gx, gy) is
+     * <tt>start + (gx - startGx, gy - startGy) * stepSize</tt>.
+     */
+    private class Search {
+        private final Robot robot;
+        private final LevelConfig level;
+        private final float stepSize;
+        private final Point2D.Float start;
+        private final int startGx;
+        private final int startGy;
+        private final int gridWidth;
+        private final int gridHeight;
+        private final boolean[][] goalSquares;
+        private final ConcurrentBitSet visited;
+        
+        Search(Robot robot) {
+            this.robot = robot;
+            this.level = robot.getLevel();
+            this.stepSize = robot.getStepSize();
+            this.start = robot.getStartPosition();
+            startGx = (int) Math.ceil(start.x / stepSize);
+            startGy = (int) Math.ceil(start.y / stepSize);
+            long w = startGx + (long) Math.ceil((level.getWidth() - start.x) / stepSize) + 1;
+            long h = startGy + (long) Math.ceil((level.getHeight() - start.y) / stepSize) + 1;
+            if (w * h > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        "Level \""+level.getName()+"\" has too many positions ("+w*h+
+                        ") to analyse with a step size of "+stepSize);
+            }
+            gridWidth = (int) w;
+            gridHeight = (int) h;
+            
+            goalSquares = new boolean[level.getWidth()][level.getHeight()];
+            for (LevelConfig.Switch sw : level.getSwitches()) {
+                Point p = sw.getPosition();
+                if (isGoalSwitch(sw) && p.x >= 0 && p.y >= 0 &&
+                        p.x < level.getWidth() && p.y < level.getHeight()) {
+                    goalSquares[p.x][p.y] = true;
+                }
+            }
+            visited = new ConcurrentBitSet(gridWidth * gridHeight);
+        }
+        
+        Result run() throws InterruptedException {
+            Square startSquare = level.getSquare(start);
+            if (startSquare == null || !startSquare.isOccupiable()) {
+                return new Result(robot, -1, 0);
+            }
+            int startState = startGx * gridHeight + startGy;
+            visited.testAndSet(startState);
+            int explored = 1;
+            if (isGoal(startState)) {
+                return new Result(robot, 0, explored);
+            }
+            
+            IntList frontier = new IntList();
+            frontier.add(startState);
+            for (int step = 1; frontier.size > 0; step++) {
+                List<IntList> next = expand(frontier);
+                frontier = new IntList();
+                for (IntList part : next) {
+                    for (int i = 0; i < part.size; i++) {
+                        int state = part.values[i];
+                        if (isGoal(state)) {
+                            return new Result(robot, step, explored + frontier.size + 1);
+                        }
+                        frontier.add(state);
+                    }
+                }
+                explored += frontier.size;
+                if (debugOn) System.out.println("Step "+step+": frontier size "+frontier.size);
+            }
+            return new Result(robot, -1, explored);
+        }
+        
+        /**
+         * Finds all the unvisited states one step away from the given
+         * frontier, marking them visited.
+         */
+        private List<IntList> expand(final IntList frontier) throws InterruptedException {
+            List<IntList> result = new ArrayList<IntList>();
+            if (frontier.size < MIN_PARALLEL_FRONTIER || threads == 1) {
+                result.add(expand(frontier, 0, frontier.size));
+                return result;
+            }
+            List<Future<IntList>> parts = new ArrayList<Future<IntList>>();
+            int chunk = (frontier.size + threads - 1) / threads;
+            for (int i = 0; i < frontier.size; i += chunk) {
+                final int from = i;
+                final int to = Math.min(frontier.size, i + chunk);
+                parts.add(executor.submit(new Callable<IntList>() {
+                    public IntList call() {
+                        return expand(frontier, from, to);
+                    }
+                }));
+            }
+            for (Future<IntList> part : parts) {
+                try {
+                    result.add(part.get());
+                } catch (ExecutionException ex) {
+                    throw new RuntimeException("Analysis of level \""+level.getName()+"\" failed", ex.getCause());
+                }
+            }
+            return result;
+        }
+        
+        private IntList expand(IntList frontier, int from, int to) {
+            IntList next = new IntList();
+            Point2D.Float pos = new Point2D.Float();
+            for (int i = from; i < to; i++) {
+                int state = frontier.values[i];
+                for (int direction = 1; direction < 16; direction++) {
+                    toPosition(state, pos);
+                    try {
+                        Robot.move(level, pos, stepSize, direction);
+                    } catch (ArrayIndexOutOfBoundsException ex) {
+                        // the game itself would fail on this move, so it can't lead to the goal
+                        continue;
+                    }
+                    int nextState = toState(pos);
+                    if (nextState >= 0 && visited.testAndSet(nextState)) {
+                        next.add(nextState);
+                    }
+                }
+            }
+            return next;
+        }
+        
+        private void toPosition(int state, Point2D.Float pos) {
+            pos.x = start.x + (state / gridHeight - startGx) * stepSize;
+            pos.y = start.y + (state % gridHeight - startGy) * stepSize;
+        }
+        
+        /**
+         * Returns the state for the given position, or -1 if it's off the grid.
+         */
+        private int toState(Point2D.Float pos) {
+            int gx = Math.round((pos.x - start.x) / stepSize) + startGx;
+            int gy = Math.round((pos.y - start.y) / stepSize) + startGy;
+            if (gx < 0 || gy < 0 || gx >= gridWidth || gy >= gridHeight) return -1;
+            return gx * gridHeight + gy;
+        }
+        
+        private boolean isGoal(int state) {
+            Point2D.Float pos = new Point2D.Float();
+            toPosition(state, pos);
+            int x = (int) pos.x;
+            int y = (int) pos.y;
+            return pos.x >= 0 && pos.y >= 0 && x < level.getWidth() && y < level.getHeight() && goalSquares[x][y];
+        }
+    }
+    
+    /**
+     * Analyses every level in the level packs named on the command line and
+     * prints the results.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: SolvabilityAnalyser pack [pack ...]");
+            System.err.println("  where each pack is a level pack directory or jar file");
+            System.exit(2);
+        }
+        SolvabilityAnalyser analyser = new SolvabilityAnalyser(Runtime.getRuntime().availableProcessors());
+        try {
+            for (String arg : args) {
+                GameConfig config = LevelPackValidator.loadPack(
+                        new File(arg), new ArrayList<FileFormatException>());
+                for (LevelConfig level : config.getLevels()) {
+                    for (Result r : analyser.analyse(level)) {
+                        System.out.println(arg+" ["+level.getName()+"]: "+r);
+                    }
+                }
+            }
+        } finally {
+            analyser.close();
+        }
+    }
+}
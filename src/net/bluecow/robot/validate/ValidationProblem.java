@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2007, Jonathan Fuerth
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Jonathan Fuerth nor the names of other
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.bluecow.robot.validate;
+
+/**
+ * A single problem found by the {@link LevelPackValidator}. Instances are
+ * immutable.
+ *
+ * @author fuerth
+ * @version $Id$
+ */
+public class ValidationProblem {
+
+    public static enum Severity {
+        /** The pack or level can't be played as intended. */
+        ERROR,
+        
+        /** Probably a mistake, but the level still works. */
+        WARNING
+    }
+    
+    private final Severity severity;
+    private final String pack;
+    private final String level;
+    private final String message;
+    
+    /**
+     * @param severity How bad the problem is
+     * @param pack The name of the level pack the problem was found in
+     * @param level The name of the level the problem was found in, or null if
+     * the problem isn't specific to one level
+     * @param message A description of the problem
+     */
+    public ValidationProblem(Severity severity, String pack, String level, String message) {
+        this.severity = severity;
+        this.pack = pack;
+        this.level = level;
+        this.message = message;
+    }
+
+    public Severity getSeverity() {
+        return severity;
+    }
+
+    public String getPack() {
+        return pack;
+    }
+
+    public String getLevel() {
+        return level;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+    
+    @Override
+    public String toString() {
+        return pack + (level == null ? "" : " [" + level + "]") + ": " + severity + ": " + message;
+    }
+}